@@ -0,0 +1,55 @@
+package net.atomcode.bearing.benchmark;
+
+import android.location.Location;
+
+import java.util.Random;
+
+/**
+ * Fake location source producing a deterministic track of fixes, standing in for
+ * a real provider in benchmarks
+ */
+public class FakeFixes
+{
+	private static final double METRES_PER_DEGREE = 111320.0;
+
+	private FakeFixes()
+	{
+	}
+
+	/**
+	 * Generate a track of fixes moving at a constant speed with a wandering heading
+	 * @param count The number of fixes
+	 * @param intervalMillis The time between fixes
+	 * @param speed The speed of travel in metres per second
+	 * @param seed The random seed, fixed for repeatable runs
+	 */
+	public static Location[] track(int count, long intervalMillis, double speed, long seed)
+	{
+		Random random = new Random(seed);
+
+		Location[] fixes = new Location[count];
+
+		double latitude = 51.5074;
+		double longitude = -0.1278;
+		double heading = random.nextDouble() * 2 * Math.PI;
+		long time = 1420070400000L;
+
+		for (int i = 0; i < count; i++)
+		{
+			Location fix = new Location("fake");
+			fix.setLatitude(latitude);
+			fix.setLongitude(longitude);
+			fix.setTime(time);
+			fix.setAccuracy(5.0f + random.nextFloat() * 45.0f);
+			fixes[i] = fix;
+
+			double distance = speed * intervalMillis / 1000.0;
+			heading += (random.nextDouble() - 0.5) * 0.5;
+			latitude += distance * Math.cos(heading) / METRES_PER_DEGREE;
+			longitude += distance * Math.sin(heading) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+			time += intervalMillis;
+		}
+
+		return fixes;
+	}
+}
@@ -0,0 +1,51 @@
+package net.atomcode.bearing.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads recorded API payloads from the benchmark resources
+ */
+public class Fixtures
+{
+	private Fixtures()
+	{
+	}
+
+	public static String load(String name)
+	{
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (in == null)
+		{
+			throw new IllegalArgumentException("No fixture named " + name);
+		}
+
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, read);
+			}
+			return out.toString("UTF-8");
+		}
+		catch (IOException ex)
+		{
+			throw new IllegalStateException("Failed to read fixture " + name, ex);
+		}
+		finally
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException ex)
+			{
+				// Ignore
+			}
+		}
+	}
+}
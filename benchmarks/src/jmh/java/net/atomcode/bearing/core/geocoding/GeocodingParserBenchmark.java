@@ -0,0 +1,49 @@
+package net.atomcode.bearing.core.geocoding;
+
+import net.atomcode.bearing.benchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of Google Geocoding API responses, run once per remote lookup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeocodingParserBenchmark
+{
+	@Param({"1", "10"})
+	public int resultCount;
+
+	private String queryResponse;
+	private String reverseResponse;
+
+	@Setup
+	public void setup()
+	{
+		queryResponse = Fixtures.load("geocode_query.json");
+		reverseResponse = Fixtures.load("geocode_reverse.json");
+	}
+
+	@Benchmark
+	public List<GeocodedAddress> parseQuery() throws GeocodingException
+	{
+		return GeocodingResponseParser.parse(queryResponse, resultCount);
+	}
+
+	@Benchmark
+	public List<GeocodedAddress> parseReverse() throws GeocodingException
+	{
+		return GeocodingResponseParser.parse(reverseResponse, resultCount);
+	}
+}
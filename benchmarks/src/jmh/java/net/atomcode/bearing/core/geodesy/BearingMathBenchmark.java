@@ -0,0 +1,72 @@
+package net.atomcode.bearing.core.geodesy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk distances over random point pairs, sequential and split across the fork-join pool
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BearingMathBenchmark
+{
+	@Param({"EQUIRECTANGULAR", "HAVERSINE", "VINCENTY"})
+	public BearingMath.Method method;
+
+	@Param({"1000", "1000000"})
+	public int count;
+
+	private double[] latitudes1;
+	private double[] longitudes1;
+	private double[] latitudes2;
+	private double[] longitudes2;
+	private double[] out;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		latitudes1 = new double[count];
+		longitudes1 = new double[count];
+		latitudes2 = new double[count];
+		longitudes2 = new double[count];
+		out = new double[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			// Pairs within about 100km, as in a recorded track
+			latitudes1[i] = random.nextDouble() * 140 - 70;
+			longitudes1[i] = random.nextDouble() * 360 - 180;
+			latitudes2[i] = latitudes1[i] + random.nextDouble() - 0.5;
+			longitudes2[i] = longitudes1[i] + random.nextDouble() - 0.5;
+		}
+	}
+
+	@Benchmark
+	public double[] distances()
+	{
+		return BearingMath.distances(method, latitudes1, longitudes1, latitudes2, longitudes2, out);
+	}
+
+	@Benchmark
+	public double[] distancesParallel()
+	{
+		return BearingMath.distancesParallel(method, latitudes1, longitudes1, latitudes2, longitudes2, out);
+	}
+
+	@Benchmark
+	public double[] initialBearings()
+	{
+		return BearingMath.initialBearings(latitudes1, longitudes1, latitudes2, longitudes2, out);
+	}
+}
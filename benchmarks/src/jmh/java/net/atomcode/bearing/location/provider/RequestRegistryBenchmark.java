@@ -0,0 +1,67 @@
+package net.atomcode.bearing.location.provider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request id generation and the provider registry operations run for every request
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestRegistryBenchmark
+{
+	/**
+	 * Number of requests already running on the provider
+	 */
+	@Param({"0", "16", "256"})
+	public int running;
+
+	private RequestRegistry<Object> registry;
+	private String runningId;
+	private final Object request = new Object();
+
+	@Setup
+	public void setup()
+	{
+		registry = new RequestRegistry<Object>();
+		for (int i = 0; i < running; i++)
+		{
+			runningId = RequestRegistry.newRequestId();
+			registry.put(runningId, request);
+		}
+	}
+
+	@Benchmark
+	public String newRequestId()
+	{
+		return RequestRegistry.newRequestId();
+	}
+
+	/**
+	 * A full request lifecycle: register, look up on delivery, remove on completion
+	 */
+	@Benchmark
+	public Object registerAndRemove()
+	{
+		String requestId = RequestRegistry.newRequestId();
+		registry.put(requestId, request);
+		Object delivered = registry.get(requestId);
+		registry.remove(requestId);
+		return delivered;
+	}
+
+	@Benchmark
+	public boolean lookup()
+	{
+		return registry.contains(runningId);
+	}
+}
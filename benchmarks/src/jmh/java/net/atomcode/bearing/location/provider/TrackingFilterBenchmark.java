@@ -0,0 +1,57 @@
+package net.atomcode.bearing.location.provider;
+
+import android.location.Location;
+
+import net.atomcode.bearing.benchmark.FakeFixes;
+import net.atomcode.bearing.location.LocationProviderRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The recurring update filter, run on every fix delivered to a tracking request
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackingFilterBenchmark
+{
+	private static final int TRACK_LENGTH = 4096;
+	private static final long FIX_INTERVAL = 1000;
+
+	/**
+	 * Tracking displacement in metres, -1 for none
+	 */
+	@Param({"-1", "10", "100"})
+	public float displacement;
+
+	private Location[] fixes;
+	private TrackingFilter filter;
+	private int index;
+
+	@Setup
+	public void setup()
+	{
+		fixes = FakeFixes.track(TRACK_LENGTH, FIX_INTERVAL, 8.0, 42L);
+
+		LocationProviderRequest request = new LocationProviderRequest();
+		request.trackingDisplacement = displacement;
+		filter = new TrackingFilter(request);
+	}
+
+	@Benchmark
+	public boolean accept()
+	{
+		Location fix = fixes[index];
+		index = (index + 1) & (TRACK_LENGTH - 1);
+		return filter.accept(fix, fix.getTime());
+	}
+}
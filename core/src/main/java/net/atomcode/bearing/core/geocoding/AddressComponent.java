@@ -0,0 +1,88 @@
+package net.atomcode.bearing.core.geocoding;
+
+/**
+ * A single component of a geocoded address, i.e. the street, town or country
+ *
+ * Components are compact: the type list is shared between components with the same types,
+ * names of components repeated across many results (countries, administrative areas and
+ * localities) are interned, and the short name shares the long name when they are equal.
+ */
+public class AddressComponent
+{
+	/**
+	 * Types whose names repeat across results, worth sharing
+	 */
+	private static final String[] SHARED_NAME_TYPES = {
+			"country",
+			"administrative_area_level_1",
+			"administrative_area_level_2",
+			"administrative_area_level_3",
+			"locality",
+			"postal_town"
+	};
+
+	private final String longName;
+	private final String shortName;
+	private final String[] types;
+
+	public AddressComponent(String longName, String shortName, String[] types)
+	{
+		this.types = Interner.internTypes(types);
+
+		if (hasSharedName(this.types))
+		{
+			longName = Interner.intern(longName);
+			shortName = Interner.intern(shortName);
+		}
+		this.longName = longName;
+		this.shortName = shortName != null && shortName.equals(longName) ? longName : shortName;
+	}
+
+	public String getLongName()
+	{
+		return longName;
+	}
+
+	public String getShortName()
+	{
+		return shortName;
+	}
+
+	/**
+	 * The Google Geocoding API types of this component, i.e. "route" or "country"
+	 */
+	public String[] getTypes()
+	{
+		return types.clone();
+	}
+
+	/**
+	 * Check if the component is of the given type
+	 */
+	public boolean hasType(String type)
+	{
+		for (String componentType : types)
+		{
+			if (componentType.equals(type))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasSharedName(String[] types)
+	{
+		for (String type : types)
+		{
+			for (String sharedType : SHARED_NAME_TYPES)
+			{
+				if (sharedType.equals(type))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
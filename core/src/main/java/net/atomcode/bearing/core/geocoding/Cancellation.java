@@ -0,0 +1,92 @@
+package net.atomcode.bearing.core.geocoding;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Cancels an engine request from another thread. Cancelling closes the connection of a
+ * request in flight, failing the blocked read immediately, and wakes a request waiting
+ * on the rate limiter or a retry backoff.
+ *
+ * A cancelled request fails with a {@link GeocodingException} with the status
+ * {@link GeocodingException#STATUS_CANCELLED}.
+ */
+public class Cancellation
+{
+	// Guarded by this
+	private boolean cancelled;
+	private HttpURLConnection connection;
+
+	/**
+	 * Cancel the request, safe to call from any thread and more than once
+	 */
+	public void cancel()
+	{
+		HttpURLConnection inFlight;
+		synchronized (this)
+		{
+			if (cancelled)
+			{
+				return;
+			}
+			cancelled = true;
+			inFlight = connection;
+			connection = null;
+			notifyAll();
+		}
+
+		if (inFlight != null)
+		{
+			// Closes the socket under a read blocked on another thread
+			inFlight.disconnect();
+		}
+	}
+
+	public synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Track the connection of the request in flight
+	 * @return false if already cancelled, the connection should not be used
+	 */
+	synchronized boolean attach(HttpURLConnection connection)
+	{
+		if (cancelled)
+		{
+			return false;
+		}
+		this.connection = connection;
+		return true;
+	}
+
+	synchronized void detach(HttpURLConnection connection)
+	{
+		if (this.connection == connection)
+		{
+			this.connection = null;
+		}
+	}
+
+	/**
+	 * Wait for the given time, returning early if cancelled
+	 * @return false if cancelled
+	 */
+	synchronized boolean sleep(long nanos) throws InterruptedException
+	{
+		long end = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (!cancelled && remaining > 0)
+		{
+			wait(remaining / 1000000, (int)(remaining % 1000000));
+			remaining = end - System.nanoTime();
+		}
+		return !cancelled;
+	}
+}
@@ -0,0 +1,69 @@
+package net.atomcode.bearing.core.geocoding;
+
+/**
+ * Divides the world into roughly square cells of a given size, for grouping nearby coordinates.
+ * Cells are identified by their row and column packed into a long.
+ */
+public class CellGrid
+{
+	private static final double METRES_PER_DEGREE = 111320;
+
+	private final double cellHeight; // Degrees of latitude
+
+	/**
+	 * @param cellSize The width of a cell in metres
+	 */
+	public CellGrid(double cellSize)
+	{
+		if (cellSize <= 0)
+		{
+			throw new IllegalArgumentException("Cell size must be positive");
+		}
+		this.cellHeight = cellSize / METRES_PER_DEGREE;
+	}
+
+	/**
+	 * Get the cell containing the given coordinates
+	 */
+	public long cellOf(double latitude, double longitude)
+	{
+		int row = (int)Math.floor(latitude / cellHeight);
+		int column = (int)Math.floor(longitude / cellWidth(row));
+		return ((long)row << 32) | (column & 0xffffffffL);
+	}
+
+	public double centreLatitude(long cell)
+	{
+		return (row(cell) + 0.5) * cellHeight;
+	}
+
+	public double centreLongitude(long cell)
+	{
+		return (column(cell) + 0.5) * cellWidth(row(cell));
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private static int row(long cell)
+	{
+		return (int)(cell >> 32);
+	}
+
+	private static int column(long cell)
+	{
+		return (int)cell;
+	}
+
+	/**
+	 * Width in degrees of longitude of the cells in the given row, so cells stay square
+	 */
+	private double cellWidth(int row)
+	{
+		double centreLatitude = (row + 0.5) * cellHeight;
+		return cellHeight / Math.max(Math.cos(Math.toRadians(centreLatitude)), 0.01);
+	}
+}
@@ -0,0 +1,101 @@
+package net.atomcode.bearing.core.geocoding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single geocoding result. Immutable and compact, intended to be held in bulk or cached
+ * where a full android Address per result would be wasteful.
+ */
+public class GeocodedAddress
+{
+	private static final AddressComponent[] NO_COMPONENTS = new AddressComponent[0];
+
+	private final double latitude;
+	private final double longitude;
+	private final String formattedAddress;
+	private final AddressComponent[] components;
+
+	private volatile List<String> addressLines; // Built on first use
+
+	public GeocodedAddress(double latitude, double longitude, String formattedAddress, List<AddressComponent> components)
+	{
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.formattedAddress = formattedAddress;
+		this.components = components.isEmpty() ? NO_COMPONENTS : components.toArray(new AddressComponent[components.size()]);
+	}
+
+	public double getLatitude()
+	{
+		return latitude;
+	}
+
+	public double getLongitude()
+	{
+		return longitude;
+	}
+
+	/**
+	 * The full human readable address, may be {@code null}
+	 */
+	public String getFormattedAddress()
+	{
+		return formattedAddress;
+	}
+
+	/**
+	 * The components of the address, most specific first
+	 */
+	public List<AddressComponent> getComponents()
+	{
+		return Collections.unmodifiableList(Arrays.asList(components));
+	}
+
+	public int getComponentCount()
+	{
+		return components.length;
+	}
+
+	/**
+	 * Get the component at the given index, most specific first
+	 */
+	public AddressComponent getComponent(int index)
+	{
+		return components[index];
+	}
+
+	/**
+	 * Get the first component of the given type
+	 * @return The component, or {@code null} if the address has none of that type
+	 */
+	public AddressComponent getComponent(String type)
+	{
+		for (AddressComponent component : components)
+		{
+			if (component.hasType(type))
+			{
+				return component;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The formatted address split into lines, i.e. street, town, country.
+	 * Built on first use.
+	 */
+	public List<String> getAddressLines()
+	{
+		List<String> lines = addressLines;
+		if (lines == null)
+		{
+			lines = formattedAddress == null
+					? Collections.<String>emptyList()
+					: Collections.unmodifiableList(Arrays.asList(formattedAddress.split(", ")));
+			addressLines = lines;
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,386 @@
+package net.atomcode.bearing.core.geocoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Geocodes queries and coordinates using the Google Geocoding web API.
+ * Safe to share between threads.
+ *
+ * Requests rejected with a transient status (OVER_QUERY_LIMIT, UNKNOWN_ERROR, HTTP 429 or 5xx)
+ * are retried after an exponential backoff with full jitter, so clients sharing a quota spread
+ * their retries out rather than retrying in lockstep.
+ */
+public class GeocodingEngine
+{
+	public static final String WEB_API_URL = "https://maps.googleapis.com/maps/api/geocode/json";
+
+	private static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+	private static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+	private static final int DEFAULT_MAX_RETRIES = 3;
+	private static final long DEFAULT_BACKOFF_BASE = 500;
+	private static final long MAX_BACKOFF = 30 * 1000;
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	private static final Random jitter = new Random();
+
+	private volatile String apiUrl = WEB_API_URL;
+	private volatile String apiKey;
+	private volatile RateLimiter rateLimiter;
+
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long backoffBase = DEFAULT_BACKOFF_BASE;
+
+	/**
+	 * Set the API key to send with requests, {@code null} for none
+	 */
+	public GeocodingEngine apiKey(String apiKey)
+	{
+		this.apiKey = apiKey;
+		return this;
+	}
+
+	/**
+	 * Set the base url of the geocoding API, for proxies and testing
+	 */
+	public GeocodingEngine apiUrl(String apiUrl)
+	{
+		this.apiUrl = apiUrl;
+		return this;
+	}
+
+	/**
+	 * Limit the rate of requests made by this engine, {@code null} for no limit
+	 */
+	public GeocodingEngine rateLimiter(RateLimiter rateLimiter)
+	{
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+
+	/**
+	 * Set the connect and read timeouts of requests, in milliseconds
+	 */
+	public GeocodingEngine timeouts(int connectTimeout, int readTimeout)
+	{
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	/**
+	 * Set how transient failures are retried
+	 * @param maxRetries The number of retries after the first attempt, 0 to never retry
+	 * @param backoffBase The backoff before the first retry in milliseconds, doubling for each
+	 *                    retry after it. Each wait is randomised between 0 and the backoff.
+	 */
+	public GeocodingEngine retries(int maxRetries, long backoffBase)
+	{
+		this.maxRetries = maxRetries;
+		this.backoffBase = backoffBase;
+		return this;
+	}
+
+	/**
+	 * Geocode the given query into a list of possible addresses
+	 * @param query The address or place to look up
+	 * @param locale The locale of the results, {@code null} for the API default
+	 * @param resultCount The maximum number of results
+	 */
+	public List<GeocodedAddress> geocode(String query, Locale locale, int resultCount) throws IOException, GeocodingException
+	{
+		return geocode(query, locale, resultCount, null);
+	}
+
+	/**
+	 * Geocode the given query into a list of possible addresses
+	 * @param query The address or place to look up
+	 * @param locale The locale of the results, {@code null} for the API default
+	 * @param resultCount The maximum number of results
+	 * @param cancellation Aborts the request when cancelled, {@code null} for none
+	 */
+	public List<GeocodedAddress> geocode(String query, Locale locale, int resultCount, Cancellation cancellation) throws IOException, GeocodingException
+	{
+		String params = "?address=" + URLEncoder.encode(query, "UTF-8");
+		return request(params, locale, resultCount, cancellation);
+	}
+
+	/**
+	 * Reverse geocode the given coordinates into a list of possible addresses
+	 * @param latitude The latitude to look up
+	 * @param longitude The longitude to look up
+	 * @param locale The locale of the results, {@code null} for the API default
+	 * @param resultCount The maximum number of results
+	 */
+	public List<GeocodedAddress> reverseGeocode(double latitude, double longitude, Locale locale, int resultCount) throws IOException, GeocodingException
+	{
+		return reverseGeocode(latitude, longitude, locale, resultCount, null);
+	}
+
+	/**
+	 * Reverse geocode the given coordinates into a list of possible addresses
+	 * @param latitude The latitude to look up
+	 * @param longitude The longitude to look up
+	 * @param locale The locale of the results, {@code null} for the API default
+	 * @param resultCount The maximum number of results
+	 * @param cancellation Aborts the request when cancelled, {@code null} for none
+	 */
+	public List<GeocodedAddress> reverseGeocode(double latitude, double longitude, Locale locale, int resultCount, Cancellation cancellation) throws IOException, GeocodingException
+	{
+		String params = "?latlng=" + latitude + "," + longitude;
+		return request(params, locale, resultCount, cancellation);
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private List<GeocodedAddress> request(String params, Locale locale, int resultCount, Cancellation cancellation) throws IOException, GeocodingException
+	{
+		StringBuilder url = new StringBuilder(apiUrl).append(params).append("&sensor=false");
+		if (locale != null)
+		{
+			url.append("&language=").append(URLEncoder.encode(toLanguageTag(locale), "UTF-8"));
+		}
+		if (apiKey != null)
+		{
+			url.append("&key=").append(URLEncoder.encode(apiKey, "UTF-8"));
+		}
+
+		String requestUrl = url.toString();
+		for (int attempt = 0; ; attempt++)
+		{
+			acquirePermit(cancellation);
+			try
+			{
+				return GeocodingResponseParser.parse(fetch(requestUrl, cancellation), resultCount);
+			}
+			catch (GeocodingException ex)
+			{
+				if (!ex.isTransient() || attempt >= maxRetries)
+				{
+					throw ex;
+				}
+			}
+			catch (IOException ex)
+			{
+				if (cancellation != null && cancellation.isCancelled())
+				{
+					// Failed because the connection was closed under the read
+					throw cancelled();
+				}
+				if (!(ex instanceof TransientHttpException) || attempt >= maxRetries)
+				{
+					throw ex;
+				}
+			}
+			backoff(attempt, cancellation);
+		}
+	}
+
+	/**
+	 * Wait for the rate limiter, if there is one
+	 */
+	private void acquirePermit(Cancellation cancellation) throws IOException, GeocodingException
+	{
+		RateLimiter limiter = rateLimiter;
+		if (limiter == null)
+		{
+			if (cancellation != null && cancellation.isCancelled())
+			{
+				throw cancelled();
+			}
+			return;
+		}
+
+		try
+		{
+			long wait;
+			while ((wait = limiter.tryAcquire()) != 0)
+			{
+				if (wait == RateLimiter.BUDGET_EXHAUSTED)
+				{
+					throw new GeocodingException("Daily request budget exhausted", GeocodingException.STATUS_BUDGET_EXHAUSTED, null);
+				}
+				sleep(wait, cancellation);
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for rate limit");
+		}
+
+		if (cancellation != null && cancellation.isCancelled())
+		{
+			throw cancelled();
+		}
+	}
+
+	/**
+	 * Sleep for a random time up to the exponential backoff of the given attempt
+	 */
+	private void backoff(int attempt, Cancellation cancellation) throws IOException, GeocodingException
+	{
+		long ceiling = Math.min(MAX_BACKOFF, backoffBase << Math.min(attempt, 20));
+		long delay;
+		synchronized (jitter)
+		{
+			delay = (long)(jitter.nextDouble() * ceiling);
+		}
+
+		try
+		{
+			sleep(delay * 1000000, cancellation);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during retry backoff");
+		}
+	}
+
+	/**
+	 * Sleep for the given nanoseconds, waking early to fail if cancelled
+	 */
+	private static void sleep(long nanos, Cancellation cancellation) throws InterruptedException, GeocodingException
+	{
+		if (cancellation == null)
+		{
+			Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+		}
+		else if (!cancellation.sleep(nanos))
+		{
+			throw cancelled();
+		}
+	}
+
+	private static GeocodingException cancelled()
+	{
+		return new GeocodingException("Geocoding request cancelled", GeocodingException.STATUS_CANCELLED, null);
+	}
+
+	/**
+	 * Open a connection to the API ahead of the first lookup, so the lookup doesn't wait on
+	 * DNS, TCP and TLS setup. The connection is left in the pool for the lookups that follow.
+	 * Requests the API url without a query, so makes no lookup. Blocks the calling thread.
+	 */
+	public void warmUp() throws IOException
+	{
+		// A GET rather than a HEAD, not all clients pool the connection after a HEAD
+		HttpURLConnection connection = (HttpURLConnection)new URL(apiUrl).openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+
+		int responseCode = connection.getResponseCode();
+
+		// Consume the response so the connection is kept for reuse
+		InputStream content = responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+		if (content != null)
+		{
+			try
+			{
+				byte[] buffer = new byte[512];
+				while (content.read(buffer) != -1)
+				{
+					// Discard
+				}
+			}
+			finally
+			{
+				content.close();
+			}
+		}
+	}
+
+	/**
+	 * Make a GET request to the given url, returning the body
+	 */
+	private String fetch(String url, Cancellation cancellation) throws IOException, GeocodingException
+	{
+		HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+
+		if (cancellation != null && !cancellation.attach(connection))
+		{
+			throw cancelled();
+		}
+
+		try
+		{
+			int responseCode = connection.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+			{
+				connection.disconnect();
+				if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+				{
+					throw new TransientHttpException(responseCode);
+				}
+				throw new IOException("Geocoding API returned HTTP " + responseCode);
+			}
+
+			// Closing the stream rather than disconnecting leaves the connection free for reuse
+			InputStream content = connection.getInputStream();
+			try
+			{
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = content.read(buffer)) != -1)
+				{
+					data.write(buffer, 0, read);
+				}
+				return data.toString("UTF-8");
+			}
+			finally
+			{
+				content.close();
+			}
+		}
+		finally
+		{
+			if (cancellation != null)
+			{
+				cancellation.detach(connection);
+			}
+		}
+	}
+
+	/**
+	 * Locale to the language code form used by the API, i.e. en-GB
+	 */
+	private static String toLanguageTag(Locale locale)
+	{
+		if (locale.getCountry().length() == 0)
+		{
+			return locale.getLanguage();
+		}
+		return locale.getLanguage() + "-" + locale.getCountry();
+	}
+
+	/**
+	 * HTTP failure worth retrying
+	 */
+	private static class TransientHttpException extends IOException
+	{
+		TransientHttpException(int responseCode)
+		{
+			super("Geocoding API returned HTTP " + responseCode);
+		}
+	}
+}
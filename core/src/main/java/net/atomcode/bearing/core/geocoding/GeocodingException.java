@@ -0,0 +1,65 @@
+package net.atomcode.bearing.core.geocoding;
+
+/**
+ * Thrown when the geocoding service returns a response that can't be used
+ */
+public class GeocodingException extends Exception
+{
+	public static final String STATUS_OVER_QUERY_LIMIT = "OVER_QUERY_LIMIT";
+	public static final String STATUS_OVER_DAILY_LIMIT = "OVER_DAILY_LIMIT";
+	public static final String STATUS_REQUEST_DENIED = "REQUEST_DENIED";
+	public static final String STATUS_INVALID_REQUEST = "INVALID_REQUEST";
+	public static final String STATUS_UNKNOWN_ERROR = "UNKNOWN_ERROR";
+
+	/**
+	 * Set when the daily budget of the engine's rate limiter ran out before the request was made
+	 */
+	public static final String STATUS_BUDGET_EXHAUSTED = "BUDGET_EXHAUSTED";
+
+	/**
+	 * Set when the request was aborted through its {@link Cancellation}
+	 */
+	public static final String STATUS_CANCELLED = "CANCELLED";
+
+	private final String status;
+
+	public GeocodingException(String message)
+	{
+		this(message, null, null);
+	}
+
+	public GeocodingException(String message, Throwable cause)
+	{
+		this(message, null, cause);
+	}
+
+	public GeocodingException(String message, String status, Throwable cause)
+	{
+		super(message, cause);
+		this.status = status;
+	}
+
+	/**
+	 * The status reported by the service, {@code null} if the response couldn't be read
+	 */
+	public String getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Whether the request may succeed if made again shortly
+	 */
+	public boolean isTransient()
+	{
+		return STATUS_OVER_QUERY_LIMIT.equals(status) || STATUS_UNKNOWN_ERROR.equals(status);
+	}
+
+	/**
+	 * Whether no more requests will succeed until the daily quota resets
+	 */
+	public boolean isQuotaExhausted()
+	{
+		return STATUS_OVER_DAILY_LIMIT.equals(status) || STATUS_BUDGET_EXHAUSTED.equals(status);
+	}
+}
@@ -0,0 +1,114 @@
+package net.atomcode.bearing.core.geocoding;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses responses from the Google Geocoding web API
+ */
+public class GeocodingResponseParser
+{
+	private static final String STATUS_OK = "OK";
+	private static final String STATUS_ZERO_RESULTS = "ZERO_RESULTS";
+
+	private GeocodingResponseParser()
+	{
+	}
+
+	/**
+	 * Parse a geocoding response, forward and reverse responses share a structure
+	 *
+	 * The JSON response structure
+	 * {
+	 *     "status": <status>,
+	 *     "error_message": <error_message>,
+	 *     "results": [
+	 *         {
+	 *             "address_components": [
+	 *                 {
+	 *                     "long_name": <long_name>,
+	 *                     "short_name": <short_name>,
+	 *                     "types": [ <type>, ... ]
+	 *                 }
+	 *             ],
+	 *             "formatted_address": <formatted_address>,
+	 *             "geometry": {
+	 *                 "location": {
+	 *                     "lat": <latitude>
+	 *                     "lng": <longitude>
+	 *                 }
+	 *             }
+	 *         }
+	 *     ]
+	 * }
+	 *
+	 * @param data The raw response body
+	 * @param resultCount The maximum number of results to read
+	 * @throws GeocodingException If the response is malformed or reports an error status,
+	 *                            see {@link GeocodingException#getStatus()}
+	 */
+	public static List<GeocodedAddress> parse(String data, int resultCount) throws GeocodingException
+	{
+		try
+		{
+			JSONObject geocodeData = new JSONObject(data);
+
+			// Responses without a status are treated as OK
+			String status = geocodeData.optString("status", STATUS_OK);
+			if (STATUS_ZERO_RESULTS.equals(status))
+			{
+				return new ArrayList<GeocodedAddress>(0);
+			}
+			if (!STATUS_OK.equals(status))
+			{
+				String message = geocodeData.optString("error_message", null);
+				throw new GeocodingException("Google Geocoding API returned " + status + (message != null ? ": " + message : ""), status, null);
+			}
+
+			JSONArray addresses = geocodeData.getJSONArray("results");
+
+			int resultsToRead = Math.min(resultCount, addresses.length());
+
+			List<GeocodedAddress> addressList = new ArrayList<GeocodedAddress>(resultsToRead);
+			for (int i = 0; i < resultsToRead; i++)
+			{
+				JSONObject result = addresses.getJSONObject(i);
+
+				JSONObject geometry = result.getJSONObject("geometry");
+				JSONObject locationData = geometry.getJSONObject("location");
+
+				JSONArray componentData = result.getJSONArray("address_components");
+				List<AddressComponent> components = new ArrayList<AddressComponent>(componentData.length());
+				for (int componentIndex = 0; componentIndex < componentData.length(); componentIndex++)
+				{
+					JSONObject component = componentData.getJSONObject(componentIndex);
+
+					JSONArray typeData = component.getJSONArray("types");
+					String[] types = new String[typeData.length()];
+					for (int typeIndex = 0; typeIndex < types.length; typeIndex++)
+					{
+						types[typeIndex] = typeData.getString(typeIndex);
+					}
+
+					components.add(new AddressComponent(component.getString("long_name"), component.getString("short_name"), types));
+				}
+
+				addressList.add(new GeocodedAddress(
+						locationData.getDouble("lat"),
+						locationData.getDouble("lng"),
+						result.optString("formatted_address", null),
+						components));
+			}
+
+			return addressList;
+		}
+		catch (JSONException ex)
+		{
+			throw new GeocodingException("Google Geocoding API format parsing failed! " + ex.getMessage(), ex);
+		}
+	}
+}
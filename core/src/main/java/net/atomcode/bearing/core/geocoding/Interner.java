@@ -0,0 +1,94 @@
+package net.atomcode.bearing.core.geocoding;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares instances of the strings and type lists repeated across geocoding results,
+ * so results held in bulk or in caches don't each carry their own copies.
+ * Bounded, values past the limit are returned as given.
+ */
+class Interner
+{
+	private static final int MAX_STRINGS = 4096;
+	private static final int MAX_TYPE_LISTS = 512;
+
+	private static final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentHashMap<TypesKey, String[]> typeLists = new ConcurrentHashMap<TypesKey, String[]>();
+
+	private Interner()
+	{
+	}
+
+	static String intern(String value)
+	{
+		if (value == null)
+		{
+			return null;
+		}
+
+		String shared = strings.get(value);
+		if (shared != null)
+		{
+			return shared;
+		}
+		if (strings.size() >= MAX_STRINGS)
+		{
+			return value;
+		}
+
+		shared = strings.putIfAbsent(value, value);
+		return shared != null ? shared : value;
+	}
+
+	/**
+	 * Get the shared copy of the given list of types, the strings within are interned too
+	 */
+	static String[] internTypes(String[] types)
+	{
+		TypesKey key = new TypesKey(types);
+		String[] shared = typeLists.get(key);
+		if (shared != null)
+		{
+			return shared;
+		}
+
+		String[] interned = new String[types.length];
+		for (int i = 0; i < types.length; i++)
+		{
+			interned[i] = intern(types[i]);
+		}
+		if (typeLists.size() >= MAX_TYPE_LISTS)
+		{
+			return interned;
+		}
+
+		shared = typeLists.putIfAbsent(new TypesKey(interned), interned);
+		return shared != null ? shared : interned;
+	}
+
+	/**
+	 * Map key comparing type lists by content
+	 */
+	private static class TypesKey
+	{
+		final String[] types;
+		final int hash;
+
+		TypesKey(String[] types)
+		{
+			this.types = types;
+			this.hash = Arrays.hashCode(types);
+		}
+
+		@Override public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override public boolean equals(Object other)
+		{
+			return other instanceof TypesKey && Arrays.equals(types, ((TypesKey)other).types);
+		}
+	}
+}
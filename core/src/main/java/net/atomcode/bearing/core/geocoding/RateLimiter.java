@@ -0,0 +1,124 @@
+package net.atomcode.bearing.core.geocoding;
+
+/**
+ * Token bucket rate limiter. Permits refill at a constant rate up to the burst size,
+ * callers block until a permit is available.
+ *
+ * An optional daily budget caps the permits handed out in each 24 hour window,
+ * once spent no more permits are available until the window rolls over.
+ */
+public class RateLimiter
+{
+	/**
+	 * Returned by {@link #tryAcquire()} when the daily budget is spent
+	 */
+	public static final long BUDGET_EXHAUSTED = -1;
+
+	private static final long DAY_NANOS = 24L * 60 * 60 * 1000000000L;
+
+	private final double permitsPerNano;
+	private final double burst;
+	private final long dailyBudget;
+
+	private double permits;
+	private long lastRefill;
+
+	private long budgetUsed;
+	private long budgetWindowStart;
+
+	/**
+	 * @param permitsPerSecond The sustained rate
+	 * @param burst The number of permits that may be taken at once after a quiet period
+	 */
+	public RateLimiter(double permitsPerSecond, int burst)
+	{
+		this(permitsPerSecond, burst, 0);
+	}
+
+	/**
+	 * @param permitsPerSecond The sustained rate
+	 * @param burst The number of permits that may be taken at once after a quiet period
+	 * @param dailyBudget The number of permits available in each 24 hour window, 0 for no limit
+	 */
+	public RateLimiter(double permitsPerSecond, int burst, long dailyBudget)
+	{
+		if (permitsPerSecond <= 0 || burst < 1)
+		{
+			throw new IllegalArgumentException("Rate and burst must be positive");
+		}
+		if (dailyBudget < 0)
+		{
+			throw new IllegalArgumentException("Daily budget must not be negative");
+		}
+
+		this.permitsPerNano = permitsPerSecond / 1e9;
+		this.burst = burst;
+		this.dailyBudget = dailyBudget;
+		this.permits = burst;
+		this.lastRefill = System.nanoTime();
+		this.budgetWindowStart = lastRefill;
+	}
+
+	/**
+	 * Take a permit, waiting for one to become available
+	 * @return false if the daily budget is spent, true once a permit was taken
+	 */
+	public boolean acquire() throws InterruptedException
+	{
+		long wait;
+		while ((wait = tryAcquire()) > 0)
+		{
+			Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+		}
+		return wait == 0;
+	}
+
+	/**
+	 * Take a permit if one is available
+	 * @return 0 if a permit was taken, {@link #BUDGET_EXHAUSTED} if the daily budget is spent,
+	 *         otherwise the nanoseconds until a permit is available
+	 */
+	public synchronized long tryAcquire()
+	{
+		long now = System.nanoTime();
+		permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+
+		if (dailyBudget > 0)
+		{
+			if (now - budgetWindowStart >= DAY_NANOS)
+			{
+				budgetWindowStart = now;
+				budgetUsed = 0;
+			}
+			if (budgetUsed >= dailyBudget)
+			{
+				return BUDGET_EXHAUSTED;
+			}
+		}
+
+		if (permits >= 1)
+		{
+			permits -= 1;
+			budgetUsed++;
+			return 0;
+		}
+		return (long)Math.ceil((1 - permits) / permitsPerNano);
+	}
+
+	/**
+	 * The number of permits left in the current daily window, {@link Long#MAX_VALUE} with no budget
+	 */
+	public synchronized long getRemainingBudget()
+	{
+		if (dailyBudget == 0)
+		{
+			return Long.MAX_VALUE;
+		}
+		if (System.nanoTime() - budgetWindowStart >= DAY_NANOS)
+		{
+			return dailyBudget;
+		}
+		return Math.max(0, dailyBudget - budgetUsed);
+	}
+}
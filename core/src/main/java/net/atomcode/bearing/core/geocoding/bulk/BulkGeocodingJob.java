@@ -0,0 +1,458 @@
+package net.atomcode.bearing.core.geocoding.bulk;
+
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingEngine;
+import net.atomcode.bearing.core.geocoding.GeocodingException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geocodes every line of an input file, one address per line, writing a record per line
+ * to the output file as each lookup completes.
+ *
+ * Output records are tab separated: input line index, status, latitude, longitude and
+ * formatted address, or the error message for failed lookups. Records are written in
+ * completion order, not input order.
+ *
+ * Progress is checkpointed next to the output. Running a job again with the same files
+ * resumes after the last completed line, so a crashed job only repeats the lookups that
+ * were in flight.
+ *
+ * A job stops early when the daily quota of the engine's API key or rate limiter runs out,
+ * leaving the remaining lines to be resumed once the quota resets. It also stops when a lookup
+ * fails to reach the API after the engine's retries, leaving the lines to be resumed once
+ * connected.
+ */
+public class BulkGeocodingJob
+{
+	public static final String STATUS_OK = "OK";
+	public static final String STATUS_ZERO_RESULTS = "ZERO_RESULTS";
+	public static final String STATUS_INVALID_REQUEST = "INVALID_REQUEST";
+	public static final String STATUS_ERROR = "ERROR";
+
+	private static final int DEFAULT_CONCURRENCY = 4;
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+	/**
+	 * Progress callbacks, called from worker threads
+	 */
+	public interface Listener
+	{
+		public void onProgress(long completed);
+	}
+
+	/**
+	 * Counts for a single run of a job
+	 */
+	public static class Summary
+	{
+		public long resumed; // Lines completed by earlier runs
+		public long succeeded;
+		public long empty;
+		public long failed;
+		public boolean quotaExhausted; // Stopped early, run again once the quota resets
+		public boolean networkFailed; // Stopped early, run again once connected
+	}
+
+	private final GeocodingEngine engine;
+	private final File input;
+	private final File output;
+	private final File checkpointFile;
+
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private Locale locale;
+	private Listener listener;
+
+	private volatile boolean quotaExhausted;
+	private volatile boolean networkFailed;
+
+	// Guarded by this
+	private FileOutputStream outputStream;
+	private Writer writer;
+	private final BitSet completed = new BitSet();
+	private long watermark;
+	private long sinceCheckpoint;
+	private Summary summary;
+
+	/**
+	 * @param engine The engine to resolve addresses with, configure its rate limiter to
+	 *               bound the request rate of the job
+	 * @param input The file of addresses, one per line
+	 * @param output The file to write records to, appended to when resuming
+	 */
+	public BulkGeocodingJob(GeocodingEngine engine, File input, File output)
+	{
+		this.engine = engine;
+		this.input = input;
+		this.output = output;
+		this.checkpointFile = new File(output.getPath() + ".checkpoint");
+	}
+
+	/**
+	 * Set the maximum number of lookups in flight at once
+	 */
+	public BulkGeocodingJob concurrency(int concurrency)
+	{
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	/**
+	 * Set the number of completed lookups between checkpoints
+	 */
+	public BulkGeocodingJob checkpointInterval(int checkpointInterval)
+	{
+		this.checkpointInterval = checkpointInterval;
+		return this;
+	}
+
+	/**
+	 * Set the locale of the results
+	 */
+	public BulkGeocodingJob locale(Locale locale)
+	{
+		this.locale = locale;
+		return this;
+	}
+
+	public BulkGeocodingJob listen(Listener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Run the job to completion, resuming from the last checkpoint if there is one.
+	 * Blocks the calling thread.
+	 */
+	public Summary run() throws IOException, InterruptedException
+	{
+		summary = new Summary();
+		quotaExhausted = false;
+		networkFailed = false;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), "UTF-8"));
+		ExecutorService executor = null;
+		try
+		{
+			resume();
+
+			executor = Executors.newFixedThreadPool(concurrency);
+			// Bound the lines read ahead of the workers
+			final Semaphore inFlight = new Semaphore(concurrency * 2);
+
+			long index = 0;
+			String line;
+			while ((line = reader.readLine()) != null && !quotaExhausted && !networkFailed)
+			{
+				final long lineIndex = index++;
+				if (isCompleted(lineIndex))
+				{
+					continue;
+				}
+
+				final String query = line.trim();
+				inFlight.acquire();
+				executor.execute(new Runnable()
+				{
+					@Override public void run()
+					{
+						try
+						{
+							resolve(lineIndex, query);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+			}
+		}
+		finally
+		{
+			reader.close();
+
+			if (executor != null)
+			{
+				executor.shutdown();
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+				{
+					// Wait for in flight lookups
+				}
+			}
+
+			synchronized (this)
+			{
+				if (writer != null)
+				{
+					try
+					{
+						checkpoint();
+					}
+					finally
+					{
+						writer.close();
+						writer = null;
+						outputStream = null;
+					}
+				}
+				else if (outputStream != null)
+				{
+					// Resuming failed part way
+					outputStream.close();
+					outputStream = null;
+				}
+			}
+		}
+
+		summary.quotaExhausted = quotaExhausted;
+		summary.networkFailed = networkFailed;
+		return summary;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Restore progress from the checkpoint and any records written after it,
+	 * dropping a partially written final record.
+	 */
+	private synchronized void resume() throws IOException
+	{
+		Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+		watermark = checkpoint.watermark;
+		for (Long index : checkpoint.completedAhead)
+		{
+			completed.set(bitIndex(index));
+		}
+
+		long validLength = checkpoint.offset;
+		if (output.exists())
+		{
+			RandomAccessFile file = new RandomAccessFile(output, "rw");
+			try
+			{
+				file.seek(checkpoint.offset);
+
+				StringBuilder record = new StringBuilder();
+				long position = checkpoint.offset;
+				int read;
+				while ((read = file.read()) != -1)
+				{
+					position++;
+					if (read == '\n')
+					{
+						markRecordCompleted(record.toString());
+						record.setLength(0);
+						validLength = position;
+					}
+					else
+					{
+						record.append((char)read);
+					}
+				}
+
+				file.setLength(validLength);
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+
+		advanceWatermark();
+		summary.resumed = watermark + completed.cardinality();
+
+		outputStream = new FileOutputStream(output, true);
+		writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+	}
+
+	private void markRecordCompleted(String record)
+	{
+		int separator = record.indexOf('\t');
+		if (separator > 0)
+		{
+			long index = Long.parseLong(record.substring(0, separator));
+			if (index >= watermark)
+			{
+				completed.set(bitIndex(index));
+			}
+		}
+	}
+
+	private synchronized boolean isCompleted(long index)
+	{
+		return index < watermark || completed.get(bitIndex(index));
+	}
+
+	/**
+	 * Look up a single line and record the result
+	 */
+	private void resolve(long index, String query)
+	{
+		String status;
+		String record;
+
+		if (query.length() == 0)
+		{
+			status = STATUS_INVALID_REQUEST;
+			record = index + "\t" + status + "\t\t\t";
+		}
+		else
+		{
+			try
+			{
+				List<GeocodedAddress> results = engine.geocode(query, locale, 1);
+				if (results.isEmpty())
+				{
+					status = STATUS_ZERO_RESULTS;
+					record = index + "\t" + status + "\t\t\t";
+				}
+				else
+				{
+					GeocodedAddress result = results.get(0);
+					status = STATUS_OK;
+					record = index + "\t" + status + "\t" + result.getLatitude() + "\t" + result.getLongitude() + "\t" + sanitise(result.getFormattedAddress());
+				}
+			}
+			catch (IOException ex)
+			{
+				// Leave the line incomplete so it is looked up again on resume
+				networkFailed = true;
+				return;
+			}
+			catch (GeocodingException ex)
+			{
+				if (ex.isQuotaExhausted())
+				{
+					// Leave the line incomplete so it is looked up again on resume
+					quotaExhausted = true;
+					return;
+				}
+				status = STATUS_ERROR;
+				record = index + "\t" + status + "\t\t\t" + sanitise(ex.getMessage());
+			}
+			catch (RuntimeException ex)
+			{
+				// Record rather than leave the line incomplete, which would hold back the watermark
+				status = STATUS_ERROR;
+				record = index + "\t" + status + "\t\t\t" + sanitise(ex.toString());
+			}
+		}
+
+		long completedCount;
+		synchronized (this)
+		{
+			try
+			{
+				writer.write(record);
+				writer.write('\n');
+
+				completed.set(bitIndex(index));
+				advanceWatermark();
+
+				if (STATUS_OK.equals(status))
+				{
+					summary.succeeded++;
+				}
+				else if (STATUS_ERROR.equals(status))
+				{
+					summary.failed++;
+				}
+				else
+				{
+					summary.empty++;
+				}
+
+				if (++sinceCheckpoint >= checkpointInterval)
+				{
+					checkpoint();
+				}
+			}
+			catch (IOException ex)
+			{
+				// The record is lost, resuming will look the line up again
+				summary.failed++;
+			}
+			completedCount = summary.resumed + summary.succeeded + summary.empty + summary.failed;
+		}
+
+		if (listener != null)
+		{
+			listener.onProgress(completedCount);
+		}
+	}
+
+	/**
+	 * Flush the output to disk and record progress. Must hold the lock.
+	 */
+	private void checkpoint() throws IOException
+	{
+		writer.flush();
+		outputStream.getFD().sync();
+
+		List<Long> completedAhead = new ArrayList<Long>();
+		for (int bit = completed.nextSetBit(0); bit >= 0; bit = completed.nextSetBit(bit + 1))
+		{
+			completedAhead.add(watermark + bit);
+		}
+
+		new Checkpoint(watermark, outputStream.getChannel().position(), completedAhead).write(checkpointFile);
+		sinceCheckpoint = 0;
+	}
+
+	/**
+	 * Move the watermark past every contiguously completed line. Must hold the lock.
+	 */
+	private void advanceWatermark()
+	{
+		int contiguous = completed.nextClearBit(0);
+		if (contiguous > 0)
+		{
+			watermark += contiguous;
+			// Keep the set relative to the watermark so it stays small
+			BitSet shifted = completed.get(contiguous, Math.max(contiguous, completed.length()));
+			completed.clear();
+			completed.or(shifted);
+		}
+	}
+
+	/**
+	 * Bit of the completed set for the given line, relative to the watermark
+	 */
+	private int bitIndex(long index)
+	{
+		return (int)(index - watermark);
+	}
+
+	private static String sanitise(String value)
+	{
+		if (value == null)
+		{
+			return "";
+		}
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
@@ -0,0 +1,353 @@
+package net.atomcode.bearing.core.geocoding.bulk;
+
+import net.atomcode.bearing.core.geocoding.Cancellation;
+import net.atomcode.bearing.core.geocoding.CellGrid;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingEngine;
+import net.atomcode.bearing.core.geocoding.GeocodingException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reverse geocodes a large set of coordinates, i.e. a recorded track, spending one lookup per
+ * distinct cell of the given precision rather than one per coordinate.
+ *
+ * Coordinates are grouped into cells, each cell is looked up once at the centroid of the
+ * coordinates within it, and the result is shared by every coordinate in the cell.
+ */
+public class BulkReverseGeocoder
+{
+	private static final double DEFAULT_PRECISION = 50;
+	private static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Results of a run, by input index
+	 */
+	public static class Result
+	{
+		private final int[] cellIndexes;
+		private final List<GeocodedAddress>[] cellResults;
+		private final int lookups;
+		private final int failed;
+		private final boolean quotaExhausted;
+
+		Result(int[] cellIndexes, List<GeocodedAddress>[] cellResults, int lookups, int failed, boolean quotaExhausted)
+		{
+			this.cellIndexes = cellIndexes;
+			this.cellResults = cellResults;
+			this.lookups = lookups;
+			this.failed = failed;
+			this.quotaExhausted = quotaExhausted;
+		}
+
+		public int size()
+		{
+			return cellIndexes.length;
+		}
+
+		/**
+		 * Get the results for the coordinate at the given input index, shared with the other
+		 * coordinates in its cell. {@code null} if the lookup failed or was not made.
+		 */
+		public List<GeocodedAddress> get(int index)
+		{
+			return cellResults[cellIndexes[index]];
+		}
+
+		/**
+		 * Get the first result for the coordinate at the given input index, {@code null} if there is none
+		 */
+		public GeocodedAddress getFirst(int index)
+		{
+			List<GeocodedAddress> results = get(index);
+			return results != null && !results.isEmpty() ? results.get(0) : null;
+		}
+
+		/**
+		 * The number of distinct cells, the lookups needed to resolve every coordinate
+		 */
+		public int getCellCount()
+		{
+			return cellResults.length;
+		}
+
+		/**
+		 * The number of lookups made
+		 */
+		public int getLookupCount()
+		{
+			return lookups;
+		}
+
+		public int getFailedCount()
+		{
+			return failed;
+		}
+
+		/**
+		 * Whether the run stopped early because the daily quota ran out
+		 */
+		public boolean isQuotaExhausted()
+		{
+			return quotaExhausted;
+		}
+	}
+
+	private final GeocodingEngine engine;
+
+	private double precision = DEFAULT_PRECISION;
+	private int concurrency = DEFAULT_CONCURRENCY;
+	private int resultCount = 1;
+	private Locale locale;
+	private Cancellation cancellation;
+	private Executor executor; // null to run lookups on a pool of the run's own
+
+	/**
+	 * @param engine The engine to resolve coordinates with
+	 */
+	public BulkReverseGeocoder(GeocodingEngine engine)
+	{
+		this.engine = engine;
+	}
+
+	/**
+	 * Set the size of the cells coordinates are grouped into, default 50 metres.
+	 * Coarser cells need fewer lookups.
+	 * @param precision The width of a cell in metres
+	 */
+	public BulkReverseGeocoder precision(double precision)
+	{
+		this.precision = precision;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of lookups in flight at once
+	 */
+	public BulkReverseGeocoder concurrency(int concurrency)
+	{
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of results of each lookup, default 1
+	 */
+	public BulkReverseGeocoder results(int resultCount)
+	{
+		this.resultCount = resultCount;
+		return this;
+	}
+
+	/**
+	 * Set the locale of the results
+	 */
+	public BulkReverseGeocoder locale(Locale locale)
+	{
+		this.locale = locale;
+		return this;
+	}
+
+	/**
+	 * Abort the run, and any lookups in flight, when the given cancellation is cancelled
+	 */
+	public BulkReverseGeocoder cancellation(Cancellation cancellation)
+	{
+		this.cancellation = cancellation;
+		return this;
+	}
+
+	/**
+	 * Run the lookups on the given executor rather than a pool of the run's own, i.e. to share
+	 * workers with other lookups at a lower priority. No more than the set concurrency are
+	 * handed to the executor at once.
+	 */
+	public BulkReverseGeocoder executor(Executor executor)
+	{
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Resolve the given coordinates. Blocks the calling thread.
+	 * @param latitudes The latitudes, the same length as the longitudes
+	 * @param longitudes The longitudes
+	 */
+	@SuppressWarnings("unchecked")
+	public Result run(double[] latitudes, double[] longitudes) throws InterruptedException
+	{
+		if (latitudes.length != longitudes.length)
+		{
+			throw new IllegalArgumentException("Latitudes and longitudes differ in length");
+		}
+
+		// Group the coordinates by cell, summing each cell's coordinates for its centroid
+		CellGrid grid = new CellGrid(precision);
+		Map<Long, Integer> cells = new HashMap<Long, Integer>();
+		int[] cellIndexes = new int[latitudes.length];
+		double[] sums = new double[Math.min(latitudes.length, 64) * 3];
+		for (int i = 0; i < latitudes.length; i++)
+		{
+			long cell = grid.cellOf(latitudes[i], longitudes[i]);
+			Integer cellIndex = cells.get(cell);
+			if (cellIndex == null)
+			{
+				cellIndex = cells.size();
+				cells.put(cell, cellIndex);
+				if (cellIndex * 3 >= sums.length)
+				{
+					double[] grown = new double[sums.length * 2];
+					System.arraycopy(sums, 0, grown, 0, sums.length);
+					sums = grown;
+				}
+			}
+
+			cellIndexes[i] = cellIndex;
+			sums[cellIndex * 3] += latitudes[i];
+			sums[cellIndex * 3 + 1] += longitudes[i];
+			sums[cellIndex * 3 + 2]++;
+		}
+
+		final List<GeocodedAddress>[] cellResults = new List[cells.size()];
+		final int[] counts = new int[2]; // Lookups, failures. Guarded by counts
+		final boolean[] stopped = new boolean[2]; // Quota exhausted, run interrupted. Guarded by counts
+
+		Runnable[] lookups = new Runnable[cellResults.length];
+		for (int cellIndex = 0; cellIndex < cellResults.length; cellIndex++)
+		{
+			final int index = cellIndex;
+			final double latitude = sums[cellIndex * 3] / sums[cellIndex * 3 + 2];
+			final double longitude = sums[cellIndex * 3 + 1] / sums[cellIndex * 3 + 2];
+
+			lookups[cellIndex] = new Runnable()
+			{
+				@Override public void run()
+				{
+					synchronized (counts)
+					{
+						if (stopped[0] || stopped[1] || (cancellation != null && cancellation.isCancelled()))
+						{
+							return;
+						}
+						counts[0]++;
+					}
+
+					try
+					{
+						cellResults[index] = engine.reverseGeocode(latitude, longitude, locale, resultCount, cancellation);
+					}
+					catch (GeocodingException ex)
+					{
+						synchronized (counts)
+						{
+							counts[1]++;
+							if (ex.isQuotaExhausted())
+							{
+								stopped[0] = true;
+							}
+						}
+					}
+					catch (IOException ex)
+					{
+						synchronized (counts)
+						{
+							counts[1]++;
+						}
+					}
+				}
+			};
+		}
+
+		if (executor != null)
+		{
+			runOn(executor, lookups, counts, stopped);
+		}
+		else
+		{
+			runOnPool(lookups);
+		}
+
+		synchronized (counts)
+		{
+			return new Result(cellIndexes, cellResults, counts[0], counts[1], stopped[0]);
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Run the lookups on a pool of the run's own, waiting for them all to finish
+	 */
+	private void runOnPool(Runnable[] lookups) throws InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, lookups.length)));
+		try
+		{
+			for (Runnable lookup : lookups)
+			{
+				pool.execute(lookup);
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+			{
+				// Wait for in flight lookups
+			}
+		}
+	}
+
+	/**
+	 * Hand the lookups to the given executor, no more than the concurrency at once, waiting
+	 * for them all to finish. Lookups not yet started when the run is interrupted are skipped.
+	 */
+	private void runOn(Executor executor, Runnable[] lookups, Object lock, boolean[] stopped) throws InterruptedException
+	{
+		final int permits = Math.max(1, concurrency);
+		final Semaphore inFlight = new Semaphore(permits);
+		try
+		{
+			for (final Runnable lookup : lookups)
+			{
+				inFlight.acquire();
+				executor.execute(new Runnable()
+				{
+					@Override public void run()
+					{
+						try
+						{
+							lookup.run();
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+			}
+			inFlight.acquire(permits);
+		}
+		catch (InterruptedException ex)
+		{
+			synchronized (lock)
+			{
+				stopped[1] = true;
+			}
+			throw ex;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package net.atomcode.bearing.core.geocoding.bulk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of a bulk job, written atomically next to the job output.
+ *
+ * Every input line before the watermark has a record in the output before the offset.
+ * Lines after the watermark that completed early are listed explicitly, their records
+ * may be on either side of the offset.
+ */
+class Checkpoint
+{
+	final long watermark;
+	final long offset;
+	final List<Long> completedAhead;
+
+	Checkpoint(long watermark, long offset, List<Long> completedAhead)
+	{
+		this.watermark = watermark;
+		this.offset = offset;
+		this.completedAhead = completedAhead;
+	}
+
+	/**
+	 * Read the checkpoint in the given file, or an empty checkpoint if there is none
+	 */
+	static Checkpoint read(File file) throws IOException
+	{
+		if (!file.exists())
+		{
+			return new Checkpoint(0, 0, new ArrayList<Long>());
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String line = reader.readLine();
+			if (line == null)
+			{
+				throw new IOException("Empty checkpoint " + file);
+			}
+
+			String[] fields = line.trim().split(" ");
+			if (fields.length < 2)
+			{
+				throw new IOException("Malformed checkpoint " + file);
+			}
+
+			List<Long> completedAhead = new ArrayList<Long>(fields.length - 2);
+			for (int i = 2; i < fields.length; i++)
+			{
+				completedAhead.add(Long.parseLong(fields[i]));
+			}
+			return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), completedAhead);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException("Malformed checkpoint " + file);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write this checkpoint to the given file, replacing any previous checkpoint atomically
+	 */
+	void write(File file) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+		try
+		{
+			Writer writer = new OutputStreamWriter(out, "UTF-8");
+			StringBuilder line = new StringBuilder().append(watermark).append(' ').append(offset);
+			for (Long index : completedAhead)
+			{
+				line.append(' ').append(index);
+			}
+			writer.write(line.append('\n').toString());
+			writer.flush();
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if (!temp.renameTo(file))
+		{
+			// Platforms without atomic replace
+			if (!file.delete() || !temp.renameTo(file))
+			{
+				throw new IOException("Failed to replace checkpoint " + file);
+			}
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package net.atomcode.bearing.core.geodesy;
+
+/**
+ * Distances, initial bearings and destination points between coordinates in degrees.
+ *
+ * The scalar methods allocate nothing. The bulk methods work over parallel arrays of latitudes
+ * and longitudes, writing to an output array that can be reused between calls, and have
+ * parallel variants splitting large inputs over a shared fork-join pool. The parallel variants
+ * need {@code java.util.concurrent.ForkJoinPool}, on Android from API 21.
+ *
+ * Distances are in metres. Equirectangular distances are quickest and accurate to a fraction
+ * of a percent up to a few tens of kilometres, haversine distances treat the earth as a sphere
+ * and are accurate to about 0.5%, and Vincenty distances use the WGS84 ellipsoid and are
+ * accurate to millimetres.
+ */
+public final class BearingMath
+{
+	public enum Method
+	{
+		EQUIRECTANGULAR,
+		HAVERSINE,
+		VINCENTY
+	}
+
+	/**
+	 * Mean radius of the earth in metres
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/*
+	 * WGS84 ellipsoid
+	 */
+	private static final double SEMI_MAJOR_AXIS = 6378137.0;
+	private static final double FLATTENING = 1 / 298.257223563;
+	private static final double SEMI_MINOR_AXIS = SEMI_MAJOR_AXIS * (1 - FLATTENING);
+
+	private static final int VINCENTY_MAX_ITERATIONS = 200;
+	private static final double VINCENTY_TOLERANCE = 1e-12;
+
+	/**
+	 * Smallest input split across the pool, below it the split costs more than it saves
+	 */
+	static final int PARALLEL_THRESHOLD = 8192;
+
+	private BearingMath()
+	{
+	}
+
+	/*
+	 * ==============================================
+	 * SCALAR
+	 * ==============================================
+	 */
+
+	public static double distance(Method method, double latitude1, double longitude1, double latitude2, double longitude2)
+	{
+		switch (method)
+		{
+			case EQUIRECTANGULAR:
+				return equirectangularDistance(latitude1, longitude1, latitude2, longitude2);
+			case HAVERSINE:
+				return haversineDistance(latitude1, longitude1, latitude2, longitude2);
+			default:
+				return vincentyDistance(latitude1, longitude1, latitude2, longitude2);
+		}
+	}
+
+	public static double equirectangularDistance(double latitude1, double longitude1, double latitude2, double longitude2)
+	{
+		double phi1 = Math.toRadians(latitude1);
+		double phi2 = Math.toRadians(latitude2);
+		double x = longitudeDifference(longitude1, longitude2) * Math.cos((phi1 + phi2) / 2);
+		double y = phi2 - phi1;
+		return EARTH_RADIUS * Math.sqrt(x * x + y * y);
+	}
+
+	public static double haversineDistance(double latitude1, double longitude1, double latitude2, double longitude2)
+	{
+		double phi1 = Math.toRadians(latitude1);
+		double phi2 = Math.toRadians(latitude2);
+		double sinHalfLatitude = Math.sin((phi2 - phi1) / 2);
+		double sinHalfLongitude = Math.sin(longitudeDifference(longitude1, longitude2) / 2);
+		double a = sinHalfLatitude * sinHalfLatitude + Math.cos(phi1) * Math.cos(phi2) * sinHalfLongitude * sinHalfLongitude;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Distance on the WGS84 ellipsoid by Vincenty's inverse formula
+	 * @return The distance, {@link Double#NaN} for nearly antipodal points where the formula does not converge
+	 */
+	public static double vincentyDistance(double latitude1, double longitude1, double latitude2, double longitude2)
+	{
+		double l = longitudeDifference(longitude1, longitude2);
+		double u1 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude1)));
+		double u2 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude2)));
+		double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+		double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+		double lambda = l;
+		double sinSigma, cosSigma, sigma, cosSquaredAlpha, cos2SigmaM;
+		int iterations = 0;
+		while (true)
+		{
+			double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+			double a = cosU2 * sinLambda;
+			double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+			sinSigma = Math.sqrt(a * a + b * b);
+			if (sinSigma == 0)
+			{
+				// Coincident points
+				return 0;
+			}
+			cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+			sigma = Math.atan2(sinSigma, cosSigma);
+			double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+			cosSquaredAlpha = 1 - sinAlpha * sinAlpha;
+			// Zero on the equator
+			cos2SigmaM = cosSquaredAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSquaredAlpha : 0;
+
+			double c = FLATTENING / 16 * cosSquaredAlpha * (4 + FLATTENING * (4 - 3 * cosSquaredAlpha));
+			double previous = lambda;
+			lambda = l + (1 - c) * FLATTENING * sinAlpha
+					* (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+			if (Math.abs(lambda - previous) <= VINCENTY_TOLERANCE)
+			{
+				break;
+			}
+			if (++iterations >= VINCENTY_MAX_ITERATIONS)
+			{
+				return Double.NaN;
+			}
+		}
+
+		double uSquared = cosSquaredAlpha * (SEMI_MAJOR_AXIS * SEMI_MAJOR_AXIS - SEMI_MINOR_AXIS * SEMI_MINOR_AXIS) / (SEMI_MINOR_AXIS * SEMI_MINOR_AXIS);
+		double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+		double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+		double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+				- b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+		return SEMI_MINOR_AXIS * a * (sigma - deltaSigma);
+	}
+
+	/**
+	 * Initial bearing of the great circle from the first point to the second
+	 * @return Degrees clockwise from north, from 0 up to 360
+	 */
+	public static double initialBearing(double latitude1, double longitude1, double latitude2, double longitude2)
+	{
+		double phi1 = Math.toRadians(latitude1);
+		double phi2 = Math.toRadians(latitude2);
+		double deltaLambda = longitudeDifference(longitude1, longitude2);
+		double y = Math.sin(deltaLambda) * Math.cos(phi2);
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+		double bearing = Math.toDegrees(Math.atan2(y, x));
+		return bearing < 0 ? bearing + 360 : bearing;
+	}
+
+	/**
+	 * Latitude of the point reached travelling the given distance along the great circle
+	 * leaving at the given bearing
+	 */
+	public static double destinationLatitude(double latitude, double longitude, double bearing, double distance)
+	{
+		double phi = Math.toRadians(latitude);
+		double delta = distance / EARTH_RADIUS;
+		return Math.toDegrees(Math.asin(Math.sin(phi) * Math.cos(delta) + Math.cos(phi) * Math.sin(delta) * Math.cos(Math.toRadians(bearing))));
+	}
+
+	/**
+	 * Longitude of the point reached travelling the given distance along the great circle
+	 * leaving at the given bearing, from -180 up to 180
+	 */
+	public static double destinationLongitude(double latitude, double longitude, double bearing, double distance)
+	{
+		double phi = Math.toRadians(latitude);
+		double theta = Math.toRadians(bearing);
+		double delta = distance / EARTH_RADIUS;
+		double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+		double sinDelta = Math.sin(delta), cosDelta = Math.cos(delta);
+		double sinDestination = sinPhi * cosDelta + cosPhi * sinDelta * Math.cos(theta);
+		double lambda = Math.toRadians(longitude) + Math.atan2(Math.sin(theta) * sinDelta * cosPhi, cosDelta - sinPhi * sinDestination);
+		return normaliseLongitude(Math.toDegrees(lambda));
+	}
+
+	/*
+	 * ==============================================
+	 * BULK
+	 * ==============================================
+	 */
+
+	/**
+	 * Distance between each pair of points, the first from the arrays ending 1 and the second
+	 * from those ending 2
+	 * @param out The array to write to, a new array is allocated if {@code null} or too short
+	 * @return The array written to
+	 */
+	public static double[] distances(Method method, double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out)
+	{
+		int count = checkLengths(latitudes1, longitudes1, latitudes2, longitudes2);
+		out = output(out, count);
+		distances(method, latitudes1, longitudes1, latitudes2, longitudes2, out, 0, count);
+		return out;
+	}
+
+	/**
+	 * {@link #distances(Method, double[], double[], double[], double[], double[])} split across the fork-join pool
+	 */
+	public static double[] distancesParallel(Method method, double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out)
+	{
+		int count = checkLengths(latitudes1, longitudes1, latitudes2, longitudes2);
+		out = output(out, count);
+		GeodesyTask.invoke(new GeodesyTask(GeodesyTask.DISTANCE, method, latitudes1, longitudes1, latitudes2, longitudes2, out, null, 0, count));
+		return out;
+	}
+
+	/**
+	 * Initial bearing from the first of each pair of points to the second
+	 * @param out The array to write to, a new array is allocated if {@code null} or too short
+	 * @return The array written to
+	 */
+	public static double[] initialBearings(double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out)
+	{
+		int count = checkLengths(latitudes1, longitudes1, latitudes2, longitudes2);
+		out = output(out, count);
+		initialBearings(latitudes1, longitudes1, latitudes2, longitudes2, out, 0, count);
+		return out;
+	}
+
+	/**
+	 * {@link #initialBearings(double[], double[], double[], double[], double[])} split across the fork-join pool
+	 */
+	public static double[] initialBearingsParallel(double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out)
+	{
+		int count = checkLengths(latitudes1, longitudes1, latitudes2, longitudes2);
+		out = output(out, count);
+		GeodesyTask.invoke(new GeodesyTask(GeodesyTask.BEARING, null, latitudes1, longitudes1, latitudes2, longitudes2, out, null, 0, count));
+		return out;
+	}
+
+	/**
+	 * Point reached from each point travelling the given distance at the given bearing
+	 * @param outLatitudes The array to write latitudes to, at least as long as the input
+	 * @param outLongitudes The array to write longitudes to, at least as long as the input
+	 */
+	public static void destinations(double[] latitudes, double[] longitudes, double[] bearings, double[] distances, double[] outLatitudes, double[] outLongitudes)
+	{
+		int count = checkLengths(latitudes, longitudes, bearings, distances);
+		checkOutput(outLatitudes, outLongitudes, count);
+		destinations(latitudes, longitudes, bearings, distances, outLatitudes, outLongitudes, 0, count);
+	}
+
+	/**
+	 * {@link #destinations(double[], double[], double[], double[], double[], double[])} split across the fork-join pool
+	 */
+	public static void destinationsParallel(double[] latitudes, double[] longitudes, double[] bearings, double[] distances, double[] outLatitudes, double[] outLongitudes)
+	{
+		int count = checkLengths(latitudes, longitudes, bearings, distances);
+		checkOutput(outLatitudes, outLongitudes, count);
+		GeodesyTask.invoke(new GeodesyTask(GeodesyTask.DESTINATION, null, latitudes, longitudes, bearings, distances, outLatitudes, outLongitudes, 0, count));
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	static void distances(Method method, double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out, int from, int to)
+	{
+		// One loop per method, keeping the switch out of the loop
+		switch (method)
+		{
+			case EQUIRECTANGULAR:
+				for (int i = from; i < to; i++)
+				{
+					out[i] = equirectangularDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+				}
+				break;
+			case HAVERSINE:
+				for (int i = from; i < to; i++)
+				{
+					out[i] = haversineDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+				}
+				break;
+			default:
+				for (int i = from; i < to; i++)
+				{
+					out[i] = vincentyDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+				}
+		}
+	}
+
+	static void initialBearings(double[] latitudes1, double[] longitudes1, double[] latitudes2, double[] longitudes2, double[] out, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			out[i] = initialBearing(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+		}
+	}
+
+	static void destinations(double[] latitudes, double[] longitudes, double[] bearings, double[] distances, double[] outLatitudes, double[] outLongitudes, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			double phi = Math.toRadians(latitudes[i]);
+			double theta = Math.toRadians(bearings[i]);
+			double delta = distances[i] / EARTH_RADIUS;
+			double sinPhi = Math.sin(phi), cosPhi = Math.cos(phi);
+			double sinDelta = Math.sin(delta), cosDelta = Math.cos(delta);
+			double sinDestination = sinPhi * cosDelta + cosPhi * sinDelta * Math.cos(theta);
+			double lambda = Math.toRadians(longitudes[i]) + Math.atan2(Math.sin(theta) * sinDelta * cosPhi, cosDelta - sinPhi * sinDestination);
+
+			outLatitudes[i] = Math.toDegrees(Math.asin(sinDestination));
+			outLongitudes[i] = normaliseLongitude(Math.toDegrees(lambda));
+		}
+	}
+
+	/**
+	 * Difference in longitude in radians, the short way around
+	 */
+	private static double longitudeDifference(double longitude1, double longitude2)
+	{
+		double difference = Math.toRadians(longitude2 - longitude1);
+		if (difference > Math.PI)
+		{
+			difference -= 2 * Math.PI;
+		}
+		else if (difference < -Math.PI)
+		{
+			difference += 2 * Math.PI;
+		}
+		return difference;
+	}
+
+	private static double normaliseLongitude(double longitude)
+	{
+		return ((longitude + 540) % 360) - 180;
+	}
+
+	private static int checkLengths(double[] a, double[] b, double[] c, double[] d)
+	{
+		int count = a.length;
+		if (b.length != count || c.length != count || d.length != count)
+		{
+			throw new IllegalArgumentException("Input arrays must be the same length");
+		}
+		return count;
+	}
+
+	private static double[] output(double[] out, int count)
+	{
+		return out != null && out.length >= count ? out : new double[count];
+	}
+
+	private static void checkOutput(double[] outLatitudes, double[] outLongitudes, int count)
+	{
+		if (outLatitudes == null || outLongitudes == null || outLatitudes.length < count || outLongitudes.length < count)
+		{
+			throw new IllegalArgumentException("Output arrays must be at least as long as the input");
+		}
+	}
+}
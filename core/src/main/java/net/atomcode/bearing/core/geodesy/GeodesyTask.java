@@ -0,0 +1,84 @@
+package net.atomcode.bearing.core.geodesy;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A range of a bulk {@link BearingMath} call, halved across the fork-join pool until it is
+ * below {@link BearingMath#PARALLEL_THRESHOLD}. Kept out of {@link BearingMath} so the scalar
+ * and sequential methods work where there is no fork-join pool.
+ */
+class GeodesyTask extends RecursiveAction
+{
+	static final int DISTANCE = 0;
+	static final int BEARING = 1;
+	static final int DESTINATION = 2;
+
+	/**
+	 * Shared by every bulk call, created on first use
+	 */
+	private static class Pool
+	{
+		static final ForkJoinPool instance = new ForkJoinPool();
+	}
+
+	/**
+	 * Run the task, on the calling thread if it is too small to split
+	 */
+	static void invoke(GeodesyTask task)
+	{
+		if (task.to - task.from < BearingMath.PARALLEL_THRESHOLD)
+		{
+			task.compute();
+		}
+		else
+		{
+			Pool.instance.invoke(task);
+		}
+	}
+
+	private final int kind;
+	private final BearingMath.Method method;
+	private final double[] in1, in2, in3, in4;
+	private final double[] out1, out2;
+	private final int from, to;
+
+	GeodesyTask(int kind, BearingMath.Method method, double[] in1, double[] in2, double[] in3, double[] in4, double[] out1, double[] out2, int from, int to)
+	{
+		this.kind = kind;
+		this.method = method;
+		this.in1 = in1;
+		this.in2 = in2;
+		this.in3 = in3;
+		this.in4 = in4;
+		this.out1 = out1;
+		this.out2 = out2;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute()
+	{
+		if (to - from > BearingMath.PARALLEL_THRESHOLD)
+		{
+			int middle = (from + to) >>> 1;
+			invokeAll(
+					new GeodesyTask(kind, method, in1, in2, in3, in4, out1, out2, from, middle),
+					new GeodesyTask(kind, method, in1, in2, in3, in4, out1, out2, middle, to));
+			return;
+		}
+
+		switch (kind)
+		{
+			case DISTANCE:
+				BearingMath.distances(method, in1, in2, in3, in4, out1, from, to);
+				break;
+			case BEARING:
+				BearingMath.initialBearings(in1, in2, in3, in4, out1, from, to);
+				break;
+			case DESTINATION:
+				BearingMath.destinations(in1, in2, in3, in4, out1, out2, from, to);
+		}
+	}
+}
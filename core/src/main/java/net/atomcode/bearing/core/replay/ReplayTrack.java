@@ -0,0 +1,357 @@
+package net.atomcode.bearing.core.replay;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * A recorded track read from a GPX or CSV file, i.e. for the library's replay location provider
+ * to play back. Points are held in primitive arrays, in time order. Plain Java, so tracks can
+ * be read and checked off the device.
+ */
+public final class ReplayTrack
+{
+	/**
+	 * Accuracy in metres of points recorded without one
+	 */
+	public static final float DEFAULT_ACCURACY = 10;
+
+	/**
+	 * Time between points recorded without a time
+	 */
+	private static final long DEFAULT_INTERVAL = 1000;
+
+	/**
+	 * Read the track points of a GPX file
+	 */
+	public static ReplayTrack readGpx(InputStream in) throws IOException
+	{
+		final Builder builder = new Builder();
+		try
+		{
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.newSAXParser().parse(in, new DefaultHandler()
+			{
+				private boolean inPoint;
+				private double latitude, longitude, altitude;
+				private long time;
+				private StringBuilder text;
+
+				@Override public void startElement(String uri, String localName, String qName, Attributes attributes)
+				{
+					if ("trkpt".equals(localName))
+					{
+						inPoint = true;
+						latitude = Double.parseDouble(attributes.getValue("lat"));
+						longitude = Double.parseDouble(attributes.getValue("lon"));
+						altitude = Double.NaN;
+						time = -1;
+					}
+					else if (inPoint && ("time".equals(localName) || "ele".equals(localName)))
+					{
+						text = new StringBuilder();
+					}
+				}
+
+				@Override public void characters(char[] ch, int start, int length)
+				{
+					if (text != null)
+					{
+						text.append(ch, start, length);
+					}
+				}
+
+				@Override public void endElement(String uri, String localName, String qName) throws SAXException
+				{
+					if ("trkpt".equals(localName))
+					{
+						inPoint = false;
+						builder.add(time, latitude, longitude, DEFAULT_ACCURACY, altitude);
+					}
+					else if (text != null)
+					{
+						String value = text.toString().trim();
+						text = null;
+						try
+						{
+							if ("time".equals(localName))
+							{
+								time = parseTime(value);
+							}
+							else
+							{
+								altitude = Double.parseDouble(value);
+							}
+						}
+						catch (ParseException ex)
+						{
+							throw new SAXException("Bad point time " + value);
+						}
+						catch (NumberFormatException ex)
+						{
+							throw new SAXException("Bad point elevation " + value);
+						}
+					}
+				}
+			});
+		}
+		catch (SAXException ex)
+		{
+			throw new IOException("Unreadable GPX: " + ex.getMessage());
+		}
+		catch (ParserConfigurationException ex)
+		{
+			throw new IOException("No XML parser: " + ex.getMessage());
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException("Bad point coordinates: " + ex.getMessage());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Read a CSV file of {@code time,latitude,longitude[,accuracy[,altitude]]} lines. Times are
+	 * milliseconds since the epoch or ISO 8601 timestamps. A header line and lines starting
+	 * with {@code #} are skipped.
+	 */
+	public static ReplayTrack readCsv(InputStream in) throws IOException
+	{
+		Builder builder = new Builder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#"))
+			{
+				continue;
+			}
+
+			String[] columns = line.split(",");
+			if (columns.length < 3)
+			{
+				throw new IOException("Line " + lineNumber + ": expected time,latitude,longitude");
+			}
+
+			try
+			{
+				long time = parseTime(columns[0].trim());
+				double latitude = Double.parseDouble(columns[1].trim());
+				double longitude = Double.parseDouble(columns[2].trim());
+				float accuracy = columns.length > 3 && columns[3].trim().length() > 0 ? Float.parseFloat(columns[3].trim()) : DEFAULT_ACCURACY;
+				double altitude = columns.length > 4 && columns[4].trim().length() > 0 ? Double.parseDouble(columns[4].trim()) : Double.NaN;
+				builder.add(time, latitude, longitude, accuracy, altitude);
+			}
+			catch (NumberFormatException ex)
+			{
+				if (builder.count == 0 && lineNumber == 1)
+				{
+					// Header
+					continue;
+				}
+				throw new IOException("Line " + lineNumber + ": " + ex.getMessage());
+			}
+			catch (ParseException ex)
+			{
+				if (builder.count == 0 && lineNumber == 1)
+				{
+					continue;
+				}
+				throw new IOException("Line " + lineNumber + ": bad time " + columns[0]);
+			}
+		}
+		return builder.build();
+	}
+
+	private final long[] times;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final float[] accuracies;
+	private final double[] altitudes; // NaN where not recorded
+
+	private ReplayTrack(long[] times, double[] latitudes, double[] longitudes, float[] accuracies, double[] altitudes)
+	{
+		this.times = times;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.accuracies = accuracies;
+		this.altitudes = altitudes;
+	}
+
+	public int size()
+	{
+		return times.length;
+	}
+
+	/**
+	 * Time from the first point to the last in milliseconds
+	 */
+	public long getDuration()
+	{
+		return times.length > 0 ? times[times.length - 1] - times[0] : 0;
+	}
+
+	/**
+	 * Time of the given point in milliseconds after the first
+	 */
+	public long getTime(int index)
+	{
+		return times[index] - times[0];
+	}
+
+	public double getLatitude(int index)
+	{
+		return latitudes[index];
+	}
+
+	public double getLongitude(int index)
+	{
+		return longitudes[index];
+	}
+
+	public float getAccuracy(int index)
+	{
+		return accuracies[index];
+	}
+
+	/**
+	 * Altitude of the given point in metres, {@link Double#NaN} if not recorded
+	 */
+	public double getAltitude(int index)
+	{
+		return altitudes[index];
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Parse milliseconds since the epoch, or an ISO 8601 timestamp such as
+	 * {@code 2015-06-01T12:00:00.5Z} or {@code 2015-06-01T12:00:00+01:00}
+	 * @return Milliseconds since the epoch, -1 for an empty string
+	 */
+	static long parseTime(String value) throws ParseException
+	{
+		if (value.length() == 0)
+		{
+			return -1;
+		}
+
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException ex)
+		{
+			// Timestamp
+		}
+
+		if (value.length() < 19)
+		{
+			throw new ParseException(value, 0);
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		long time = format.parse(value.substring(0, 19)).getTime();
+
+		int position = 19;
+		if (position < value.length() && value.charAt(position) == '.')
+		{
+			int end = position + 1;
+			while (end < value.length() && Character.isDigit(value.charAt(end)))
+			{
+				end++;
+			}
+			String fraction = (value.substring(position + 1, end) + "000").substring(0, 3);
+			time += Integer.parseInt(fraction);
+			position = end;
+		}
+
+		String zone = value.substring(position);
+		if (zone.length() > 0 && !zone.equals("Z"))
+		{
+			String digits = zone.substring(1).replace(":", "");
+			if ((zone.charAt(0) != '+' && zone.charAt(0) != '-') || digits.length() != 4)
+			{
+				throw new ParseException(value, position);
+			}
+			try
+			{
+				long offset = (Integer.parseInt(digits.substring(0, 2)) * 60 + Integer.parseInt(digits.substring(2))) * 60 * 1000L;
+				time -= zone.charAt(0) == '+' ? offset : -offset;
+			}
+			catch (NumberFormatException ex)
+			{
+				throw new ParseException(value, position);
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * Collects points, keeping times in order
+	 */
+	private static class Builder
+	{
+		long[] times = new long[256];
+		double[] latitudes = new double[256];
+		double[] longitudes = new double[256];
+		float[] accuracies = new float[256];
+		double[] altitudes = new double[256];
+		int count;
+
+		void add(long time, double latitude, double longitude, float accuracy, double altitude)
+		{
+			if (count == times.length)
+			{
+				int capacity = count * 2;
+				times = Arrays.copyOf(times, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				longitudes = Arrays.copyOf(longitudes, capacity);
+				accuracies = Arrays.copyOf(accuracies, capacity);
+				altitudes = Arrays.copyOf(altitudes, capacity);
+			}
+
+			if (count > 0 && (time < 0 || time < times[count - 1]))
+			{
+				// Missing or out of order, follow on from the previous point
+				time = times[count - 1] + (time < 0 ? DEFAULT_INTERVAL : 0);
+			}
+			times[count] = Math.max(time, 0);
+			latitudes[count] = latitude;
+			longitudes[count] = longitude;
+			accuracies[count] = accuracy;
+			altitudes[count] = altitude;
+			count++;
+		}
+
+		ReplayTrack build()
+		{
+			return new ReplayTrack(Arrays.copyOf(times, count), Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count),
+					Arrays.copyOf(accuracies, count), Arrays.copyOf(altitudes, count));
+		}
+	}
+}
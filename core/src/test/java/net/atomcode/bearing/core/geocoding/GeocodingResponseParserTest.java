@@ -0,0 +1,114 @@
+package net.atomcode.bearing.core.geocoding;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeocodingResponseParserTest
+{
+	private static final String RESULT = "{"
+			+ "\"address_components\": ["
+			+ "{\"long_name\": \"1600\", \"short_name\": \"1600\", \"types\": [\"street_number\"]},"
+			+ "{\"long_name\": \"Amphitheatre Parkway\", \"short_name\": \"Amphitheatre Pkwy\", \"types\": [\"route\"]},"
+			+ "{\"long_name\": \"United States\", \"short_name\": \"US\", \"types\": [\"country\", \"political\"]}"
+			+ "],"
+			+ "\"formatted_address\": \"1600 Amphitheatre Parkway, Mountain View, CA 94043, USA\","
+			+ "\"geometry\": {\"location\": {\"lat\": 37.4224764, \"lng\": -122.0842499}}"
+			+ "}";
+
+	@Test
+	public void parsesResults() throws GeocodingException
+	{
+		List<GeocodedAddress> results = GeocodingResponseParser.parse("{\"status\": \"OK\", \"results\": [" + RESULT + "]}", 5);
+
+		assertEquals(1, results.size());
+		GeocodedAddress result = results.get(0);
+		assertEquals(37.4224764, result.getLatitude(), 0);
+		assertEquals(-122.0842499, result.getLongitude(), 0);
+		assertEquals("1600 Amphitheatre Parkway, Mountain View, CA 94043, USA", result.getFormattedAddress());
+		assertEquals(3, result.getComponentCount());
+		assertEquals("Amphitheatre Pkwy", result.getComponent("route").getShortName());
+		assertEquals("US", result.getComponent("country").getShortName());
+		assertTrue(result.getComponent("country").hasType("political"));
+	}
+
+	@Test
+	public void readsAtMostResultCount() throws GeocodingException
+	{
+		String data = "{\"status\": \"OK\", \"results\": [" + RESULT + "," + RESULT + "," + RESULT + "]}";
+
+		assertEquals(2, GeocodingResponseParser.parse(data, 2).size());
+	}
+
+	@Test
+	public void zeroResultsIsEmpty() throws GeocodingException
+	{
+		assertTrue(GeocodingResponseParser.parse("{\"status\": \"ZERO_RESULTS\", \"results\": []}", 5).isEmpty());
+	}
+
+	@Test
+	public void missingStatusIsOk() throws GeocodingException
+	{
+		assertEquals(1, GeocodingResponseParser.parse("{\"results\": [" + RESULT + "]}", 5).size());
+	}
+
+	@Test
+	public void overQueryLimitIsTransient()
+	{
+		GeocodingException ex = parseFailure("{\"status\": \"OVER_QUERY_LIMIT\", \"results\": []}");
+
+		assertEquals(GeocodingException.STATUS_OVER_QUERY_LIMIT, ex.getStatus());
+		assertTrue(ex.isTransient());
+		assertFalse(ex.isQuotaExhausted());
+	}
+
+	@Test
+	public void overDailyLimitExhaustsQuota()
+	{
+		GeocodingException ex = parseFailure("{\"status\": \"OVER_DAILY_LIMIT\", \"error_message\": \"Billing not enabled\", \"results\": []}");
+
+		assertEquals(GeocodingException.STATUS_OVER_DAILY_LIMIT, ex.getStatus());
+		assertTrue(ex.isQuotaExhausted());
+		assertFalse(ex.isTransient());
+		assertTrue(ex.getMessage(), ex.getMessage().contains("Billing not enabled"));
+	}
+
+	@Test
+	public void requestDeniedIsFinal()
+	{
+		GeocodingException ex = parseFailure("{\"status\": \"REQUEST_DENIED\", \"results\": []}");
+
+		assertEquals(GeocodingException.STATUS_REQUEST_DENIED, ex.getStatus());
+		assertFalse(ex.isTransient());
+		assertFalse(ex.isQuotaExhausted());
+	}
+
+	@Test
+	public void malformedResponseHasNoStatus()
+	{
+		GeocodingException ex = parseFailure("<html>Bad gateway</html>");
+
+		assertNull(ex.getStatus());
+		assertFalse(ex.isTransient());
+	}
+
+	private static GeocodingException parseFailure(String data)
+	{
+		try
+		{
+			GeocodingResponseParser.parse(data, 5);
+		}
+		catch (GeocodingException ex)
+		{
+			return ex;
+		}
+		fail("Expected a GeocodingException");
+		return null;
+	}
+}
@@ -0,0 +1,89 @@
+package net.atomcode.bearing.core.geocoding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest
+{
+	@Test
+	public void burstIsAvailableImmediately()
+	{
+		RateLimiter limiter = new RateLimiter(1, 5);
+
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(0, limiter.tryAcquire());
+		}
+	}
+
+	@Test
+	public void waitsForRefillOnceBurstIsSpent()
+	{
+		RateLimiter limiter = new RateLimiter(10, 1);
+
+		assertEquals(0, limiter.tryAcquire());
+		long wait = limiter.tryAcquire();
+
+		// A tenth of a second for the next permit, less the time since the first
+		assertTrue(String.valueOf(wait), wait > 0 && wait <= 100000000L);
+	}
+
+	@Test
+	public void refillsOverTime() throws InterruptedException
+	{
+		RateLimiter limiter = new RateLimiter(100, 1);
+
+		assertEquals(0, limiter.tryAcquire());
+		Thread.sleep(50);
+		assertEquals(0, limiter.tryAcquire());
+	}
+
+	@Test
+	public void acquireBlocksUntilAPermitIsAvailable() throws InterruptedException
+	{
+		RateLimiter limiter = new RateLimiter(20, 1);
+
+		long start = System.nanoTime();
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+
+		// The second permit refilled at 20 per second
+		assertTrue(System.nanoTime() - start >= 40000000L);
+	}
+
+	@Test
+	public void dailyBudgetRunsOut() throws InterruptedException
+	{
+		RateLimiter limiter = new RateLimiter(1000, 10, 3);
+
+		assertEquals(3, limiter.getRemainingBudget());
+		for (int i = 0; i < 3; i++)
+		{
+			assertEquals(0, limiter.tryAcquire());
+		}
+		assertEquals(0, limiter.getRemainingBudget());
+		assertEquals(RateLimiter.BUDGET_EXHAUSTED, limiter.tryAcquire());
+		assertFalse(limiter.acquire());
+	}
+
+	@Test
+	public void noBudgetIsUnlimited()
+	{
+		assertEquals(Long.MAX_VALUE, new RateLimiter(1, 1).getRemainingBudget());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroRate()
+	{
+		new RateLimiter(0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeBudget()
+	{
+		new RateLimiter(1, 1, -1);
+	}
+}
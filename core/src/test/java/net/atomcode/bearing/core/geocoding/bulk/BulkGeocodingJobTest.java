@@ -0,0 +1,283 @@
+package net.atomcode.bearing.core.geocoding.bulk;
+
+import net.atomcode.bearing.core.geocoding.AddressComponent;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingEngine;
+import net.atomcode.bearing.core.geocoding.GeocodingException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkGeocodingJobTest
+{
+	private static final int LINES = 50;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesOneRecordPerLine() throws Exception
+	{
+		File input = input(LINES);
+		File output = new File(folder.getRoot(), "out.tsv");
+
+		BulkGeocodingJob.Summary summary = new BulkGeocodingJob(new FakeEngine(), input, output)
+				.concurrency(4)
+				.checkpointInterval(7)
+				.run();
+
+		assertEquals(LINES, summary.succeeded);
+		assertFalse(summary.quotaExhausted);
+		assertFalse(summary.networkFailed);
+		assertOneRecordPerLine(output, LINES);
+
+		Checkpoint checkpoint = Checkpoint.read(checkpoint(output));
+		assertEquals(LINES, checkpoint.watermark);
+		assertEquals(output.length(), checkpoint.offset);
+		assertTrue(checkpoint.completedAhead.isEmpty());
+	}
+
+	@Test
+	public void resumesAfterQuotaExhausted() throws Exception
+	{
+		File input = input(LINES);
+		File output = new File(folder.getRoot(), "out.tsv");
+
+		FakeEngine firstEngine = new FakeEngine();
+		firstEngine.quota = 20;
+		BulkGeocodingJob.Summary first = new BulkGeocodingJob(firstEngine, input, output)
+				.concurrency(4)
+				.checkpointInterval(7)
+				.run();
+
+		assertTrue(first.quotaExhausted);
+		assertEquals(20, first.succeeded);
+
+		FakeEngine secondEngine = new FakeEngine();
+		BulkGeocodingJob.Summary second = new BulkGeocodingJob(secondEngine, input, output)
+				.concurrency(4)
+				.checkpointInterval(7)
+				.run();
+
+		assertFalse(second.quotaExhausted);
+		assertEquals(20, second.resumed);
+		assertEquals(LINES - 20, second.succeeded);
+		assertTrue(Collections.disjoint(firstEngine.lookedUp, secondEngine.lookedUp));
+		assertOneRecordPerLine(output, LINES);
+	}
+
+	@Test
+	public void requeuesLinesAfterNetworkFailure() throws Exception
+	{
+		File input = input(LINES);
+		File output = new File(folder.getRoot(), "out.tsv");
+
+		FakeEngine engine = new FakeEngine();
+		engine.failing.add(query(10));
+		BulkGeocodingJob.Summary first = new BulkGeocodingJob(engine, input, output)
+				.concurrency(4)
+				.checkpointInterval(7)
+				.run();
+
+		assertTrue(first.networkFailed);
+		assertFalse(recordedLines(output).contains(10L));
+
+		engine.lookedUp.clear();
+		BulkGeocodingJob.Summary second = new BulkGeocodingJob(engine, input, output)
+				.concurrency(4)
+				.checkpointInterval(7)
+				.run();
+
+		assertFalse(second.networkFailed);
+		assertTrue(engine.lookedUp.contains(query(10)));
+		assertOneRecordPerLine(output, LINES);
+	}
+
+	@Test
+	public void resumesAfterCrashMidWrite() throws Exception
+	{
+		File input = input(10);
+		File output = new File(folder.getRoot(), "out.tsv");
+
+		// Lines 0, 1, 4 and 5 were checkpointed, 3 was written after the checkpoint and
+		// the crash cut the record of 2 short
+		StringBuilder checkpointed = new StringBuilder();
+		for (int line : new int[]{ 0, 1, 4, 5 })
+		{
+			checkpointed.append(record(line)).append('\n');
+		}
+		write(output, checkpointed + record(3) + "\n" + "2\tOK\t2.0");
+		new Checkpoint(2, checkpointed.length(), Arrays.asList(4L, 5L)).write(checkpoint(output));
+
+		FakeEngine engine = new FakeEngine();
+		BulkGeocodingJob.Summary summary = new BulkGeocodingJob(engine, input, output)
+				.concurrency(2)
+				.run();
+
+		assertEquals(5, summary.resumed);
+		assertEquals(new HashSet<String>(Arrays.asList(query(2), query(6), query(7), query(8), query(9))),
+				new HashSet<String>(engine.lookedUp));
+		assertOneRecordPerLine(output, 10);
+	}
+
+	@Test
+	public void checkpointRoundTrips() throws Exception
+	{
+		File file = new File(folder.getRoot(), "job.checkpoint");
+
+		Checkpoint empty = Checkpoint.read(file);
+		assertEquals(0, empty.watermark);
+		assertEquals(0, empty.offset);
+		assertTrue(empty.completedAhead.isEmpty());
+
+		new Checkpoint(12, 345, Arrays.asList(14L, 17L)).write(file);
+		Checkpoint read = Checkpoint.read(file);
+		assertEquals(12, read.watermark);
+		assertEquals(345, read.offset);
+		assertEquals(Arrays.asList(14L, 17L), read.completedAhead);
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Engine answering each query with the line index as its latitude, without a network
+	 */
+	private static class FakeEngine extends GeocodingEngine
+	{
+		final Set<String> failing = Collections.synchronizedSet(new HashSet<String>()); // Fail once with a network error
+		final List<String> lookedUp = Collections.synchronizedList(new ArrayList<String>());
+		int quota = -1; // Lookups left before the daily limit, -1 for no limit. Guarded by this
+
+		@Override
+		public List<GeocodedAddress> geocode(String query, Locale locale, int resultCount) throws IOException, GeocodingException
+		{
+			synchronized (this)
+			{
+				if (quota == 0)
+				{
+					throw new GeocodingException("Over daily limit", GeocodingException.STATUS_OVER_DAILY_LIMIT, null);
+				}
+				if (quota > 0)
+				{
+					quota--;
+				}
+			}
+			if (failing.remove(query))
+			{
+				throw new IOException("Network unreachable");
+			}
+
+			lookedUp.add(query);
+			int index = Integer.parseInt(query.substring(query.lastIndexOf(' ') + 1));
+			return Collections.singletonList(new GeocodedAddress(index, 0, "Formatted " + query, Collections.<AddressComponent>emptyList()));
+		}
+	}
+
+	private File input(int lines) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		for (int line = 0; line < lines; line++)
+		{
+			content.append(query(line)).append('\n');
+		}
+		File input = new File(folder.getRoot(), "in.txt");
+		write(input, content.toString());
+		return input;
+	}
+
+	private static String query(int line)
+	{
+		return "Address " + line;
+	}
+
+	private static String record(int line)
+	{
+		return line + "\t" + BulkGeocodingJob.STATUS_OK + "\t" + (double)line + "\t0.0\tFormatted " + query(line);
+	}
+
+	private static File checkpoint(File output)
+	{
+		return new File(output.getPath() + ".checkpoint");
+	}
+
+	private static void write(File file, String content) throws IOException
+	{
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			writer.write(content);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Check every line has exactly one complete record
+	 */
+	private static void assertOneRecordPerLine(File output, int lines) throws IOException
+	{
+		List<Long> recorded = recordedLines(output);
+		assertEquals(lines, recorded.size());
+		assertEquals(lines, new HashSet<Long>(recorded).size());
+		for (long line = 0; line < lines; line++)
+		{
+			assertTrue("No record of line " + line, recorded.contains(line));
+		}
+	}
+
+	/**
+	 * The line index of each record in the output, checking each record is complete
+	 */
+	private static List<Long> recordedLines(File output) throws IOException
+	{
+		List<Long> recorded = new ArrayList<Long>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(output), "UTF-8"));
+		try
+		{
+			String record;
+			while ((record = reader.readLine()) != null)
+			{
+				String[] fields = record.split("\t", -1);
+				assertEquals(record, 5, fields.length);
+				assertEquals(record, BulkGeocodingJob.STATUS_OK, fields[1]);
+
+				long line = Long.parseLong(fields[0]);
+				assertEquals(record, line, Double.parseDouble(fields[2]), 0);
+				assertEquals(record, "Formatted " + query((int)line), fields[4]);
+				recorded.add(line);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return recorded;
+	}
+}
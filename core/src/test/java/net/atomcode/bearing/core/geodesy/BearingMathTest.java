@@ -0,0 +1,117 @@
+package net.atomcode.bearing.core.geodesy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BearingMathTest
+{
+	/**
+	 * Length of a degree of arc on the sphere of the mean radius
+	 */
+	private static final double DEGREE = BearingMath.EARTH_RADIUS * Math.PI / 180;
+
+	@Test
+	public void vincentyMatchesPublishedDistances()
+	{
+		// Flinders Peak to Buninyong, the worked example in Vincenty's paper
+		assertEquals(54972.271, BearingMath.vincentyDistance(
+				-dms(37, 57, 3.72030), dms(144, 25, 29.52440),
+				-dms(37, 39, 10.15610), dms(143, 55, 35.38390)), 0.001);
+
+		// One degree of the equator, and the WGS84 quarter meridian
+		assertEquals(111319.491, BearingMath.vincentyDistance(0, 0, 0, 1), 0.001);
+		assertEquals(10001965.729, BearingMath.vincentyDistance(0, 0, 90, 0), 0.001);
+
+		assertEquals(0, BearingMath.vincentyDistance(51.5, -0.12, 51.5, -0.12), 0);
+	}
+
+	@Test
+	public void vincentyIsNaNForNearlyAntipodalPoints()
+	{
+		assertTrue(Double.isNaN(BearingMath.vincentyDistance(0, 0, 0.5, 179.7)));
+		assertTrue(Double.isNaN(BearingMath.distance(BearingMath.Method.VINCENTY, 0, 0, 0.5, 179.7)));
+	}
+
+	@Test
+	public void distancesTakeTheShortWayAcrossTheAntimeridian()
+	{
+		assertEquals(DEGREE, BearingMath.haversineDistance(0, 179.5, 0, -179.5), 1e-6);
+		assertEquals(DEGREE, BearingMath.equirectangularDistance(0, -179.5, 0, 179.5), 1e-6);
+		assertEquals(111319.491, BearingMath.vincentyDistance(0, 179.5, 0, -179.5), 0.001);
+	}
+
+	@Test
+	public void bearingsAcrossTheAntimeridian()
+	{
+		assertEquals(90, BearingMath.initialBearing(0, 179.5, 0, -179.5), 1e-9);
+		assertEquals(270, BearingMath.initialBearing(0, -179.5, 0, 179.5), 1e-9);
+		assertEquals(0, BearingMath.initialBearing(10, 180, 11, -180), 1e-9);
+	}
+
+	@Test
+	public void destinationsAcrossTheAntimeridian()
+	{
+		assertEquals(0, BearingMath.destinationLatitude(0, 179.5, 90, DEGREE), 1e-9);
+		assertEquals(-179.5, BearingMath.destinationLongitude(0, 179.5, 90, DEGREE), 1e-9);
+		assertEquals(179.5, BearingMath.destinationLongitude(0, -179.5, 270, DEGREE), 1e-9);
+
+		double[] latitudes = { 0, 0 };
+		double[] longitudes = { 179.5, -179.5 };
+		double[] outLatitudes = new double[2];
+		double[] outLongitudes = new double[2];
+		BearingMath.destinations(latitudes, longitudes, new double[]{ 90, 270 }, new double[]{ DEGREE, DEGREE }, outLatitudes, outLongitudes);
+		assertArrayEquals(new double[]{ -179.5, 179.5 }, outLongitudes, 1e-9);
+	}
+
+	@Test
+	public void parallelMatchesSequential()
+	{
+		int count = BearingMath.PARALLEL_THRESHOLD * 4 + 17;
+		Random random = new Random(1);
+		double[] latitudes1 = new double[count];
+		double[] longitudes1 = new double[count];
+		double[] latitudes2 = new double[count];
+		double[] longitudes2 = new double[count];
+		double[] bearings = new double[count];
+		double[] distances = new double[count];
+		for (int i = 0; i < count; i++)
+		{
+			latitudes1[i] = random.nextDouble() * 180 - 90;
+			longitudes1[i] = random.nextDouble() * 360 - 180;
+			latitudes2[i] = random.nextDouble() * 180 - 90;
+			longitudes2[i] = random.nextDouble() * 360 - 180;
+			bearings[i] = random.nextDouble() * 360;
+			distances[i] = random.nextDouble() * 1000000;
+		}
+
+		for (BearingMath.Method method : BearingMath.Method.values())
+		{
+			assertArrayEquals(
+					BearingMath.distances(method, latitudes1, longitudes1, latitudes2, longitudes2, null),
+					BearingMath.distancesParallel(method, latitudes1, longitudes1, latitudes2, longitudes2, null), 0);
+		}
+
+		assertArrayEquals(
+				BearingMath.initialBearings(latitudes1, longitudes1, latitudes2, longitudes2, null),
+				BearingMath.initialBearingsParallel(latitudes1, longitudes1, latitudes2, longitudes2, null), 0);
+
+		double[] sequentialLatitudes = new double[count];
+		double[] sequentialLongitudes = new double[count];
+		double[] parallelLatitudes = new double[count];
+		double[] parallelLongitudes = new double[count];
+		BearingMath.destinations(latitudes1, longitudes1, bearings, distances, sequentialLatitudes, sequentialLongitudes);
+		BearingMath.destinationsParallel(latitudes1, longitudes1, bearings, distances, parallelLatitudes, parallelLongitudes);
+		assertArrayEquals(sequentialLatitudes, parallelLatitudes, 0);
+		assertArrayEquals(sequentialLongitudes, parallelLongitudes, 0);
+	}
+
+	private static double dms(int degrees, int minutes, double seconds)
+	{
+		return degrees + minutes / 60.0 + seconds / 3600.0;
+	}
+}
@@ -0,0 +1,127 @@
+package net.atomcode.bearing.geocoding;
+
+import android.location.Address;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.atomcode.bearing.core.geocoding.AddressComponent;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class AddressConverterTest
+{
+	private static final String[] TYPES = {
+			"premise",
+			"street_number",
+			"route",
+			"sublocality",
+			"locality",
+			"administrative_area_level_2",
+			"administrative_area_level_1",
+			"country",
+			"postal_code"
+	};
+
+	@Test
+	public void resultRoundTrips()
+	{
+		GeocodedAddress result = sampleResult();
+
+		GeocodedAddress converted = AddressConverter.fromAddress(AddressConverter.toAddress(result, Locale.UK));
+
+		assertEquals(result.getLatitude(), converted.getLatitude(), 0);
+		assertEquals(result.getLongitude(), converted.getLongitude(), 0);
+		assertEquals(result.getFormattedAddress(), converted.getFormattedAddress());
+		assertEquals(result.getComponentCount(), converted.getComponentCount());
+		for (String type : TYPES)
+		{
+			assertEquals(type, result.getComponent(type).getLongName(), converted.getComponent(type).getLongName());
+		}
+		assertEquals("GB", converted.getComponent("country").getShortName());
+	}
+
+	@Test
+	public void addressRoundTrips()
+	{
+		Address address = new Address(Locale.UK);
+		address.setLatitude(51.5033);
+		address.setLongitude(-0.1276);
+		address.setAddressLine(0, "10 Downing Street");
+		address.setAddressLine(1, "London SW1A 2AA");
+		address.setAddressLine(2, "United Kingdom");
+		address.setPremises("Prime Minister's Office");
+		address.setSubThoroughfare("10");
+		address.setThoroughfare("Downing Street");
+		address.setSubLocality("Westminster");
+		address.setLocality("London");
+		address.setSubAdminArea("Greater London");
+		address.setAdminArea("England");
+		address.setCountryName("United Kingdom");
+		address.setCountryCode("GB");
+		address.setPostalCode("SW1A 2AA");
+
+		Address converted = AddressConverter.toAddress(AddressConverter.fromAddress(address), Locale.UK);
+
+		assertEquals(address.getLatitude(), converted.getLatitude(), 0);
+		assertEquals(address.getLongitude(), converted.getLongitude(), 0);
+		assertEquals(address.getMaxAddressLineIndex(), converted.getMaxAddressLineIndex());
+		for (int line = 0; line <= address.getMaxAddressLineIndex(); line++)
+		{
+			assertEquals(address.getAddressLine(line), converted.getAddressLine(line));
+		}
+		assertFieldsEqual(address, converted);
+	}
+
+	@Test
+	public void listenerAddressesShareTheMapping()
+	{
+		GeocodedAddress result = sampleResult();
+		Address address = AddressConverter.toAddress(result, Locale.UK);
+
+		assertFieldsEqual(address, AddressConverter.toQueryAddress(result, Locale.UK));
+		assertFieldsEqual(address, AddressConverter.toReverseAddress(result, Locale.UK));
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private static GeocodedAddress sampleResult()
+	{
+		List<AddressComponent> components = new ArrayList<AddressComponent>();
+		components.add(new AddressComponent("Prime Minister's Office", "Prime Minister's Office", new String[]{ "premise" }));
+		components.add(new AddressComponent("10", "10", new String[]{ "street_number" }));
+		components.add(new AddressComponent("Downing Street", "Downing St", new String[]{ "route" }));
+		components.add(new AddressComponent("Westminster", "Westminster", new String[]{ "sublocality", "political" }));
+		components.add(new AddressComponent("London", "London", new String[]{ "locality", "political" }));
+		components.add(new AddressComponent("Greater London", "Greater London", new String[]{ "administrative_area_level_2", "political" }));
+		components.add(new AddressComponent("England", "England", new String[]{ "administrative_area_level_1", "political" }));
+		components.add(new AddressComponent("United Kingdom", "GB", new String[]{ "country", "political" }));
+		components.add(new AddressComponent("SW1A 2AA", "SW1A 2AA", new String[]{ "postal_code" }));
+		return new GeocodedAddress(51.5033, -0.1276, "10 Downing Street, London SW1A 2AA, United Kingdom", components);
+	}
+
+	private static void assertFieldsEqual(Address expected, Address actual)
+	{
+		assertEquals(expected.getPremises(), actual.getPremises());
+		assertEquals(expected.getSubThoroughfare(), actual.getSubThoroughfare());
+		assertEquals(expected.getThoroughfare(), actual.getThoroughfare());
+		assertEquals(expected.getSubLocality(), actual.getSubLocality());
+		assertEquals(expected.getLocality(), actual.getLocality());
+		assertEquals(expected.getSubAdminArea(), actual.getSubAdminArea());
+		assertEquals(expected.getAdminArea(), actual.getAdminArea());
+		assertEquals(expected.getCountryName(), actual.getCountryName());
+		assertEquals(expected.getCountryCode(), actual.getCountryCode());
+		assertEquals(expected.getPostalCode(), actual.getPostalCode());
+	}
+}
@@ -0,0 +1,206 @@
+package net.atomcode.bearing.load;
+
+import android.content.Context;
+import android.location.Location;
+
+import net.atomcode.bearing.location.LocationListener;
+import net.atomcode.bearing.location.LocationProvider;
+import net.atomcode.bearing.location.LocationProviderRequest;
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provider answering requests after a random latency on the provider thread, as the real
+ * providers do, and leaving some single requests unanswered so their tasks time out.
+ * Keeps count of the registrations still open when it is destroyed.
+ */
+class FakeLocationProvider implements LocationProvider
+{
+	static final String PROVIDER = "fake";
+
+	private final long maxLatency;
+	private final double silenceRate;
+	private final long trackInterval;
+
+	/**
+	 * Time each fix was handed to a listener, by identity
+	 */
+	final Map<Location, Long> emitted = new ConcurrentHashMap<Location, Long>();
+
+	// Guarded by this
+	private final Map<String, Runnable> registrations = new HashMap<String, Runnable>();
+	private final Random random;
+	private Location lastLocation;
+	private boolean created;
+	private boolean used;
+	private int leakedRegistrations;
+
+	FakeLocationProvider(long maxLatency, double silenceRate, long trackInterval, long seed)
+	{
+		this.maxLatency = maxLatency;
+		this.silenceRate = silenceRate;
+		this.trackInterval = trackInterval;
+		this.random = new Random(seed);
+	}
+
+	@Override
+	public synchronized void create(Context context)
+	{
+		created = true;
+		used = true;
+	}
+
+	@Override
+	public synchronized void destroy()
+	{
+		leakedRegistrations += registrations.size();
+		for (Runnable emit : registrations.values())
+		{
+			ProviderThread.getHandler().removeCallbacks(emit);
+		}
+		registrations.clear();
+		created = false;
+	}
+
+	@Override
+	public void connect(Runnable onConnected)
+	{
+		ProviderThread.getHandler().post(onConnected);
+	}
+
+	@Override
+	public synchronized Location getLastKnownLocation(LocationProviderRequest request)
+	{
+		return lastLocation;
+	}
+
+	@Override
+	public String requestSingleLocationUpdate(LocationProviderRequest request, final LocationListener listener)
+	{
+		final String requestId = UUID.randomUUID().toString();
+		Runnable emit = new Runnable()
+		{
+			@Override public void run()
+			{
+				Location location;
+				synchronized (FakeLocationProvider.this)
+				{
+					if (registrations.remove(requestId) == null)
+					{
+						// Cancelled
+						return;
+					}
+					location = newLocation();
+				}
+				emitted.put(location, System.nanoTime());
+				listener.onUpdate(location);
+			}
+		};
+
+		synchronized (this)
+		{
+			registrations.put(requestId, emit);
+			if (random.nextDouble() >= silenceRate)
+			{
+				ProviderThread.getHandler().postDelayed(emit, nextLatency());
+			}
+		}
+		return requestId;
+	}
+
+	@Override
+	public String requestRecurringLocationUpdates(LocationProviderRequest request, final LocationListener listener)
+	{
+		final String requestId = UUID.randomUUID().toString();
+		Runnable emit = new Runnable()
+		{
+			@Override public void run()
+			{
+				Location location;
+				synchronized (FakeLocationProvider.this)
+				{
+					if (registrations.get(requestId) != this)
+					{
+						// Cancelled
+						return;
+					}
+					location = newLocation();
+					ProviderThread.getHandler().postDelayed(this, trackInterval);
+				}
+				emitted.put(location, System.nanoTime());
+				listener.onUpdate(location);
+			}
+		};
+
+		synchronized (this)
+		{
+			registrations.put(requestId, emit);
+			ProviderThread.getHandler().postDelayed(emit, nextLatency());
+		}
+		return requestId;
+	}
+
+	@Override
+	public synchronized void cancelUpdates(String requestId)
+	{
+		Runnable emit = registrations.remove(requestId);
+		if (emit != null)
+		{
+			ProviderThread.getHandler().removeCallbacks(emit);
+		}
+	}
+
+	synchronized boolean isCreated()
+	{
+		return created;
+	}
+
+	/**
+	 * Whether tasks have used the provider since it was made
+	 */
+	synchronized boolean isUsed()
+	{
+		return used;
+	}
+
+	/**
+	 * Registrations still open when the provider was destroyed, or still open now
+	 */
+	synchronized int getLeakedRegistrations()
+	{
+		return leakedRegistrations + registrations.size();
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Call holding the lock
+	 */
+	private long nextLatency()
+	{
+		return maxLatency > 0 ? (long)(random.nextDouble() * maxLatency) : 0;
+	}
+
+	/**
+	 * A fresh fix near a fixed point. Call holding the lock.
+	 */
+	private Location newLocation()
+	{
+		Location location = new Location(PROVIDER);
+		location.setLatitude(51.5 + random.nextDouble() * 0.01);
+		location.setLongitude(-0.1 + random.nextDouble() * 0.01);
+		location.setAccuracy(10);
+		location.setTime(System.currentTimeMillis());
+		lastLocation = location;
+		return location;
+	}
+}
@@ -0,0 +1,417 @@
+package net.atomcode.bearing.load;
+
+import android.content.Context;
+import android.location.Location;
+
+import net.atomcode.bearing.BearingTask;
+import net.atomcode.bearing.Dispatch;
+import net.atomcode.bearing.location.CurrentLocationTask;
+import net.atomcode.bearing.location.LocationListener;
+import net.atomcode.bearing.location.LocationTask;
+import net.atomcode.bearing.location.PeriodicLocationTask;
+import net.atomcode.bearing.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the location task orchestration. Runs thousands of concurrent single fix tasks,
+ * some cancelled and some timing out, alongside tracking tasks, against a fake provider
+ * answering on the provider thread. Reports throughput, latencies and broken invariants,
+ * see {@link LoadReport}.
+ *
+ * Runs the real provider thread and dispatches, so it lives with the instrumentation tests and
+ * runs on a device or emulator, not in the library. Call {@link #run()} off the main thread,
+ * with no location tasks running.
+ */
+public class LoadHarness
+{
+	/**
+	 * Extra time allowed for tasks to settle, beyond their timeout
+	 */
+	private static final long SETTLE_TIME = 30 * 1000;
+
+	/**
+	 * Time to wait for stray callbacks once everything has settled
+	 */
+	private static final long QUIET_TIME = 500;
+
+	private final Context context;
+
+	protected int operations = 10000;
+	protected int concurrency = 8;
+	protected int tracks = 50;
+	protected double cancelRate = 0.2;
+	protected double silenceRate = 0.1;
+	protected long providerLatency = 50;
+	protected long timeout = 500;
+	protected long trackInterval = 100;
+	protected Dispatch dispatch = Dispatch.background();
+	protected long seed = 0;
+
+	private final AtomicInteger delivered = new AtomicInteger();
+	private final AtomicInteger timedOut = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger cancelled = new AtomicInteger();
+	private final AtomicInteger trackFixes = new AtomicInteger();
+	private final AtomicInteger doubleDeliveries = new AtomicInteger();
+	private final AtomicInteger lateCallbacks = new AtomicInteger();
+	private final Histogram taskLatency = new Histogram();
+	private final Histogram callbackLatency = new Histogram();
+
+	private FakeLocationProvider provider;
+	private CountDownLatch unsettled;
+
+	public LoadHarness(Context context)
+	{
+		this.context = context;
+	}
+
+	/**
+	 * Number of single fix tasks to run, default 10000
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness operations(int operations)
+	{
+		this.operations = operations;
+		return this;
+	}
+
+	/**
+	 * Number of threads starting and cancelling tasks, default 8
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness concurrency(int concurrency)
+	{
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	/**
+	 * Number of tracking tasks running throughout
+	 * @param interval Time in milliseconds between the fixes of each
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness tracks(int tracks, long interval)
+	{
+		this.tracks = tracks;
+		this.trackInterval = interval;
+		return this;
+	}
+
+	/**
+	 * Fraction of single fix tasks cancelled before the provider answers, default 0.2
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness cancelRate(double cancelRate)
+	{
+		this.cancelRate = cancelRate;
+		return this;
+	}
+
+	/**
+	 * Configure the fake provider
+	 * @param latency Most time in milliseconds before a request is answered, default 50
+	 * @param silenceRate Fraction of single fix requests never answered, default 0.1
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness provider(long latency, double silenceRate)
+	{
+		this.providerLatency = latency;
+		this.silenceRate = silenceRate;
+		return this;
+	}
+
+	/**
+	 * Timeout of the single fix tasks in milliseconds, default 500
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness timeout(long timeout)
+	{
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Dispatch for the task callbacks, {@link Dispatch#background()} by default
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness dispatchOn(Dispatch dispatch)
+	{
+		this.dispatch = dispatch;
+		return this;
+	}
+
+	/**
+	 * Seed for the fake provider and the cancellations, default 0
+	 */
+	@SuppressWarnings("unused")
+	public LoadHarness seed(long seed)
+	{
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Run the load test, blocking until it completes. The location services are used again
+	 * afterwards, as with {@code Bearing.useProvider(null)}.
+	 * @throws IllegalStateException If location tasks were already running
+	 */
+	public LoadReport run() throws InterruptedException
+	{
+		reset();
+		provider = new FakeLocationProvider(providerLatency, silenceRate, trackInterval, seed);
+		unsettled = new CountDownLatch(operations);
+		LocationTask.useProvider(provider);
+
+		ExecutorService starters = Executors.newFixedThreadPool(concurrency);
+		final ScheduledExecutorService cancellers = Executors.newScheduledThreadPool(concurrency);
+		try
+		{
+			List<Track> trackListeners = new ArrayList<Track>(tracks);
+			for (int i = 0; i < tracks; i++)
+			{
+				Track track = new Track();
+				track.start();
+				trackListeners.add(track);
+			}
+
+			Random random = new Random(seed);
+			List<Operation> started = new ArrayList<Operation>(operations);
+			long startNanos = System.nanoTime();
+			for (int i = 0; i < operations; i++)
+			{
+				final Operation operation = new Operation();
+				final long cancelDelay = random.nextDouble() < cancelRate ? (long)(random.nextDouble() * providerLatency) : -1;
+				started.add(operation);
+
+				starters.execute(new Runnable()
+				{
+					@Override public void run()
+					{
+						operation.start();
+						if (cancelDelay >= 0)
+						{
+							cancellers.schedule(new Runnable()
+							{
+								@Override public void run()
+								{
+									operation.cancel();
+								}
+							}, cancelDelay, TimeUnit.MILLISECONDS);
+						}
+					}
+				});
+			}
+
+			unsettled.await(timeout + providerLatency + SETTLE_TIME, TimeUnit.MILLISECONDS);
+			long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+			// Catch callbacks arriving after a task settled
+			Thread.sleep(QUIET_TIME + providerLatency);
+			for (Track track : trackListeners)
+			{
+				track.cancel();
+			}
+			Thread.sleep(QUIET_TIME + trackInterval);
+
+			// The shared provider is destroyed once the last task finishes
+			long destroyDeadline = System.currentTimeMillis() + QUIET_TIME * 10;
+			while (provider.isCreated() && System.currentTimeMillis() < destroyDeadline)
+			{
+				Thread.sleep(10);
+			}
+
+			if (!provider.isUsed())
+			{
+				throw new IllegalStateException("Location tasks were running, the fake provider was not used");
+			}
+
+			LoadReport report = new LoadReport();
+			report.elapsedMillis = elapsedMillis;
+			report.operations = operations;
+			report.delivered = delivered.get();
+			report.timedOut = timedOut.get();
+			report.failed = failed.get();
+			report.cancelled = cancelled.get();
+			report.trackFixes = trackFixes.get();
+			report.doubleDeliveries = doubleDeliveries.get();
+			report.lateCallbacks = lateCallbacks.get();
+			report.leakedRegistrations = provider.getLeakedRegistrations();
+			report.providerLeaked = provider.isCreated();
+			report.taskLatency = taskLatency.snapshot();
+			report.callbackLatency = callbackLatency.snapshot();
+			for (Operation operation : started)
+			{
+				if (!operation.settled.get())
+				{
+					report.lostDeliveries++;
+				}
+			}
+			return report;
+		}
+		finally
+		{
+			starters.shutdownNow();
+			cancellers.shutdownNow();
+			LocationTask.useProvider(null);
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private void reset()
+	{
+		for (AtomicInteger counter : new AtomicInteger[] { delivered, timedOut, failed, cancelled, trackFixes, doubleDeliveries, lateCallbacks })
+		{
+			counter.set(0);
+		}
+		taskLatency.reset();
+		callbackLatency.reset();
+	}
+
+	private void recordCallbackLatency(Location location)
+	{
+		Long emittedAt = provider.emitted.remove(location);
+		if (emittedAt != null)
+		{
+			callbackLatency.record((System.nanoTime() - emittedAt) / 1000);
+		}
+	}
+
+	/**
+	 * A single fix task, checking it settles exactly once
+	 */
+	private class Operation extends LocationListener
+	{
+		final AtomicInteger outcomes = new AtomicInteger();
+		final AtomicBoolean settled = new AtomicBoolean();
+		volatile boolean cancelled;
+
+		private long startNanos;
+		private CurrentLocationTask task;
+
+		void start()
+		{
+			task = new CurrentLocationTask(context);
+			task.cache(false, 0)
+					.fallback(BearingTask.FALLBACK_NONE, timeout)
+					.dispatchOn(dispatch)
+					.listen(this);
+			startNanos = System.nanoTime();
+			task.start();
+		}
+
+		void cancel()
+		{
+			task.cancel();
+			cancelled = true;
+			if (outcomes.get() == 0)
+			{
+				LoadHarness.this.cancelled.incrementAndGet();
+				settle();
+			}
+		}
+
+		@Override public void onUpdate(Location location)
+		{
+			recordCallbackLatency(location);
+			if (outcome())
+			{
+				delivered.incrementAndGet();
+			}
+		}
+
+		@Override public void onTimeout()
+		{
+			if (outcome())
+			{
+				timedOut.incrementAndGet();
+			}
+		}
+
+		@Override public void onFailure()
+		{
+			if (outcome())
+			{
+				failed.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return {@code true} for the first outcome of a task that is not cancelled
+		 */
+		private boolean outcome()
+		{
+			if (cancelled)
+			{
+				lateCallbacks.incrementAndGet();
+				return false;
+			}
+			if (outcomes.incrementAndGet() > 1)
+			{
+				doubleDeliveries.incrementAndGet();
+				return false;
+			}
+			taskLatency.record((System.nanoTime() - startNanos) / 1000);
+			settle();
+			return true;
+		}
+
+		private void settle()
+		{
+			if (settled.compareAndSet(false, true))
+			{
+				unsettled.countDown();
+			}
+		}
+	}
+
+	/**
+	 * A tracking task running for the whole test
+	 */
+	private class Track extends LocationListener
+	{
+		volatile boolean cancelled;
+
+		private PeriodicLocationTask task;
+
+		void start()
+		{
+			task = new PeriodicLocationTask(context);
+			task.rate(trackInterval)
+					.dispatchOn(dispatch)
+					.listen(this);
+			task.start();
+		}
+
+		void cancel()
+		{
+			task.cancel();
+			cancelled = true;
+		}
+
+		@Override public void onUpdate(Location location)
+		{
+			recordCallbackLatency(location);
+			if (cancelled)
+			{
+				lateCallbacks.incrementAndGet();
+				return;
+			}
+			trackFixes.incrementAndGet();
+		}
+	}
+}
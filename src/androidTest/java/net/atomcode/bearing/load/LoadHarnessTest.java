@@ -0,0 +1,29 @@
+package net.atomcode.bearing.load;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs a small load, small enough for every connected test run
+ */
+@RunWith(AndroidJUnit4.class)
+public class LoadHarnessTest
+{
+	@Test
+	public void smallLoadKeepsInvariants() throws InterruptedException
+	{
+		LoadReport report = new LoadHarness(InstrumentationRegistry.getTargetContext())
+				.operations(500)
+				.concurrency(4)
+				.tracks(5, 100)
+				.seed(1)
+				.run();
+
+		assertFalse(report.toString(), report.hasViolations());
+	}
+}
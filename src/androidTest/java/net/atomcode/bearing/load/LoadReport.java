@@ -0,0 +1,153 @@
+package net.atomcode.bearing.load;
+
+import net.atomcode.bearing.metrics.HistogramSnapshot;
+
+/**
+ * Results of a {@link LoadHarness} run. Latencies are in microseconds.
+ */
+public class LoadReport
+{
+	long elapsedMillis;
+	int operations;
+
+	int delivered;
+	int timedOut;
+	int failed;
+	int cancelled;
+	int trackFixes;
+
+	int doubleDeliveries;
+	int lostDeliveries;
+	int lateCallbacks;
+	int leakedRegistrations;
+	boolean providerLeaked;
+
+	HistogramSnapshot taskLatency;
+	HistogramSnapshot callbackLatency;
+
+	LoadReport()
+	{
+	}
+
+	public long getElapsedMillis()
+	{
+		return elapsedMillis;
+	}
+
+	/**
+	 * Single fix operations started per second
+	 */
+	public double getThroughput()
+	{
+		return elapsedMillis > 0 ? operations * 1000.0 / elapsedMillis : 0;
+	}
+
+	public int getOperations()
+	{
+		return operations;
+	}
+
+	public int getDelivered()
+	{
+		return delivered;
+	}
+
+	public int getTimedOut()
+	{
+		return timedOut;
+	}
+
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	public int getCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Fixes received by the tracking tasks
+	 */
+	public int getTrackFixes()
+	{
+		return trackFixes;
+	}
+
+	/**
+	 * Single fix tasks with more than one of a fix, timeout or failure
+	 */
+	public int getDoubleDeliveries()
+	{
+		return doubleDeliveries;
+	}
+
+	/**
+	 * Single fix tasks not cancelled that never had a fix, timeout or failure
+	 */
+	public int getLostDeliveries()
+	{
+		return lostDeliveries;
+	}
+
+	/**
+	 * Callbacks made after the task's {@code cancel()} returned. Callbacks already queued on
+	 * the dispatch when the task is cancelled still run, so these are expected in small numbers.
+	 */
+	public int getLateCallbacks()
+	{
+		return lateCallbacks;
+	}
+
+	/**
+	 * Provider registrations left open by tasks that finished
+	 */
+	public int getLeakedRegistrations()
+	{
+		return leakedRegistrations;
+	}
+
+	/**
+	 * Whether the shared provider was still held once every task had finished
+	 */
+	public boolean isProviderLeaked()
+	{
+		return providerLeaked;
+	}
+
+	/**
+	 * Time from starting a single fix task to its fix, timeout or failure
+	 */
+	public HistogramSnapshot getTaskLatency()
+	{
+		return taskLatency;
+	}
+
+	/**
+	 * Time from the provider handing over a fix to the listener being called
+	 */
+	public HistogramSnapshot getCallbackLatency()
+	{
+		return callbackLatency;
+	}
+
+	/**
+	 * Whether any invariant was broken. Late callbacks are not counted.
+	 */
+	public boolean hasViolations()
+	{
+		return doubleDeliveries > 0 || lostDeliveries > 0 || leakedRegistrations > 0 || providerLeaked;
+	}
+
+	@Override public String toString()
+	{
+		return "LoadReport"
+				+ "\noperations=" + operations + " elapsed=" + elapsedMillis + "ms throughput=" + String.format("%.1f", getThroughput()) + "/s"
+				+ "\ndelivered=" + delivered + " timeouts=" + timedOut + " failures=" + failed + " cancelled=" + cancelled + " trackFixes=" + trackFixes
+				+ "\ndoubleDeliveries=" + doubleDeliveries + " lostDeliveries=" + lostDeliveries + " lateCallbacks=" + lateCallbacks
+				+ " leakedRegistrations=" + leakedRegistrations + " providerLeaked=" + providerLeaked
+				+ "\ntaskLatency[" + taskLatency + "]"
+				+ "\ncallbackLatency[" + callbackLatency + "]";
+	}
+}
@@ -7,12 +7,18 @@ import android.location.LocationManager;
 
 import com.google.android.gms.maps.model.LatLng;
 
+import net.atomcode.bearing.geocoding.BulkReverseGeocodingTask;
 import net.atomcode.bearing.geocoding.GeocodingTask;
 import net.atomcode.bearing.geocoding.QueryGeocodingTask;
 import net.atomcode.bearing.geocoding.ReverseGeocodingTask;
 import net.atomcode.bearing.location.CurrentLocationTask;
+import net.atomcode.bearing.location.GpsBudget;
+import net.atomcode.bearing.location.LocationProvider;
+import net.atomcode.bearing.location.LocationTask;
 import net.atomcode.bearing.location.PeriodicLocationTask;
 
+import java.util.List;
+
 /**
  * Entry class for Bearing library.
  *
@@ -117,7 +123,7 @@ public class Bearing
 	 * @param location The location of the coordinates to look up
 	 * @return The task to configure and start
 	 */
-	public GeocodingTask geocode(Location location)
+	public ReverseGeocodingTask geocode(Location location)
 	{
 		return new ReverseGeocodingTask(context, new Double[]{location.getLatitude(), location.getLongitude()});
 	}
@@ -127,7 +133,7 @@ public class Bearing
 	 * @param address The address containing the coordinates to look up
 	 * @return The task to configure and start
 	 */
-	public GeocodingTask geocode(Address address)
+	public ReverseGeocodingTask geocode(Address address)
 	{
 		return new ReverseGeocodingTask(context, new Double[]{address.getLatitude(), address.getLongitude()});
 	}
@@ -137,11 +143,22 @@ public class Bearing
 	 * @param latLng The lat,lng coordinates to look up
 	 * @return The task to configure and start
 	 */
-	public GeocodingTask geocode(LatLng latLng)
+	public ReverseGeocodingTask geocode(LatLng latLng)
 	{
 		return new ReverseGeocodingTask(context, new Double[]{latLng.latitude, latLng.longitude});
 	}
 
+	/**
+	 * Geocode the given locations, i.e. a recorded track, into addresses.
+	 * Nearby locations share a single lookup.
+	 * @param locations The locations to look up
+	 * @return The task to configure and start
+	 */
+	public BulkReverseGeocodingTask geocode(List<Location> locations)
+	{
+		return new BulkReverseGeocodingTask(context, locations);
+	}
+
 	/**
 	 * Locate the current user using the best available method on the device
 	 * @return The task to configure and start
@@ -160,4 +177,34 @@ public class Bearing
 		return new PeriodicLocationTask(context);
 	}
 
+	/**
+	 * Get the budget limiting GPS use across all location tasks, i.e. to set the allowance
+	 * or read the spend of each caller
+	 */
+	public GpsBudget gpsBudget()
+	{
+		return GpsBudget.getInstance();
+	}
+
+	/**
+	 * Use the given provider for every location task in place of the device location services,
+	 * i.e. a {@link net.atomcode.bearing.location.provider.ReplayLocationProvider} playing back
+	 * a recorded track. Takes effect once no location tasks are running.
+	 * @param provider The provider, {@code null} to use the device location services again
+	 */
+	public Bearing useProvider(LocationProvider provider)
+	{
+		LocationTask.useProvider(provider);
+		return this;
+	}
+
+	/**
+	 * Prepare location and geocoding in the background, ahead of the first tasks
+	 * @return The task to configure and start
+	 */
+	public PrewarmTask prewarm()
+	{
+		return new PrewarmTask(context);
+	}
+
 }
@@ -0,0 +1,189 @@
+package net.atomcode.bearing;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Where the listener callbacks of a task are run.
+ *
+ * Callbacks from one task are always made one at a time, in order. The default for new tasks
+ * is {@link #main()}, change it with {@link #setDefault(Dispatch)} or per task with
+ * {@code dispatchOn}. Providers receive fixes on a background thread whatever the dispatch,
+ * so only the listener itself runs where it is dispatched.
+ */
+public abstract class Dispatch implements Executor
+{
+	private static final Dispatch MAIN = new HandlerDispatch(Looper.getMainLooper());
+
+	private static final Dispatch IMMEDIATE = new Dispatch()
+	{
+		@Override public void execute(Runnable callback)
+		{
+			callback.run();
+		}
+	};
+
+	private static volatile Dispatch background;
+	private static volatile Dispatch defaultDispatch = MAIN;
+
+	/**
+	 * Run callbacks on the main thread. A callback made from the main thread runs immediately.
+	 */
+	public static Dispatch main()
+	{
+		return MAIN;
+	}
+
+	/**
+	 * Run callbacks on a background thread shared by all tasks dispatched to it,
+	 * for listeners doing work that would otherwise jank the UI
+	 */
+	public static Dispatch background()
+	{
+		if (background == null)
+		{
+			synchronized (Dispatch.class)
+			{
+				if (background == null)
+				{
+					HandlerThread thread = new HandlerThread("Bearing callbacks", Process.THREAD_PRIORITY_BACKGROUND);
+					thread.start();
+					background = new HandlerDispatch(thread.getLooper());
+				}
+			}
+		}
+		return background;
+	}
+
+	/**
+	 * Run callbacks on whichever thread the task is on when it makes them, usually the provider
+	 * thread. For listeners that only hand off the result, must not block.
+	 */
+	public static Dispatch immediate()
+	{
+		return IMMEDIATE;
+	}
+
+	/**
+	 * Run callbacks on the given executor. Callbacks are still made one at a time in the order
+	 * they were dispatched, whatever the executor, so a thread pool can be passed safely.
+	 */
+	public static Dispatch executor(Executor executor)
+	{
+		if (executor == null)
+		{
+			throw new NullPointerException("Executor cannot be null");
+		}
+		return new SerialDispatch(executor);
+	}
+
+	/**
+	 * Set the dispatch of tasks created from now on, {@link #main()} by default
+	 */
+	public static void setDefault(Dispatch dispatch)
+	{
+		if (dispatch == null)
+		{
+			throw new NullPointerException("Dispatch cannot be null");
+		}
+		defaultDispatch = dispatch;
+	}
+
+	public static Dispatch getDefault()
+	{
+		return defaultDispatch;
+	}
+
+	/**
+	 * Runs callbacks on the thread of a looper
+	 */
+	private static class HandlerDispatch extends Dispatch
+	{
+		private final Looper looper;
+		private final Handler handler;
+
+		HandlerDispatch(Looper looper)
+		{
+			this.looper = looper;
+			this.handler = new Handler(looper);
+		}
+
+		@Override public void execute(Runnable callback)
+		{
+			if (Looper.myLooper() == looper)
+			{
+				callback.run();
+			}
+			else
+			{
+				handler.post(callback);
+			}
+		}
+	}
+
+	/**
+	 * Runs callbacks one at a time on an executor, each drain running every queued callback
+	 */
+	private static class SerialDispatch extends Dispatch
+	{
+		private final Executor executor;
+
+		// Guarded by queue
+		private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+		private boolean draining;
+
+		private final Runnable drainer = new Runnable()
+		{
+			@Override public void run()
+			{
+				while (true)
+				{
+					Runnable next;
+					synchronized (queue)
+					{
+						next = queue.pollFirst();
+						if (next == null)
+						{
+							draining = false;
+							return;
+						}
+					}
+					try
+					{
+						next.run();
+					}
+					catch (RuntimeException ex)
+					{
+						// Carry on with the rest in a fresh drain, still marked as draining
+						executor.execute(this);
+						throw ex;
+					}
+				}
+			}
+		};
+
+		SerialDispatch(Executor executor)
+		{
+			this.executor = executor;
+		}
+
+		@Override public void execute(Runnable callback)
+		{
+			synchronized (queue)
+			{
+				queue.addLast(callback);
+				if (draining)
+				{
+					return;
+				}
+				draining = true;
+			}
+			executor.execute(drainer);
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package net.atomcode.bearing;
+
+import android.content.Context;
+import android.location.Geocoder;
+
+import net.atomcode.bearing.geocoding.GeocodingTask;
+import net.atomcode.bearing.location.LocationTask;
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+import java.io.IOException;
+
+/**
+ * Does the setup the first location and geocoding tasks would otherwise wait on, in the
+ * background, i.e. while a splash screen is showing.
+ *
+ * Connects the location provider and loads the cached fixes, starts the native geocoder and
+ * opens a connection to the geocoding web API. The listener is told once everything is ready,
+ * or when the timeout set with {@link #fallback(int, long)} passes first.
+ */
+public class PrewarmTask implements BearingTask
+{
+	private static final long DEFAULT_KEEP_ALIVE = 30 * 1000;
+
+	public interface Listener
+	{
+		/**
+		 * Everything requested has been prepared. Failures to prepare are not reported, the
+		 * first task will try again.
+		 */
+		public void onReady();
+
+		/**
+		 * The timeout passed before everything was ready
+		 */
+		public void onTimeout();
+	}
+
+	private final Context context;
+
+	protected Listener listener;
+	protected Dispatch dispatch = Dispatch.getDefault();
+
+	protected boolean location = true;
+	protected boolean geocoder = true;
+	protected boolean network = true;
+	protected long keepAlive = DEFAULT_KEEP_ALIVE;
+	protected long timeout = 0; // 0 means no timeout
+
+	// Guarded by this
+	private int pendingSteps;
+	private boolean running;
+	private boolean ready;
+
+	private final Runnable stepDone = new Runnable()
+	{
+		@Override public void run()
+		{
+			onStepDone();
+		}
+	};
+
+	private final Runnable timeoutCheck = new Runnable()
+	{
+		@Override public void run()
+		{
+			onTimeoutReached();
+		}
+	};
+
+	public PrewarmTask(Context context)
+	{
+		this.context = context;
+	}
+
+	/**
+	 * Listen for readiness
+	 */
+	@SuppressWarnings("unused")
+	public PrewarmTask listen(Listener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Call the listener through the given dispatch, {@link Dispatch#getDefault()} by default
+	 */
+	@SuppressWarnings("unused")
+	public PrewarmTask dispatchOn(Dispatch dispatch)
+	{
+		this.dispatch = dispatch;
+		return this;
+	}
+
+	/**
+	 * Whether to connect the location provider and load the cached fixes, default {@code true}
+	 * @param keepAlive Time in milliseconds to keep the provider connected for the first task
+	 */
+	@SuppressWarnings("unused")
+	public PrewarmTask location(boolean location, long keepAlive)
+	{
+		this.location = location;
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	/**
+	 * Whether to start the native geocoding service, default {@code true}
+	 */
+	@SuppressWarnings("unused")
+	public PrewarmTask geocoder(boolean geocoder)
+	{
+		this.geocoder = geocoder;
+		return this;
+	}
+
+	/**
+	 * Whether to open a connection to the geocoding web API, default {@code true}
+	 */
+	@SuppressWarnings("unused")
+	public PrewarmTask network(boolean network)
+	{
+		this.network = network;
+		return this;
+	}
+
+	/**
+	 * Stop waiting after the given time, calling {@link Listener#onTimeout()}.
+	 * The setup carries on in the background.
+	 */
+	@Override
+	public PrewarmTask fallback(int action, long timeout)
+	{
+		this.timeout = timeout;
+		return this;
+	}
+
+	@Override
+	public PrewarmTask start()
+	{
+		synchronized (this)
+		{
+			running = true;
+			ready = false;
+			pendingSteps = 1 + (location ? 1 : 0) + (geocoder || network ? 1 : 0);
+		}
+
+		if (timeout > 0)
+		{
+			ProviderThread.getHandler().postDelayed(timeoutCheck, timeout);
+		}
+
+		if (location)
+		{
+			LocationTask.prewarm(context, keepAlive, stepDone);
+		}
+
+		if (geocoder || network)
+		{
+			new Thread(new Runnable()
+			{
+				@Override public void run()
+				{
+					prewarmGeocoding();
+					onStepDone();
+				}
+			}, "Bearing prewarm").start();
+		}
+
+		// Count of the steps only reaches zero once every step has started
+		onStepDone();
+		return this;
+	}
+
+	@Override
+	public synchronized void cancel()
+	{
+		running = false;
+		ProviderThread.getHandler().removeCallbacks(timeoutCheck);
+	}
+
+	@Override
+	public synchronized boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Whether everything requested has been prepared
+	 */
+	@SuppressWarnings("unused")
+	public synchronized boolean isReady()
+	{
+		return ready;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Prepare geocoding, on the prewarm thread
+	 */
+	private void prewarmGeocoding()
+	{
+		if (geocoder && Geocoder.isPresent())
+		{
+			try
+			{
+				// Starts the platform geocoding service, the result is discarded
+				new Geocoder(context).getFromLocation(0, 0, 1);
+			}
+			catch (IOException ex)
+			{
+				// The first lookup starts it instead
+			}
+		}
+
+		if (network)
+		{
+			try
+			{
+				GeocodingTask.engine().warmUp();
+			}
+			catch (IOException ex)
+			{
+				// The first lookup connects instead
+			}
+		}
+	}
+
+	private void onStepDone()
+	{
+		synchronized (this)
+		{
+			if (--pendingSteps > 0)
+			{
+				return;
+			}
+			ready = true;
+			if (!running)
+			{
+				return;
+			}
+			running = false;
+		}
+
+		ProviderThread.getHandler().removeCallbacks(timeoutCheck);
+		final Listener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onReady();
+				}
+			});
+		}
+	}
+
+	private void onTimeoutReached()
+	{
+		synchronized (this)
+		{
+			if (!running)
+			{
+				return;
+			}
+			running = false;
+		}
+
+		final Listener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onTimeout();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package net.atomcode.bearing.geocoding;
+
+import android.location.Address;
+import android.os.Bundle;
+
+import net.atomcode.bearing.core.geocoding.AddressComponent;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts between results of the web geocoding engine and android addresses, i.e. to build an
+ * Address from a result delivered to a {@link GeocodingTask.ResultListener}.
+ *
+ * Both directions map the same fields: premise to premises, street_number to sub thoroughfare,
+ * route to thoroughfare, then sublocality, locality, administrative_area_level_2 and _1,
+ * country, with its short name as the country code, and postal_code. The formatted address is
+ * split into the address lines, and the lines joined form the formatted address.
+ */
+public final class AddressConverter
+{
+	private AddressConverter()
+	{
+	}
+
+	/**
+	 * Convert a result to an address
+	 */
+	public static Address toAddress(GeocodedAddress result, Locale locale)
+	{
+		Address address = new Address(locale);
+		address.setLatitude(result.getLatitude());
+		address.setLongitude(result.getLongitude());
+
+		List<String> addressLines = result.getAddressLines();
+		for (int line = 0; line < addressLines.size(); line++)
+		{
+			address.setAddressLine(line, addressLines.get(line));
+		}
+
+		setFields(address, result);
+		return address;
+	}
+
+	/**
+	 * Convert an address to a result, i.e. a native geocoder result
+	 */
+	public static GeocodedAddress fromAddress(Address address)
+	{
+		StringBuilder formatted = new StringBuilder();
+		for (int line = 0; line <= address.getMaxAddressLineIndex(); line++)
+		{
+			String addressLine = address.getAddressLine(line);
+			if (addressLine != null)
+			{
+				if (formatted.length() > 0)
+				{
+					formatted.append(", ");
+				}
+				formatted.append(addressLine);
+			}
+		}
+
+		List<AddressComponent> components = new ArrayList<AddressComponent>();
+		addComponent(components, address.getPremises(), null, "premise");
+		addComponent(components, address.getSubThoroughfare(), null, "street_number");
+		addComponent(components, address.getThoroughfare(), null, "route");
+		addComponent(components, address.getSubLocality(), null, "sublocality");
+		addComponent(components, address.getLocality(), null, "locality");
+		addComponent(components, address.getSubAdminArea(), null, "administrative_area_level_2");
+		addComponent(components, address.getAdminArea(), null, "administrative_area_level_1");
+		addComponent(components, address.getCountryName(), address.getCountryCode(), "country");
+		addComponent(components, address.getPostalCode(), null, "postal_code");
+
+		return new GeocodedAddress(address.getLatitude(), address.getLongitude(),
+				formatted.length() > 0 ? formatted.toString() : null, components);
+	}
+
+	/**
+	 * Convert a forward geocoding result for a {@link GeocodingTask.Listener}. The formatted
+	 * address is the first address line, followed by the short name of each component.
+	 */
+	static Address toQueryAddress(GeocodedAddress result, Locale locale)
+	{
+		Address address = new Address(locale);
+		address.setLatitude(result.getLatitude());
+		address.setLongitude(result.getLongitude());
+
+		// Temporary fix. TODO: Proper parsing.
+		address.setAddressLine(0, result.getFormattedAddress());
+		for (int componentIndex = 0; componentIndex < result.getComponentCount(); componentIndex++)
+		{
+			address.setAddressLine(componentIndex + 1, result.getComponent(componentIndex).getShortName());
+		}
+
+		setFields(address, result);
+		return address;
+	}
+
+	/**
+	 * Convert a reverse geocoding result for a {@link GeocodingTask.Listener}. Each component
+	 * is an address line.
+	 */
+	static Address toReverseAddress(GeocodedAddress result, Locale locale)
+	{
+		Address address = new Address(locale);
+		address.setLatitude(result.getLatitude());
+		address.setLongitude(result.getLongitude());
+
+		for (int componentIndex = 0; componentIndex < result.getComponentCount(); componentIndex++)
+		{
+			address.setAddressLine(componentIndex, result.getComponent(componentIndex).getLongName());
+		}
+
+		setFields(address, result);
+		return address;
+	}
+
+	/**
+	 * Convert addresses into compact results, i.e. native geocoder results for a {@link GeocodingTask.ResultListener}.
+	 * The address lines form the formatted address and the known fields the components.
+	 */
+	static List<GeocodedAddress> fromAddresses(List<Address> addresses)
+	{
+		if (addresses instanceof CompactAddressList)
+		{
+			return ((CompactAddressList)addresses).getResults();
+		}
+
+		List<GeocodedAddress> results = new ArrayList<GeocodedAddress>(addresses.size());
+		for (Address address : addresses)
+		{
+			results.add(fromAddress(address));
+		}
+		return results;
+	}
+
+	/**
+	 * Copy every field of the given address
+	 */
+	static Address copy(Address address)
+	{
+		Address copy = new Address(address.getLocale());
+		for (int line = 0; line <= address.getMaxAddressLineIndex(); line++)
+		{
+			copy.setAddressLine(line, address.getAddressLine(line));
+		}
+		if (address.hasLatitude())
+		{
+			copy.setLatitude(address.getLatitude());
+		}
+		if (address.hasLongitude())
+		{
+			copy.setLongitude(address.getLongitude());
+		}
+		copy.setFeatureName(address.getFeatureName());
+		copy.setPremises(address.getPremises());
+		copy.setSubThoroughfare(address.getSubThoroughfare());
+		copy.setThoroughfare(address.getThoroughfare());
+		copy.setSubLocality(address.getSubLocality());
+		copy.setLocality(address.getLocality());
+		copy.setSubAdminArea(address.getSubAdminArea());
+		copy.setAdminArea(address.getAdminArea());
+		copy.setPostalCode(address.getPostalCode());
+		copy.setCountryCode(address.getCountryCode());
+		copy.setCountryName(address.getCountryName());
+		copy.setPhone(address.getPhone());
+		copy.setUrl(address.getUrl());
+		if (address.getExtras() != null)
+		{
+			copy.setExtras(new Bundle(address.getExtras()));
+		}
+		return copy;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Fill the address fields from the components of known types
+	 */
+	private static void setFields(Address address, GeocodedAddress result)
+	{
+		for (int componentIndex = 0; componentIndex < result.getComponentCount(); componentIndex++)
+		{
+			AddressComponent component = result.getComponent(componentIndex);
+			String name = component.getLongName();
+
+			if (component.hasType("premise"))
+			{
+				address.setPremises(name);
+			}
+			if (component.hasType("street_number"))
+			{
+				address.setSubThoroughfare(name);
+			}
+			if (component.hasType("route"))
+			{
+				address.setThoroughfare(name);
+			}
+			if (component.hasType("sublocality"))
+			{
+				address.setSubLocality(name);
+			}
+			if (component.hasType("locality"))
+			{
+				address.setLocality(name);
+			}
+			if (component.hasType("administrative_area_level_2"))
+			{
+				address.setSubAdminArea(name);
+			}
+			if (component.hasType("administrative_area_level_1"))
+			{
+				address.setAdminArea(name);
+			}
+			if (component.hasType("country"))
+			{
+				address.setCountryName(name);
+				address.setCountryCode(component.getShortName());
+			}
+			if (component.hasType("postal_code"))
+			{
+				address.setPostalCode(name);
+			}
+		}
+	}
+
+	private static void addComponent(List<AddressComponent> components, String longName, String shortName, String type)
+	{
+		if (longName != null)
+		{
+			components.add(new AddressComponent(longName, shortName != null ? shortName : longName, new String[]{ type }));
+		}
+	}
+}
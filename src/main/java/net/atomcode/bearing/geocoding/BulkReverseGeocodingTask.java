@@ -0,0 +1,179 @@
+package net.atomcode.bearing.geocoding;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.AsyncTask;
+import android.os.Build;
+
+import net.atomcode.bearing.Dispatch;
+import net.atomcode.bearing.core.geocoding.Cancellation;
+import net.atomcode.bearing.core.geocoding.bulk.BulkReverseGeocoder;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reverse geocodes a list of locations, i.e. a recorded track, with one web lookup per
+ * distinct cell of the set precision rather than one per location.
+ * See {@link BulkReverseGeocoder}.
+ *
+ * Lookups run at {@link GeocodingTask.Priority#BACKGROUND} priority alongside the other
+ * geocoding tasks, so a long track never holds up a lookup the user is waiting on.
+ */
+public class BulkReverseGeocodingTask extends AsyncTask<Void, Void, BulkReverseGeocoder.Result>
+{
+	public interface Listener
+	{
+		/**
+		 * @param result The results by index of the given locations
+		 */
+		public void onSuccess(BulkReverseGeocoder.Result result);
+		public void onFailure();
+	}
+
+	protected Listener listener;
+	protected Dispatch dispatch = Dispatch.getDefault();
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+
+	private final Cancellation cancellation = new Cancellation();
+	private final BulkReverseGeocoder geocoder = new BulkReverseGeocoder(GeocodingTask.engine())
+			.cancellation(cancellation)
+			.executor(GeocodingScheduler.getInstance().background());
+
+	public BulkReverseGeocodingTask(Context context, List<Location> locations)
+	{
+		this(context, locations, context.getResources().getConfiguration().locale);
+	}
+
+	public BulkReverseGeocodingTask(Context context, List<Location> locations, Locale locale)
+	{
+		latitudes = new double[locations.size()];
+		longitudes = new double[locations.size()];
+		for (int i = 0; i < latitudes.length; i++)
+		{
+			Location location = locations.get(i);
+			latitudes[i] = location.getLatitude();
+			longitudes[i] = location.getLongitude();
+		}
+
+		geocoder.locale(locale);
+	}
+
+	/**
+	 * Attach the given listener to the task
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask listen(Listener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Call the listener through the given dispatch, {@link Dispatch#getDefault()} by default
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask dispatchOn(Dispatch dispatch)
+	{
+		this.dispatch = dispatch;
+		return this;
+	}
+
+	/**
+	 * Set the size of the cells locations are grouped into, default 50 metres.
+	 * Coarser cells need fewer lookups.
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask precision(double metres)
+	{
+		geocoder.precision(metres);
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of lookups queued at once, default 4. Fewer may be in flight,
+	 * as background lookups are limited to a share of the geocoding workers.
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask concurrency(int concurrency)
+	{
+		geocoder.concurrency(concurrency);
+		return this;
+	}
+
+	/**
+	 * Set the desired number of results for each location, default 1
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask results(int resultCount)
+	{
+		geocoder.results(resultCount);
+		return this;
+	}
+
+	/**
+	 * Begin the task execution. Returns the task for future cancellation if required
+	 */
+	@SuppressWarnings("unused")
+	public BulkReverseGeocodingTask start()
+	{
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+		{
+			executeOnExecutor(THREAD_POOL_EXECUTOR);
+		}
+		else
+		{
+			execute();
+		}
+		return this;
+	}
+
+	/**
+	 * Cancel the task, aborting lookups in flight
+	 */
+	@SuppressWarnings("unused")
+	public void cancel()
+	{
+		// Abort the lookups before interrupting, so they see the task cancelled
+		cancellation.cancel();
+		cancel(true);
+	}
+
+	@Override protected BulkReverseGeocoder.Result doInBackground(Void... params)
+	{
+		try
+		{
+			return geocoder.run(latitudes, longitudes);
+		}
+		catch (InterruptedException ex)
+		{
+			return null;
+		}
+	}
+
+	@Override protected void onPostExecute(final BulkReverseGeocoder.Result result)
+	{
+		super.onPostExecute(result);
+
+		final Listener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					if (result != null)
+					{
+						listener.onSuccess(result);
+					}
+					else
+					{
+						listener.onFailure();
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package net.atomcode.bearing.geocoding;
+
+import android.location.Address;
+
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+ * List of addresses backed by compact results, each address is only built when it is
+ * first read. Listeners that only read the first result pay for one address.
+ */
+class CompactAddressList extends AbstractList<Address> implements RandomAccess
+{
+	private final List<GeocodedAddress> results;
+	private final Locale locale;
+	private final boolean reverse;
+
+	private final Address[] addresses;
+
+	/**
+	 * @param reverse Whether to build addresses as reverse geocoding results
+	 */
+	CompactAddressList(List<GeocodedAddress> results, Locale locale, boolean reverse)
+	{
+		this.results = results;
+		this.locale = locale;
+		this.reverse = reverse;
+		this.addresses = new Address[results.size()];
+	}
+
+	@Override public Address get(int index)
+	{
+		Address address = addresses[index];
+		if (address == null)
+		{
+			GeocodedAddress result = results.get(index);
+			address = reverse ? AddressConverter.toReverseAddress(result, locale) : AddressConverter.toQueryAddress(result, locale);
+			addresses[index] = address;
+		}
+		return address;
+	}
+
+	@Override public int size()
+	{
+		return addresses.length;
+	}
+
+	/**
+	 * The compact results backing the list
+	 */
+	List<GeocodedAddress> getResults()
+	{
+		return results;
+	}
+
+	/**
+	 * Whether the addresses are built as reverse geocoding results
+	 */
+	boolean isReverse()
+	{
+		return reverse;
+	}
+}
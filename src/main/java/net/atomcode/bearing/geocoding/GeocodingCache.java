@@ -0,0 +1,235 @@
+package net.atomcode.bearing.geocoding;
+
+import android.location.Address;
+import android.location.Location;
+
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recently resolved geocoding results, used as a fallback when a lookup passes its deadline.
+ * Queries are matched exactly, coordinates by the nearest resolved location within a radius.
+ * Web lookups are held in their compact form. Native geocoder results are held as copies of
+ * the addresses, so they come back exactly as first delivered, and listeners changing an
+ * address do not change the cache. Nothing is kept until a lookup reading the cache or a
+ * prefetcher has been used.
+ */
+class GeocodingCache
+{
+	private static final int MAX_QUERIES = 64;
+	private static final int MAX_LOCATIONS = 128;
+
+	private static final GeocodingCache instance = new GeocodingCache();
+
+	static GeocodingCache getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * The results of a lookup, compact for a web lookup and copied addresses otherwise
+	 */
+	private static class Results
+	{
+		final List<GeocodedAddress> compact; // null for native results
+		final boolean reverse;
+		final List<Address> addresses; // null for web results
+
+		Results(List<Address> addresses)
+		{
+			if (addresses instanceof CompactAddressList)
+			{
+				CompactAddressList compactList = (CompactAddressList)addresses;
+				this.compact = new ArrayList<GeocodedAddress>(compactList.getResults());
+				this.reverse = compactList.isReverse();
+				this.addresses = null;
+			}
+			else
+			{
+				this.compact = null;
+				this.reverse = false;
+				this.addresses = copy(addresses);
+			}
+		}
+
+		List<Address> toAddresses(Locale locale)
+		{
+			return compact != null ? new CompactAddressList(compact, locale, reverse) : copy(addresses);
+		}
+	}
+
+	/**
+	 * A resolved reverse lookup
+	 */
+	private static class LocationEntry
+	{
+		final double latitude;
+		final double longitude;
+		final Locale locale;
+		final Results results;
+
+		LocationEntry(double latitude, double longitude, Locale locale, Results results)
+		{
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.locale = locale;
+			this.results = results;
+		}
+	}
+
+	private volatile boolean inUse;
+
+	// Guarded by this
+	private final LinkedHashMap<String, Results> queries = new LinkedHashMap<String, Results>(16, 0.75f, true)
+	{
+		@Override protected boolean removeEldestEntry(Map.Entry<String, Results> eldest)
+		{
+			return size() > MAX_QUERIES;
+		}
+	};
+
+	// Guarded by this, most recent first
+	private final LinkedList<LocationEntry> locations = new LinkedList<LocationEntry>();
+
+	/**
+	 * Start keeping results, called when something reads the cache
+	 */
+	void use()
+	{
+		inUse = true;
+	}
+
+	boolean isInUse()
+	{
+		return inUse;
+	}
+
+	void putQuery(String query, Locale locale, List<Address> addresses)
+	{
+		Results results = new Results(addresses);
+		synchronized (this)
+		{
+			queries.put(queryKey(query, locale), results);
+		}
+	}
+
+	/**
+	 * Get the results of an earlier lookup of the same query, {@code null} if there are none
+	 */
+	List<Address> getQuery(String query, Locale locale)
+	{
+		Results results;
+		synchronized (this)
+		{
+			results = queries.get(queryKey(query, locale));
+		}
+		return results != null ? results.toAddresses(locale) : null;
+	}
+
+	void putLocation(double latitude, double longitude, Locale locale, List<Address> addresses)
+	{
+		LocationEntry added = new LocationEntry(latitude, longitude, locale, new Results(addresses));
+		synchronized (this)
+		{
+			putLocation(added);
+		}
+	}
+
+	/**
+	 * Get the results of the nearest earlier reverse lookup within the given radius,
+	 * {@code null} if there are none
+	 * @param radius The maximum distance in metres
+	 */
+	List<Address> getNearest(double latitude, double longitude, Locale locale, double radius)
+	{
+		LocationEntry nearest;
+		synchronized (this)
+		{
+			nearest = nearest(latitude, longitude, locale, radius);
+		}
+		return nearest != null ? nearest.results.toAddresses(locale) : null;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Add a reverse lookup, replacing any earlier one of the same location. Call holding the lock.
+	 */
+	private void putLocation(LocationEntry added)
+	{
+		Iterator<LocationEntry> entries = locations.iterator();
+		while (entries.hasNext())
+		{
+			LocationEntry entry = entries.next();
+			if (entry.latitude == added.latitude && entry.longitude == added.longitude && sameLocale(entry.locale, added.locale))
+			{
+				entries.remove();
+				break;
+			}
+		}
+
+		locations.addFirst(added);
+		if (locations.size() > MAX_LOCATIONS)
+		{
+			locations.removeLast();
+		}
+	}
+
+	/**
+	 * Find the nearest reverse lookup within the given radius. Call holding the lock.
+	 */
+	private LocationEntry nearest(double latitude, double longitude, Locale locale, double radius)
+	{
+		float[] distance = new float[1];
+		LocationEntry nearest = null;
+		double nearestDistance = radius;
+
+		for (LocationEntry entry : locations)
+		{
+			if (!sameLocale(entry.locale, locale))
+			{
+				continue;
+			}
+
+			Location.distanceBetween(latitude, longitude, entry.latitude, entry.longitude, distance);
+			if (distance[0] <= nearestDistance)
+			{
+				nearest = entry;
+				nearestDistance = distance[0];
+			}
+		}
+
+		return nearest;
+	}
+
+	private static List<Address> copy(List<Address> addresses)
+	{
+		List<Address> copies = new ArrayList<Address>(addresses.size());
+		for (Address address : addresses)
+		{
+			copies.add(AddressConverter.copy(address));
+		}
+		return copies;
+	}
+
+	private static boolean sameLocale(Locale a, Locale b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String queryKey(String query, Locale locale)
+	{
+		return locale + "|" + query.trim().toLowerCase(Locale.US);
+	}
+}
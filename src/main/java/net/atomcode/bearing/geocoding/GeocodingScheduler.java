@@ -0,0 +1,216 @@
+package net.atomcode.bearing.geocoding;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs geocoding tasks in priority order. Queued interactive tasks always run before normal
+ * tasks, and normal before background. One worker is kept free of anything but interactive
+ * work so a lookup the user is waiting on never queues behind a full pool, and background
+ * tasks are limited to fewer workers still.
+ */
+class GeocodingScheduler
+{
+	private static final int MAX_CONCURRENCY = 4;
+	private static final int MAX_NON_INTERACTIVE_CONCURRENCY = MAX_CONCURRENCY - 1;
+	private static final int MAX_BACKGROUND_CONCURRENCY = 1;
+
+	private static final GeocodingScheduler instance = new GeocodingScheduler();
+
+	static GeocodingScheduler getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * A queued task
+	 */
+	private static class Job
+	{
+		final GeocodingTask<?> task; // null for a lookup not made by a task
+		final GeocodingTask.Priority priority;
+		final Runnable runnable;
+		final long staleAt; // System.nanoTime() after which the job is dropped, 0 for never
+
+		Job(GeocodingTask<?> task, GeocodingTask.Priority priority, Runnable runnable, long staleAt)
+		{
+			this.task = task;
+			this.priority = priority;
+			this.runnable = runnable;
+			this.staleAt = staleAt;
+		}
+	}
+
+	private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override public Thread newThread(Runnable runnable)
+		{
+			return new Thread(runnable, "Bearing geocoding #" + count.incrementAndGet());
+		}
+	});
+
+	// Guarded by this, indexed by priority ordinal
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Job>[] lanes = new ArrayDeque[GeocodingTask.Priority.values().length];
+	private int running;
+	private int runningBackground;
+
+	GeocodingScheduler()
+	{
+		for (int i = 0; i < lanes.length; i++)
+		{
+			lanes[i] = new ArrayDeque<Job>();
+		}
+	}
+
+	/**
+	 * Get an executor that queues the given task in its priority lane.
+	 * Used with {@link android.os.AsyncTask#executeOnExecutor}.
+	 *
+	 * @param staleAfter Time in milliseconds after which the task is dropped if it
+	 *                   has not started, 0 to never drop it
+	 */
+	Executor executorFor(final GeocodingTask<?> task, final GeocodingTask.Priority priority, long staleAfter)
+	{
+		final long staleAt = staleAfter > 0 ? System.nanoTime() + staleAfter * 1000000 : 0;
+		return new Executor()
+		{
+			@Override public void execute(Runnable runnable)
+			{
+				enqueue(new Job(task, priority, runnable, staleAt));
+			}
+		};
+	}
+
+	/**
+	 * Get an executor that queues lookups in the background lane, i.e. the lookups of a
+	 * bulk task, so they run behind interactive and normal tasks on the shared workers
+	 */
+	Executor background()
+	{
+		return new Executor()
+		{
+			@Override public void execute(Runnable runnable)
+			{
+				enqueue(new Job(null, GeocodingTask.Priority.BACKGROUND, runnable, 0));
+			}
+		};
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private void enqueue(Job job)
+	{
+		synchronized (this)
+		{
+			lanes[job.priority.ordinal()].addLast(job);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Start as many queued jobs as the concurrency limits allow
+	 */
+	private void dispatch()
+	{
+		while (true)
+		{
+			Job job;
+			boolean stale;
+			synchronized (this)
+			{
+				job = next();
+				if (job == null)
+				{
+					return;
+				}
+
+				stale = job.staleAt != 0 && System.nanoTime() - job.staleAt > 0;
+				if (job.task != null && job.task.isCancelled())
+				{
+					// Cancelled while queued, onCancelled is already delivered
+					continue;
+				}
+				if (!stale)
+				{
+					running++;
+					if (job.priority == GeocodingTask.Priority.BACKGROUND)
+					{
+						runningBackground++;
+					}
+				}
+			}
+
+			if (stale)
+			{
+				// Cancelling before the task runs delivers onCancelled without doing the lookup
+				job.task.cancel(false);
+				continue;
+			}
+
+			final Job started = job;
+			workers.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					try
+					{
+						started.runnable.run();
+					}
+					finally
+					{
+						finished(started);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Take the highest priority job allowed to run now. Must hold the lock.
+	 */
+	private Job next()
+	{
+		if (running >= MAX_CONCURRENCY)
+		{
+			return null;
+		}
+
+		Job job = lanes[GeocodingTask.Priority.INTERACTIVE.ordinal()].pollFirst();
+		if (job != null || running >= MAX_NON_INTERACTIVE_CONCURRENCY)
+		{
+			return job;
+		}
+
+		job = lanes[GeocodingTask.Priority.NORMAL.ordinal()].pollFirst();
+		if (job != null || runningBackground >= MAX_BACKGROUND_CONCURRENCY)
+		{
+			return job;
+		}
+
+		return lanes[GeocodingTask.Priority.BACKGROUND.ordinal()].pollFirst();
+	}
+
+	private void finished(Job job)
+	{
+		synchronized (this)
+		{
+			running--;
+			if (job.priority == GeocodingTask.Priority.BACKGROUND)
+			{
+				runningBackground--;
+			}
+		}
+		dispatch();
+	}
+}
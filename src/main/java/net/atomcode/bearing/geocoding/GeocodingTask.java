@@ -4,18 +4,79 @@ import android.content.Context;
 import android.location.Address;
 import android.location.Geocoder;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import net.atomcode.bearing.Dispatch;
+import net.atomcode.bearing.core.geocoding.Cancellation;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingEngine;
+import net.atomcode.bearing.core.geocoding.RateLimiter;
+import net.atomcode.bearing.metrics.BearingMetrics;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
 
 import java.util.List;
 import java.util.Locale;
 
 /**
- * Base Geocoding task, supplies listener and other definitions
+ * Base Geocoding task, supplies listener and other definitions.
+ * Listeners are called through the dispatch of the task, see {@link #dispatchOn(Dispatch)}.
  */
 public abstract class GeocodingTask<T> extends AsyncTask<T, Void, List<Address>>
 {
 	private static final int DEFAULT_RESULT_COUNT = 10;
 
-	protected static final String WEB_API_URL = "https://maps.googleapis.com/maps/api/geocode/json";
+	/**
+	 * Fail the task when the deadline passes
+	 */
+	public static final int FALLBACK_NONE = 0x0;
+
+	/**
+	 * Deliver a previously resolved result for the same lookup when the deadline passes.
+	 * Reverse lookups use the nearest previously resolved location within the fallback radius.
+	 */
+	public static final int FALLBACK_CACHE = 0x1;
+
+	/**
+	 * Deadlines of all tasks are posted to the main thread, no thread per task
+	 */
+	private static final Handler deadlines = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Default web request rate shared by all geocoding tasks, below the per client limit of the API
+	 */
+	private static final double DEFAULT_REQUESTS_PER_SECOND = 5;
+	private static final int DEFAULT_REQUEST_BURST = 5;
+
+	private static final GeocodingEngine engine = new GeocodingEngine()
+			.rateLimiter(new RateLimiter(DEFAULT_REQUESTS_PER_SECOND, DEFAULT_REQUEST_BURST));
+
+	/**
+	 * Get the engine used for web geocoding lookups by all geocoding tasks,
+	 * i.e. to set an API key, or replace the rate limiter to match the quota of the key
+	 */
+	public static GeocodingEngine engine()
+	{
+		return engine;
+	}
+
+	/**
+	 * Scheduling priority of a task. Queued tasks run in priority order.
+	 */
+	public enum Priority
+	{
+		/**
+		 * A lookup the user is waiting on
+		 */
+		INTERACTIVE,
+		NORMAL,
+		/**
+		 * Prefetching and bulk work, run on limited workers
+		 */
+		BACKGROUND
+	}
 
 	public interface Listener
 	{
@@ -23,15 +84,55 @@ public abstract class GeocodingTask<T> extends AsyncTask<T, Void, List<Address>>
 		public void onFailure();
 	}
 
+	/**
+	 * Listener for results in their compact form, avoids building an android Address per result.
+	 * Convert a result with {@link AddressConverter#toAddress} only if needed.
+	 */
+	public interface ResultListener
+	{
+		public void onSuccess(List<GeocodedAddress> results);
+		public void onFailure();
+	}
+
 	protected Context context;
 	protected Locale locale;
 
 	protected Listener listener;
+	protected ResultListener resultListener;
+	protected Dispatch dispatch = Dispatch.getDefault();
 
-	private T[] params;
+	protected T[] params;
 
 	protected int resultCount;
 
+	protected Priority priority = Priority.NORMAL;
+	protected long staleAfter = 0; // 0 means never stale
+
+	protected boolean servedFromCache = false; // Results came from the cache, not a lookup
+
+	protected int fallback = FALLBACK_NONE;
+	protected long fallbackTimeout = 0; // 0 means no deadline
+
+	// Main thread only
+	private boolean timedOut;
+	private final Runnable deadline = new Runnable()
+	{
+		@Override public void run()
+		{
+			onDeadline();
+		}
+	};
+
+	protected final BearingMetrics metrics = BearingMetrics.getInstance();
+	private long startNanos;
+
+	protected final long traceId = Tracing.newTraceId();
+
+	/**
+	 * Aborts the web request of the task when it is cancelled
+	 */
+	protected final Cancellation cancellation = new Cancellation();
+
 	GeocodingTask(Context context, T[] params)
 	{
 		this(context, params, context.getResources().getConfiguration().locale);
@@ -46,6 +147,8 @@ public abstract class GeocodingTask<T> extends AsyncTask<T, Void, List<Address>>
 
 		// Set a default result count
 		this.resultCount = DEFAULT_RESULT_COUNT;
+
+		Tracing.created(traceId, getTaskType());
 	}
 
 	/**
@@ -58,6 +161,27 @@ public abstract class GeocodingTask<T> extends AsyncTask<T, Void, List<Address>>
 		return this;
 	}
 
+	/**
+	 * Attach the given listener for compact results to the Geocoding task
+	 */
+	@SuppressWarnings("unused")
+	public GeocodingTask listen(ResultListener resultListener)
+	{
+		this.resultListener = resultListener;
+		return this;
+	}
+
+	/**
+	 * Call the listeners through the given dispatch, {@link Dispatch#getDefault()} by default.
+	 * Results are converted for a {@link ResultListener} on the dispatch thread.
+	 */
+	@SuppressWarnings("unused")
+	public GeocodingTask dispatchOn(Dispatch dispatch)
+	{
+		this.dispatch = dispatch;
+		return this;
+	}
+
 	/**
 	 * Set the desired number of results from this query
 	 */
@@ -68,33 +192,226 @@ public abstract class GeocodingTask<T> extends AsyncTask<T, Void, List<Address>>
 		return this;
 	}
 
+	/**
+	 * Set the scheduling priority of this task, {@link Priority#NORMAL} by default
+	 */
+	@SuppressWarnings("unused")
+	public GeocodingTask priority(Priority priority)
+	{
+		this.priority = priority;
+		return this;
+	}
+
+	/**
+	 * Drop the task if it is still queued after the given time, the task is cancelled
+	 * rather than run. Useful for background lookups that are only worth doing soon.
+	 * @param staleAfter Time in milliseconds, 0 to never drop the task
+	 */
+	@SuppressWarnings("unused")
+	public GeocodingTask staleAfter(long staleAfter)
+	{
+		this.staleAfter = staleAfter;
+		return this;
+	}
+
+	/**
+	 * Finish the task if it has not completed in the given time, aborting the lookup
+	 * @param action The action to perform if the task times out, default {@link #FALLBACK_NONE}
+	 * @param timeout The timeout in milliseconds
+	 */
+	@SuppressWarnings("unused")
+	public GeocodingTask fallback(int action, long timeout)
+	{
+		this.fallback = action;
+		this.fallbackTimeout = timeout;
+		return this;
+	}
+
 	/**
 	 * Begin the task execution. Returns the task for future cancellation if required
 	 */
 	@SuppressWarnings("unused, unchecked")
 	public GeocodingTask start()
 	{
-		execute(params);
+		startNanos = System.nanoTime();
+		metrics.taskStarted(getTaskType());
+		if (readsCache())
+		{
+			GeocodingCache.getInstance().use();
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+		{
+			executeOnExecutor(GeocodingScheduler.getInstance().executorFor(this, priority, staleAfter), params);
+		}
+		else
+		{
+			// Older platforms run tasks on a shared pool without priorities
+			execute(params);
+		}
+
+		if (fallbackTimeout > 0)
+		{
+			deadlines.postDelayed(deadline, fallbackTimeout);
+		}
 		return this;
 	}
 
+	/**
+	 * Cancel the task. A queued task is dropped without running, and a web request in flight
+	 * is aborted immediately, releasing its worker. Prefer this over {@link #cancel(boolean)},
+	 * which leaves the request to run until the server answers.
+	 */
+	@SuppressWarnings("unused")
+	public void cancel()
+	{
+		// Abort the request before interrupting, so the lookup sees the task cancelled
+		cancellation.cancel();
+		cancel(true);
+	}
+
+	/**
+	 * Look up the results, keeping them for later lookups once the cache is in use
+	 */
+	@SuppressWarnings("unchecked")
+	@Override protected List<Address> doInBackground(T... params)
+	{
+		List<Address> results = lookup(params);
+		if (results != null && !results.isEmpty() && !servedFromCache && !isCancelled() && GeocodingCache.getInstance().isInUse())
+		{
+			cacheResults(results);
+		}
+		return results;
+	}
+
 	/**
 	 * Simple listener callbacks to check for valid return values
 	 */
 	@Override protected void onPostExecute(List<Address> address)
 	{
 		super.onPostExecute(address);
-		if (address != null)
+		deadlines.removeCallbacks(deadline);
+
+		metrics.taskLatency(getTaskType(), (System.nanoTime() - startNanos) / 1000000);
+		if (address == null)
 		{
-			if (listener != null)
-			{
-				listener.onSuccess(address);
-			}
+			Tracing.stage(traceId, BearingTracer.Stage.FAILED);
+			metrics.taskFailed(getTaskType());
 		}
 		else
 		{
-			listener.onFailure();
+			Tracing.stage(traceId, BearingTracer.Stage.DELIVERED);
 		}
+		metrics.taskFinished(getTaskType());
+
+		deliver(address);
+	}
+
+	@Override protected void onCancelled()
+	{
+		super.onCancelled();
+		deadlines.removeCallbacks(deadline);
+
+		if (!timedOut)
+		{
+			Tracing.stage(traceId, BearingTracer.Stage.CANCELLED);
+		}
+		metrics.taskFinished(getTaskType());
+	}
+
+	/**
+	 * The type of this task when recording metrics
+	 */
+	protected abstract BearingMetrics.TaskType getTaskType();
+
+	/**
+	 * Perform the lookup on the worker thread, {@code null} for failure
+	 */
+	@SuppressWarnings("unchecked")
+	protected abstract List<Address> lookup(T... params);
+
+	/**
+	 * Whether the task reads earlier results from the cache
+	 */
+	protected boolean readsCache()
+	{
+		return fallback == FALLBACK_CACHE;
+	}
+
+	/**
+	 * Store the results of the lookup for {@link #FALLBACK_CACHE}, on the worker thread
+	 */
+	protected abstract void cacheResults(List<Address> results);
+
+	/**
+	 * Get previously resolved results usable in place of this lookup, {@code null} if there are none
+	 */
+	protected abstract List<Address> cachedResults();
+
+	/**
+	 * The deadline passed before the lookup completed, abort it and apply the fallback
+	 */
+	private void onDeadline()
+	{
+		if (getStatus() == Status.FINISHED || isCancelled())
+		{
+			return;
+		}
+
+		timedOut = true;
+		cancel();
+
+		Tracing.stage(traceId, BearingTracer.Stage.TIMED_OUT);
+		metrics.taskTimedOut(getTaskType());
+
+		List<Address> cached = fallback == FALLBACK_CACHE ? cachedResults() : null;
+		if (cached != null)
+		{
+			metrics.geocodingServed(BearingMetrics.GeocodingSource.FALLBACK_CACHE);
+		}
+
+		deliver(cached);
+	}
+
+	/**
+	 * Deliver the results to the listeners through the dispatch, {@code null} for failure
+	 */
+	private void deliver(final List<Address> results)
+	{
+		final Listener listener = this.listener;
+		final ResultListener resultListener = this.resultListener;
+		if (listener == null && resultListener == null)
+		{
+			return;
+		}
+
+		dispatch.execute(new Runnable()
+		{
+			@Override public void run()
+			{
+				if (results != null)
+				{
+					if (listener != null)
+					{
+						listener.onSuccess(results);
+					}
+					if (resultListener != null)
+					{
+						resultListener.onSuccess(AddressConverter.fromAddresses(results));
+					}
+				}
+				else
+				{
+					if (listener != null)
+					{
+						listener.onFailure();
+					}
+					if (resultListener != null)
+					{
+						resultListener.onFailure();
+					}
+				}
+			}
+		});
 	}
 
 	/**
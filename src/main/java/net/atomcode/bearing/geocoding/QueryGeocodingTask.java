@@ -5,20 +5,13 @@ import android.location.Address;
 import android.location.Geocoder;
 import android.util.Log;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingException;
+import net.atomcode.bearing.metrics.BearingMetrics;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -36,7 +29,29 @@ public class QueryGeocodingTask extends GeocodingTask<String>
 //		super(context, queries, locale);
 //	}
 
-	@Override protected List<Address> doInBackground(String... params)
+	@Override protected BearingMetrics.TaskType getTaskType()
+	{
+		return BearingMetrics.TaskType.GEOCODE;
+	}
+
+	@Override protected void cacheResults(List<Address> results)
+	{
+		if (params != null && params.length > 0 && params[0] != null)
+		{
+			GeocodingCache.getInstance().putQuery(params[0], locale, results);
+		}
+	}
+
+	@Override protected List<Address> cachedResults()
+	{
+		if (params == null || params.length == 0 || params[0] == null)
+		{
+			return null;
+		}
+		return GeocodingCache.getInstance().getQuery(params[0], locale);
+	}
+
+	@Override protected List<Address> lookup(String... params)
 	{
 		if (params == null || params.length == 0)
 		{
@@ -70,6 +85,7 @@ public class QueryGeocodingTask extends GeocodingTask<String>
 	 */
 	private List<Address> addressForNativeGeocodedQuery(String query)
 	{
+		Tracing.stage(traceId, BearingTracer.Stage.NATIVE_ATTEMPT);
 		Geocoder geocoder = new Geocoder(context, locale);
 
 		List<Address> results;
@@ -80,6 +96,7 @@ public class QueryGeocodingTask extends GeocodingTask<String>
 
 			if (results != null && !isCancelled())
 			{
+				metrics.geocodingServed(BearingMetrics.GeocodingSource.NATIVE);
 				return results;
 			}
 			else
@@ -101,103 +118,36 @@ public class QueryGeocodingTask extends GeocodingTask<String>
 	 */
 	private List<Address> addressForRemoteGeocodedQuery(String query)
 	{
-		StringBuilder data = new StringBuilder();
-		try
+		if (isCancelled())
 		{
-			// Make query API compliant
-			query = query.replace(" ", "+");
-			String params = "?address=" + query + "&sensor=false";
-
-			HttpClient client = new DefaultHttpClient();
-			HttpGet request = new HttpGet(WEB_API_URL + params);
-			HttpResponse response;
+			return null;
+		}
 
+		try
+		{
+			Tracing.stage(traceId, BearingTracer.Stage.REMOTE_FALLBACK);
+			List<GeocodedAddress> results = engine().geocode(query, locale, resultCount, cancellation);
+			Tracing.stage(traceId, BearingTracer.Stage.PARSED);
 			if (!isCancelled())
 			{
-				try
-				{
-					response = client.execute(request);
-				}
-				catch (ClientProtocolException ex)
-				{
-					ex.printStackTrace();
-					return null;
-				}
-
-				InputStream content = response.getEntity().getContent();
-
-				InputStreamReader inputStreamReader = new InputStreamReader(content);
-				BufferedReader reader = new BufferedReader(inputStreamReader);
-
-				String line;
-				while ((line = reader.readLine()) != null && !isCancelled())
-				{
-					data.append(line);
-				}
+				metrics.geocodingServed(BearingMetrics.GeocodingSource.REMOTE);
+				return new CompactAddressList(results, locale, false);
 			}
 		}
 		catch (IOException ex)
 		{
-			Log.e("Bearing", "Network error connecting to Google Geocoding API" + ex.getMessage());
-			return null;
-		}
-
-		try
-		{
-			/* The JSON response structure
+			if (!isCancelled() && !cancellation.isCancelled())
 			{
-				"results": [
-					{
-						"formatted_address": <formatted_address>,
-						"geometry": {
-							"location": {
-								"lat": <latitude>
-								"lng": <longitude>
-							}
-						}
-					}
-				]
+				Log.e("Bearing", "Network error connecting to Google Geocoding API" + ex.getMessage());
 			}
-			*/
-
+		}
+		catch (GeocodingException ex)
+		{
 			if (!isCancelled())
 			{
-				JSONObject geocodeData = new JSONObject(data.toString());
-				JSONArray addresses = geocodeData.getJSONArray("results");
-
-				int resultsToRead = Math.min(resultCount, addresses.length());
-
-				List<Address> addressList = new ArrayList<Address>(resultsToRead);
-				for (int i = 0; i < resultsToRead; i++)
-				{
-					JSONObject result = addresses.getJSONObject(0);
-
-					JSONObject geometry = result.getJSONObject("geometry");
-					JSONObject locationData = geometry.getJSONObject("location");
-
-					Address address = new Address(locale);
-					address.setLatitude(locationData.getDouble("lat"));
-					address.setLongitude(locationData.getDouble("lng"));
-
-					// Temporary fix. TODO: Proper parsing.
-					address.setAddressLine(0, result.getString("formatted_address"));
-					JSONArray addressComponents = result.getJSONArray("address_components");
-					for (int componentIndex = 0; componentIndex < addressComponents.length(); componentIndex++)
-					{
-						JSONObject component = addressComponents.getJSONObject(componentIndex);
-						address.setAddressLine(componentIndex + 1, component.getString("short_name"));
-					}
-
-					addressList.add(address);
-				}
-
-				return addressList;
+				Log.e("Bearing", ex.getMessage());
 			}
 		}
-		catch (JSONException ex)
-		{
-			Log.e("Bearing", "Google Geocoding API format parsing failed! " + ex.getMessage());
-		}
 
 		return null;
 	}
@@ -0,0 +1,202 @@
+package net.atomcode.bearing.geocoding;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import net.atomcode.bearing.core.geocoding.CellGrid;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reverse geocodes the locations a tracked device is heading towards, so lookups along the
+ * route are served from the cache rather than waiting on the geocoder.
+ *
+ * The world is divided into square cells. Each time a fix enters a new cell the prefetcher
+ * extrapolates the heading and speed of the device and looks up the centres of the next few
+ * cells on the path, as background tasks dropped if they are still queued when the device
+ * should have passed. Lookups made with {@link ReverseGeocodingTask#cache(boolean, double)}
+ * and a radius of around the cell size then hit the prefetched results.
+ *
+ * Feed fixes from a single thread, i.e. the provider thread through
+ * {@link net.atomcode.bearing.location.PeriodicLocationTask#prefetch(ReverseGeocodingPrefetcher)}.
+ */
+public class ReverseGeocodingPrefetcher
+{
+	private static final double DEFAULT_CELL_SIZE = 200; // metres
+	private static final long DEFAULT_LOOKAHEAD = 60 * 1000;
+
+	private static final int MAX_CELLS_AHEAD = 3;
+	private static final int MAX_RECENT_CELLS = 64;
+
+	/**
+	 * Slower than this the device is treated as stationary, metres per second
+	 */
+	private static final float MIN_SPEED = 0.5f;
+
+	private static final double METRES_PER_DEGREE = 111320;
+
+	/**
+	 * Tasks are started on the main thread, as AsyncTask requires
+	 */
+	private static final Handler main = new Handler(Looper.getMainLooper());
+
+	private final Context context;
+	private Locale locale;
+
+	private double cellSize = DEFAULT_CELL_SIZE;
+	private CellGrid grid = new CellGrid(DEFAULT_CELL_SIZE);
+	private long lookahead = DEFAULT_LOOKAHEAD;
+
+	private Location lastLocation;
+	private long currentCell;
+
+	// Cells already looked up, most recent last
+	private final LinkedHashMap<Long, Boolean> recentCells = new LinkedHashMap<Long, Boolean>(16, 0.75f, true)
+	{
+		@Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest)
+		{
+			return size() > MAX_RECENT_CELLS;
+		}
+	};
+
+	public ReverseGeocodingPrefetcher(Context context)
+	{
+		this.context = context;
+		GeocodingCache.getInstance().use();
+	}
+
+	/**
+	 * Set the size of the cells looked up, default 200 metres
+	 * @param cellSize The width of a cell in metres
+	 */
+	@SuppressWarnings("unused")
+	public ReverseGeocodingPrefetcher cellSize(double cellSize)
+	{
+		this.cellSize = cellSize;
+		this.grid = new CellGrid(cellSize);
+		return this;
+	}
+
+	/**
+	 * Set how far ahead to look, default 60 seconds of travel
+	 * @param lookahead Time in milliseconds
+	 */
+	@SuppressWarnings("unused")
+	public ReverseGeocodingPrefetcher lookahead(long lookahead)
+	{
+		this.lookahead = lookahead;
+		return this;
+	}
+
+	/**
+	 * Set the locale of the lookups, the device locale by default.
+	 * Must match the locale of the lookups served from the cache.
+	 */
+	@SuppressWarnings("unused")
+	public ReverseGeocodingPrefetcher locale(Locale locale)
+	{
+		this.locale = locale;
+		return this;
+	}
+
+	/**
+	 * Handle a new fix of the tracked device
+	 */
+	public void onLocation(Location location)
+	{
+		Location previous = lastLocation;
+		lastLocation = location;
+
+		long cell = grid.cellOf(location.getLatitude(), location.getLongitude());
+		if (previous != null && cell == currentCell)
+		{
+			return;
+		}
+		currentCell = cell;
+		recentCells.put(cell, Boolean.TRUE);
+
+		float speed;
+		float bearing;
+		if (location.hasSpeed() && location.hasBearing())
+		{
+			speed = location.getSpeed();
+			bearing = location.getBearing();
+		}
+		else if (previous != null && location.getTime() > previous.getTime())
+		{
+			speed = previous.distanceTo(location) * 1000 / (location.getTime() - previous.getTime());
+			bearing = previous.bearingTo(location);
+		}
+		else
+		{
+			return;
+		}
+
+		if (speed < MIN_SPEED)
+		{
+			return;
+		}
+
+		prefetchAhead(location.getLatitude(), location.getLongitude(), speed, bearing);
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Look up the cells along the extrapolated path
+	 */
+	private void prefetchAhead(double latitude, double longitude, float speed, float bearing)
+	{
+		double distance = Math.min(speed * lookahead / 1000.0, MAX_CELLS_AHEAD * cellSize);
+		double radians = Math.toRadians(bearing);
+		double north = Math.cos(radians);
+		double east = Math.sin(radians);
+
+		int prefetched = 0;
+		// Half cell steps so a diagonal path doesn't skip cells
+		for (double travelled = cellSize / 2; travelled <= distance && prefetched < MAX_CELLS_AHEAD; travelled += cellSize / 2)
+		{
+			double pointLatitude = latitude + travelled * north / METRES_PER_DEGREE;
+			double pointLongitude = longitude + travelled * east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+
+			long cell = grid.cellOf(pointLatitude, pointLongitude);
+			if (recentCells.containsKey(cell))
+			{
+				continue;
+			}
+			recentCells.put(cell, Boolean.TRUE);
+
+			prefetch(cell, (long)(travelled * 1000 / speed));
+			prefetched++;
+		}
+	}
+
+	/**
+	 * Look up the centre of the given cell in the background, starting the task on the main thread
+	 * @param staleAfter Time in milliseconds after which the device should be in the cell
+	 */
+	private void prefetch(long cell, long staleAfter)
+	{
+		Double[] latlng = new Double[]{ grid.centreLatitude(cell), grid.centreLongitude(cell) };
+		final ReverseGeocodingTask task = locale != null
+				? new ReverseGeocodingTask(context, latlng, locale)
+				: new ReverseGeocodingTask(context, latlng);
+		task.priority(GeocodingTask.Priority.BACKGROUND).staleAfter(staleAfter);
+
+		main.post(new Runnable()
+		{
+			@Override public void run()
+			{
+				task.start();
+			}
+		});
+	}
+}
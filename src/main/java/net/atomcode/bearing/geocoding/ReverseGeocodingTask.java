@@ -5,20 +5,13 @@ import android.location.Address;
 import android.location.Geocoder;
 import android.util.Log;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import net.atomcode.bearing.core.geocoding.GeocodedAddress;
+import net.atomcode.bearing.core.geocoding.GeocodingException;
+import net.atomcode.bearing.metrics.BearingMetrics;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -27,6 +20,16 @@ import java.util.Locale;
  */
 public class ReverseGeocodingTask extends GeocodingTask<Double>
 {
+	/**
+	 * Default distance in metres within which an earlier lookup is used by {@link #FALLBACK_CACHE}
+	 */
+	private static final double DEFAULT_FALLBACK_RADIUS = 100;
+
+	protected double fallbackRadius = DEFAULT_FALLBACK_RADIUS;
+
+	protected boolean useCache = false;
+	protected double cacheRadius = 0;
+
 	/**
 	 * Reverse geocode the supplied request using the devices current locale
 	 * @param context The current app context
@@ -45,7 +48,65 @@ public class ReverseGeocodingTask extends GeocodingTask<Double>
 		super(context, latlng, locale);
 	}
 
-	@Override protected List<Address> doInBackground(Double... params)
+	@Override protected BearingMetrics.TaskType getTaskType()
+	{
+		return BearingMetrics.TaskType.REVERSE_GEOCODE;
+	}
+
+	/**
+	 * Set the distance within which an earlier lookup of a nearby location is used
+	 * in place of this one by {@link #FALLBACK_CACHE}
+	 * @param radius The distance in metres
+	 */
+	@SuppressWarnings("unused")
+	public ReverseGeocodingTask fallbackRadius(double radius)
+	{
+		this.fallbackRadius = radius;
+		return this;
+	}
+
+	/**
+	 * Serve the lookup from an earlier lookup of a nearby location if there is one,
+	 * i.e. one made by a {@link ReverseGeocodingPrefetcher}
+	 * @param use Whether to use the cache, off by default
+	 * @param radius The distance in metres within which an earlier lookup is used
+	 */
+	@SuppressWarnings("unused")
+	public ReverseGeocodingTask cache(boolean use, double radius)
+	{
+		this.useCache = use;
+		this.cacheRadius = radius;
+		return this;
+	}
+
+	@Override protected boolean readsCache()
+	{
+		return super.readsCache() || useCache;
+	}
+
+	@Override protected void cacheResults(List<Address> results)
+	{
+		if (hasCoordinates())
+		{
+			GeocodingCache.getInstance().putLocation(params[0], params[1], locale, results);
+		}
+	}
+
+	@Override protected List<Address> cachedResults()
+	{
+		if (!hasCoordinates())
+		{
+			return null;
+		}
+		return GeocodingCache.getInstance().getNearest(params[0], params[1], locale, fallbackRadius);
+	}
+
+	private boolean hasCoordinates()
+	{
+		return params != null && params.length >= 2 && params[0] != null && params[1] != null;
+	}
+
+	@Override protected List<Address> lookup(Double... params)
 	{
 		if (params == null || params.length < 2)
 		{
@@ -56,6 +117,17 @@ public class ReverseGeocodingTask extends GeocodingTask<Double>
 		Double lat = params[0];
 		Double lng = params[1];
 
+		if (useCache)
+		{
+			List<Address> cached = GeocodingCache.getInstance().getNearest(lat, lng, locale, cacheRadius);
+			if (cached != null)
+			{
+				servedFromCache = true;
+				metrics.geocodingServed(BearingMetrics.GeocodingSource.CACHE);
+				return cached;
+			}
+		}
+
 		if (deviceHasNativeGeocoding())
 		{
 			return addressForNativeGeocodedQuery(lat, lng);
@@ -81,14 +153,16 @@ public class ReverseGeocodingTask extends GeocodingTask<Double>
 	 */
 	private List<Address> addressForNativeGeocodedQuery(Double latitude, Double longitude)
 	{
+		Tracing.stage(traceId, BearingTracer.Stage.NATIVE_ATTEMPT);
 		Geocoder geocoder = new Geocoder(context, locale);
 
 		try
 		{
 			List<Address> results = geocoder.getFromLocation(latitude, longitude, resultCount);
 
-			if (results != null && results.size() > 0)
+			if (results != null && results.size() > 0 && !isCancelled())
 			{
+				metrics.geocodingServed(BearingMetrics.GeocodingSource.NATIVE);
 				return results;
 			}
 		}
@@ -109,134 +183,35 @@ public class ReverseGeocodingTask extends GeocodingTask<Double>
 	 */
 	private List<Address> addressForRemoteGeocodedQuery(Double latitude, Double longitude)
 	{
-		StringBuilder data = new StringBuilder();
-		try
+		if (isCancelled())
 		{
-			HttpClient client = new DefaultHttpClient();
-
-			String params = "?latlng=" + latitude + "," + longitude + "&sensor=false";
-
-			HttpGet request = new HttpGet(WEB_API_URL + params);
-
-			HttpResponse response;
-			try
-			{
-				response = client.execute(request);
-			}
-			catch (ClientProtocolException ex)
-			{
-				ex.printStackTrace();
-				return null;
-			}
-
-			InputStream content = response.getEntity().getContent();
-
-			InputStreamReader inputStreamReader = new InputStreamReader(content);
-			BufferedReader reader = new BufferedReader(inputStreamReader);
-
-			String line;
-			while ((line = reader.readLine()) != null)
-			{
-				data.append(line);
-			}
-		}
-		catch (IOException ex)
-		{
-			Log.e("Bearing", "Network error connecting to Google Geocoding API" + ex.getMessage());
 			return null;
 		}
 
 		try
 		{
-			/*
+			Tracing.stage(traceId, BearingTracer.Stage.REMOTE_FALLBACK);
+			List<GeocodedAddress> results = engine().reverseGeocode(latitude, longitude, locale, resultCount, cancellation);
+			Tracing.stage(traceId, BearingTracer.Stage.PARSED);
+			if (!isCancelled())
 			{
-				"results": [
-					{
-						"geometry": {
-							"location": {
-								"lat": <latitude>
-								"lng": <longitude>
-							}
-						}
-					}
-				]
+				metrics.geocodingServed(BearingMetrics.GeocodingSource.REMOTE);
+				return new CompactAddressList(results, locale, true);
 			}
-			 */
-			JSONObject geocodeData = new JSONObject(data.toString());
-
-			JSONArray addresses = geocodeData.getJSONArray("results");
-
-			int resultsToRead = Math.min(resultCount, addresses.length());
-
-			List<Address> addressList = new ArrayList<Address>(resultsToRead);
-			for (int i = 0; i < resultsToRead; i++)
+		}
+		catch (IOException ex)
+		{
+			if (!isCancelled() && !cancellation.isCancelled())
 			{
-				JSONObject firstResult = addresses.getJSONObject(0);
-
-				JSONObject geometry = firstResult.getJSONObject("geometry");
-				JSONObject locationData = geometry.getJSONObject("location");
-
-				Address result = new Address(locale);
-				result.setLatitude(locationData.getDouble("lat"));
-				result.setLongitude(locationData.getDouble("lng"));
-
-				JSONArray addressData = firstResult.getJSONArray("address_components");
-
-				for (int addressIndex = 0; addressIndex < addressData.length(); addressIndex++)
-				{
-					JSONObject addressLine = addressData.getJSONObject(addressIndex);
-
-					String addressLineString = addressLine.getString("long_name");
-					result.setAddressLine(addressIndex, addressLineString);
-
-					JSONArray types = addressLine.getJSONArray("types");
-					for (int typeIter = 0; typeIter < types.length(); typeIter++)
-					{
-						String type = types.getString(typeIter);
-						if (type.equals("street_number"))
-						{
-							result.setPremises(addressLineString);
-						}
-						else if (type.equals("route"))
-						{
-							result.setSubThoroughfare(addressLineString);
-						}
-						else if (type.equals("neighborhood"))
-						{
-							result.setThoroughfare(addressLineString);
-						}
-						else if (type.equals("sublocality"))
-						{
-							result.setSubLocality(addressLineString);
-						}
-						else if (type.equals("administrative_area_level_2"))
-						{
-							result.setSubAdminArea(addressLineString);
-						}
-						else if (type.equals("administrative_area_level_1"))
-						{
-							result.setAdminArea(addressLineString);
-						}
-						else if (type.equals("country"))
-						{
-							result.setCountryName(addressLineString);
-							result.setCountryCode(addressLine.getString("short_name"));
-						}
-						else if (type.equals("postal_code"))
-						{
-							result.setPostalCode(addressLineString);
-						}
-					}
-				}
-
-				addressList.add(result);
+				Log.e("Bearing", "Network error connecting to Google Geocoding API" + ex.getMessage());
 			}
-
-			return addressList;
 		}
-		catch (JSONException ex)
+		catch (GeocodingException ex)
 		{
-			Log.e("Bearing", "Google Geocoding API format parsing failed! " + ex.getMessage());
+			if (!isCancelled())
+			{
+				Log.e("Bearing", ex.getMessage());
+			}
 		}
 
 		return null;
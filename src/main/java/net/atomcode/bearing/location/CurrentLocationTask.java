@@ -3,11 +3,53 @@ package net.atomcode.bearing.location;
 import android.content.Context;
 import android.location.Location;
 
+import net.atomcode.bearing.location.provider.ProviderThread;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
+
 /**
  * Gets the users current location using the best available service
  */
 public class CurrentLocationTask extends LocationTask
 {
+	/**
+	 * Rate at which refined fixes are requested from the provider
+	 */
+	private static final long REFINING_RATE = 1000;
+
+	/**
+	 * Most time a single fix request waits for a fix from the process owning the shared cache,
+	 * and how often it checks. A task with a timeout waits no more than a quarter of it.
+	 */
+	private static final long SHARED_WAIT = 10 * 1000;
+	private static final int SHARED_WAIT_FRACTION = 4;
+	private static final long SHARED_POLL_INTERVAL = 250;
+
+	protected boolean progressive = false;
+	protected long progressiveDeadline = 0; // 0 means no deadline
+
+	private boolean refining;
+	private LocationProviderRequest refiningRequest;
+	private LocationProviderRequest acceptRequest; // Accuracy a fix must meet, lowered with the GPS allowance
+
+	private final Runnable deadlineCheck = new Runnable()
+	{
+		@Override public void run()
+		{
+			onProgressiveDeadline();
+		}
+	};
+
+	private long sharedWaitStart;
+	private long sharedWait;
+	private final Runnable sharedCheck = new Runnable()
+	{
+		@Override public void run()
+		{
+			onSharedCheck();
+		}
+	};
+
 	public CurrentLocationTask(Context context)
 	{
 		super(context);
@@ -21,31 +63,305 @@ public class CurrentLocationTask extends LocationTask
 	public CurrentLocationTask start()
 	{
 		super.start();
-		this.taskId = locationProvider.requestSingleLocationUpdate(request, new LocationListener()
+		refining = progressive || fallback == FALLBACK_BEST_SO_FAR;
+		if (refining)
+		{
+			startRefining();
+			return this;
+		}
+
+		if (request.useCache)
+		{
+			// Serve a valid cached fix without waiting on the provider, i.e. just after launch
+			Location cachedLocation = getCachedLocation();
+			if (request.isCacheValid(cachedLocation) && request.meetsAccuracy(cachedLocation))
+			{
+				serveCached(cachedLocation);
+				return this;
+			}
+		}
+
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		sharedWait = timeout > 0 ? Math.min(SHARED_WAIT, timeout / SHARED_WAIT_FRACTION) : SHARED_WAIT;
+		if (sharedCache != null && sharedCache.isServingElsewhere(request.accuracy, sharedWait))
+		{
+			// Another process is receiving fixes good enough, wait for one rather than asking the hardware
+			sharedWaitStart = System.nanoTime();
+			ProviderThread.getHandler().postDelayed(sharedCheck, SHARED_POLL_INTERVAL);
+			return this;
+		}
+
+		registerUpdates();
+		return this;
+	}
+
+	@Override
+	protected synchronized void registerUpdates()
+	{
+		if (refining)
+		{
+			registerRefiningUpdates();
+			return;
+		}
+
+		LocationProviderRequest providerRequest = budgeted(request);
+		if (providerRequest == null)
+		{
+			// Waiting on the GPS allowance
+			return;
+		}
+
+		sharedRequesting(providerRequest, false);
+		this.taskId = locationProvider.requestSingleLocationUpdate(providerRequest, new LocationListener()
 		{
+			@Override public void onFix(Location location)
+			{
+				recordFirstFix(location);
+			}
+
 			@Override public void onUpdate(Location location)
 			{
 				if (running)
 				{
 					// Cancel current task
 					running = false;
-                    if (listener != null)
-                    {
-					    listener.onUpdate(location);
-                    }
+					recordLocation(location);
+					Tracing.stage(request.traceId, BearingTracer.Stage.FIX_ACCEPTED);
+					recordDelivery(location, true);
+					dispatchUpdate(location);
 				}
 			}
 
 			@Override public void onFailure()
 			{
-				listener.onFailure();
+				recordFailure();
+				dispatchFailure();
 			}
 
 			@Override public void onTimeout()
 			{
-				listener.onTimeout();
+				dispatchTimeout();
 			}
 		});
+	}
+
+	@Override
+	public void cancel()
+	{
+		super.cancel();
+		ProviderThread.getHandler().removeCallbacks(deadlineCheck);
+		ProviderThread.getHandler().removeCallbacks(sharedCheck);
+	}
+
+	/**
+	 * Deliver fixes progressively. The best cached fix is delivered immediately, followed by
+	 * each improved fix until one meets the set accuracy or the deadline passes.
+	 * Listeners receive each fix through {@link LocationListener#onUpdate(Location, boolean)}.
+	 *
+	 * @param deadline Time in milliseconds after which the best fix so far is delivered as final,
+	 *                 0 for no deadline
+	 */
+	@SuppressWarnings("unused")
+	public CurrentLocationTask progressive(long deadline)
+	{
+		this.progressive = true;
+		this.progressiveDeadline = deadline;
+		return this;
+	}
+
+	/**
+	 * Race all available location sources for the fix, delivering the first fix that
+	 * satisfies the set accuracy. Uses more power briefly in exchange for a faster fix.
+	 * Only affects devices using the legacy location services, fused locations already
+	 * combine sources.
+	 */
+	@SuppressWarnings("unused")
+	public CurrentLocationTask race(boolean race)
+	{
+		request.race = race;
 		return this;
 	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	/**
+	 * Deliver a cached fix as the final fix, without asking the provider
+	 */
+	private void serveCached(Location location)
+	{
+		running = false;
+		recordLocation(location);
+		Tracing.stage(request.traceId, BearingTracer.Stage.FIX_ACCEPTED);
+		recordDelivery(location, true);
+		dispatchUpdate(location);
+	}
+
+	/**
+	 * Check for a fix from the process owning the shared cache, making our own request if none
+	 * arrives in time or the owner stops
+	 */
+	private synchronized void onSharedCheck()
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		Location sharedLocation = sharedCache.read();
+		if (request.isCacheValid(sharedLocation) && request.meetsAccuracy(sharedLocation))
+		{
+			serveCached(sharedLocation);
+			return;
+		}
+
+		if (sharedCache.isServingElsewhere(request.accuracy, sharedWait) && System.nanoTime() - sharedWaitStart < sharedWait * 1000000)
+		{
+			ProviderThread.getHandler().postDelayed(sharedCheck, SHARED_POLL_INTERVAL);
+			return;
+		}
+
+		registerUpdates();
+	}
+
+	/**
+	 * Keep the request alive, collecting fixes until one meets the set accuracy.
+	 * Progressive tasks serve the cached fix first and deliver each improvement on the way.
+	 */
+	private void startRefining()
+	{
+		bestLocation = null;
+
+		refiningRequest = new LocationProviderRequest(request);
+		refiningRequest.trackingRate = REFINING_RATE;
+		refiningRequest.trackingDisplacement = 0;
+		refiningRequest.trackingFallback = 0;
+
+		LocationProviderRequest budgetedRequest = budgeted(request);
+		acceptRequest = budgetedRequest != null ? budgetedRequest : request;
+
+		if (request.useCache)
+		{
+			Location cachedLocation = getCachedLocation();
+			if (request.isCacheValid(cachedLocation))
+			{
+				onRefinedUpdate(cachedLocation);
+			}
+		}
+
+		if (!running)
+		{
+			// Cached fix already met the requested accuracy
+			return;
+		}
+
+		registerUpdates();
+
+		if (progressive && progressiveDeadline > 0)
+		{
+			ProviderThread.getHandler().postDelayed(deadlineCheck, progressiveDeadline);
+		}
+	}
+
+	/**
+	 * Register for the refined fixes, accepting fixes at the accuracy the GPS allowance permits
+	 */
+	private void registerRefiningUpdates()
+	{
+		LocationProviderRequest providerRequest = budgeted(refiningRequest);
+		if (providerRequest == null)
+		{
+			// Waiting on the GPS allowance
+			return;
+		}
+		acceptRequest = providerRequest;
+
+		sharedRequesting(providerRequest, true);
+		this.taskId = locationProvider.requestRecurringLocationUpdates(providerRequest, new LocationListener()
+		{
+			@Override public void onFix(Location location)
+			{
+				recordFirstFix(location);
+			}
+
+			@Override public void onUpdate(Location location)
+			{
+				onRefinedUpdate(location);
+			}
+		});
+	}
+
+	/**
+	 * Handle a fix while refining, finishing when it meets the set accuracy
+	 */
+	private synchronized void onRefinedUpdate(Location location)
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		if (!recordLocation(location))
+		{
+			// No improvement
+			Tracing.stage(request.traceId, BearingTracer.Stage.FIX_FILTERED);
+			return;
+		}
+		Tracing.stage(request.traceId, BearingTracer.Stage.FIX_ACCEPTED);
+
+		boolean isFinal = acceptRequest.meetsAccuracy(location);
+		if (progressive || isFinal)
+		{
+			recordDelivery(location, isFinal);
+		}
+
+		if (isFinal)
+		{
+			cancel();
+		}
+
+		if (progressive)
+		{
+			dispatchUpdate(location, isFinal);
+		}
+		else if (isFinal)
+		{
+			dispatchUpdate(location);
+		}
+	}
+
+	/**
+	 * Deadline passed, finalise with the best fix so far
+	 */
+	private synchronized void onProgressiveDeadline()
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		if (bestLocation != null)
+		{
+			recordDelivery(bestLocation, true);
+		}
+		else
+		{
+			recordTimeout();
+		}
+
+		cancel();
+
+		if (bestLocation != null)
+		{
+			dispatchUpdate(bestLocation, true);
+		}
+		else
+		{
+			dispatchTimeout();
+		}
+	}
 }
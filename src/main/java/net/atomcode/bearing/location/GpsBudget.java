@@ -0,0 +1,370 @@
+package net.atomcode.bearing.location;
+
+import android.os.SystemClock;
+
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits the time spent on GPS by {@link Accuracy#HIGH} requests across all location tasks,
+ * i.e. at most 10 minutes in any hour.
+ *
+ * GPS time is counted while any high accuracy request is registered, overlapping requests
+ * counting once. Once the allowance for the window is spent, high accuracy requests are
+ * downgraded to {@link Accuracy#MEDIUM} or deferred until time frees up, depending on the
+ * policy, and running tasks re-register with the provider. When time frees up they are
+ * upgraded again. The time each caller spent is reported by {@link #getSpend()}.
+ *
+ * Unlimited by default.
+ */
+public class GpsBudget
+{
+	/**
+	 * What happens to high accuracy requests once the allowance is spent
+	 */
+	public enum Policy
+	{
+		/**
+		 * Request {@link Accuracy#MEDIUM} fixes instead
+		 */
+		DOWNGRADE,
+		/**
+		 * Don't request fixes until time frees up
+		 */
+		DEFER
+	}
+
+	private static final long DEFAULT_WINDOW = 60 * 60 * 1000;
+
+	/**
+	 * Interval to check for freed up time while requests are waiting
+	 */
+	private static final long RECHECK_INTERVAL = 60 * 1000;
+
+	/**
+	 * Least time to free up before switching the GPS back on, so it doesn't flap
+	 */
+	private static final long MIN_GRANT = 60 * 1000;
+
+	private static final GpsBudget instance = new GpsBudget();
+
+	public static GpsBudget getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * A task's claim on the GPS, open while it runs
+	 */
+	class Session
+	{
+		final String caller;
+		final Runnable onChange;
+
+		// Guarded by the budget
+		boolean granted;
+		long grantedAt;
+
+		Session(String caller, Runnable onChange)
+		{
+			this.caller = caller;
+			this.onChange = onChange;
+		}
+
+		boolean isGranted()
+		{
+			synchronized (GpsBudget.this)
+			{
+				return granted;
+			}
+		}
+	}
+
+	// Guarded by this
+	private long allowance = 0; // 0 means unlimited
+	private long window = DEFAULT_WINDOW;
+	private Policy policy = Policy.DOWNGRADE;
+
+	private final ArrayDeque<long[]> spans = new ArrayDeque<long[]>(); // Closed periods of GPS use, oldest first
+	private int grantedCount;
+	private long grantedSince;
+
+	private final List<Session> sessions = new ArrayList<Session>();
+	private final Map<String, Long> spend = new HashMap<String, Long>();
+
+	private final Runnable check = new Runnable()
+	{
+		@Override public void run()
+		{
+			check();
+		}
+	};
+
+	GpsBudget()
+	{
+	}
+
+	/**
+	 * Allow at most the given GPS time in any window
+	 * @param allowance Time in milliseconds, 0 for no limit
+	 * @param window The length of the window in milliseconds
+	 */
+	@SuppressWarnings("unused")
+	public GpsBudget limit(long allowance, long window)
+	{
+		synchronized (this)
+		{
+			this.allowance = allowance;
+			this.window = window;
+		}
+		ProviderThread.getHandler().post(check);
+		return this;
+	}
+
+	/**
+	 * Set what happens to high accuracy requests once the allowance is spent,
+	 * {@link Policy#DOWNGRADE} by default
+	 */
+	@SuppressWarnings("unused")
+	public synchronized GpsBudget policy(Policy policy)
+	{
+		this.policy = policy;
+		return this;
+	}
+
+	public synchronized Policy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * Get the GPS time left in the current window in milliseconds, {@link Long#MAX_VALUE} if unlimited
+	 */
+	public synchronized long getRemaining()
+	{
+		return remaining(now());
+	}
+
+	/**
+	 * Get the GPS time spent by each caller in milliseconds, since the last reset.
+	 * Overlapping requests count towards each of their callers.
+	 */
+	public synchronized Map<String, Long> getSpend()
+	{
+		long now = now();
+		Map<String, Long> snapshot = new HashMap<String, Long>(spend);
+		for (Session session : sessions)
+		{
+			if (session.granted)
+			{
+				Long spent = snapshot.get(session.caller);
+				snapshot.put(session.caller, (spent != null ? spent : 0) + now - session.grantedAt);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Clear the spend of each caller. The time used in the current window still counts.
+	 */
+	@SuppressWarnings("unused")
+	public synchronized void resetSpend()
+	{
+		long now = now();
+		spend.clear();
+		for (Session session : sessions)
+		{
+			if (session.granted)
+			{
+				session.grantedAt = now;
+			}
+		}
+	}
+
+	/**
+	 * Open a claim on the GPS for a high accuracy request
+	 * @param caller The caller to report the spend against
+	 * @param onChange Called on the provider thread when the session is granted or revoked
+	 */
+	Session open(String caller, Runnable onChange)
+	{
+		Session session = new Session(caller, onChange);
+		synchronized (this)
+		{
+			long now = now();
+			sessions.add(session);
+			if (canGrant(now))
+			{
+				grant(session, now);
+			}
+		}
+		scheduleCheck();
+		return session;
+	}
+
+	/**
+	 * The task finished with the GPS
+	 */
+	void close(Session session)
+	{
+		synchronized (this)
+		{
+			if (!sessions.remove(session))
+			{
+				return;
+			}
+			if (session.granted)
+			{
+				revoke(session, now());
+			}
+		}
+		scheduleCheck();
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	long now()
+	{
+		return SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Grant or revoke sessions as the allowance is spent or frees up, on the provider thread
+	 */
+	void check()
+	{
+		List<Session> changed = new ArrayList<Session>();
+		synchronized (this)
+		{
+			long now = now();
+			if (remaining(now) <= 0)
+			{
+				for (Session session : sessions)
+				{
+					if (session.granted)
+					{
+						revoke(session, now);
+						changed.add(session);
+					}
+				}
+			}
+			else if (canGrant(now))
+			{
+				for (Session session : sessions)
+				{
+					if (!session.granted)
+					{
+						grant(session, now);
+						changed.add(session);
+					}
+				}
+			}
+		}
+
+		for (Session session : changed)
+		{
+			session.onChange.run();
+		}
+		scheduleCheck();
+	}
+
+	/**
+	 * Check again when the allowance will run out, or periodically while requests wait on it
+	 */
+	private void scheduleCheck()
+	{
+		long delay;
+		synchronized (this)
+		{
+			if (allowance == 0 || sessions.isEmpty())
+			{
+				delay = -1;
+			}
+			else if (grantedCount > 0)
+			{
+				delay = Math.max(0, remaining(now()));
+			}
+			else
+			{
+				delay = RECHECK_INTERVAL;
+			}
+		}
+
+		ProviderThread.getHandler().removeCallbacks(check);
+		if (delay >= 0)
+		{
+			ProviderThread.getHandler().postDelayed(check, delay);
+		}
+	}
+
+	private boolean canGrant(long now)
+	{
+		long remaining = remaining(now);
+		// Joining a GPS session already running costs nothing extra
+		return remaining > 0 && (grantedCount > 0 || remaining >= Math.min(MIN_GRANT, allowance));
+	}
+
+	private long remaining(long now)
+	{
+		if (allowance == 0)
+		{
+			return Long.MAX_VALUE;
+		}
+		return allowance - used(now);
+	}
+
+	/**
+	 * GPS time used in the window ending now
+	 */
+	private long used(long now)
+	{
+		long windowStart = now - window;
+
+		// Forget spans that have left the window
+		while (!spans.isEmpty() && spans.peekFirst()[1] <= windowStart)
+		{
+			spans.pollFirst();
+		}
+
+		long used = 0;
+		for (long[] span : spans)
+		{
+			used += span[1] - Math.max(span[0], windowStart);
+		}
+		if (grantedCount > 0)
+		{
+			used += now - Math.max(grantedSince, windowStart);
+		}
+		return used;
+	}
+
+	private void grant(Session session, long now)
+	{
+		session.granted = true;
+		session.grantedAt = now;
+		if (grantedCount++ == 0)
+		{
+			grantedSince = now;
+		}
+	}
+
+	private void revoke(Session session, long now)
+	{
+		session.granted = false;
+		Long spent = spend.get(session.caller);
+		spend.put(session.caller, (spent != null ? spent : 0) + now - session.grantedAt);
+		if (--grantedCount == 0 && now > grantedSince)
+		{
+			spans.addLast(new long[]{ grantedSince, now });
+		}
+	}
+}
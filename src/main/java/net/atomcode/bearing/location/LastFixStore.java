@@ -0,0 +1,191 @@
+package net.atomcode.bearing.location;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Process;
+
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The most recent fix delivered by any task, kept in a small file so it survives process
+ * restarts. Serves cached fixes just after launch, before the provider has a fix of its own.
+ *
+ * Writes are made on the provider thread, coalesced and at most once per write interval,
+ * replacing the file atomically.
+ */
+class LastFixStore
+{
+	private static final String FILE_NAME = "bearing_last_fix";
+	private static final int VERSION = 1;
+
+	private static final long MIN_WRITE_INTERVAL = 10 * 1000;
+
+	private static LastFixStore instance;
+
+	static synchronized LastFixStore getInstance(Context context)
+	{
+		if (instance == null)
+		{
+			instance = new LastFixStore(new File(context.getFilesDir(), FILE_NAME));
+		}
+		return instance;
+	}
+
+	private final File file;
+
+	// Guarded by this
+	private Location lastFix;
+	private boolean loaded;
+	private boolean writePending;
+	private long lastWriteTime;
+
+	private final Runnable write = new Runnable()
+	{
+		@Override public void run()
+		{
+			writeLastFix();
+		}
+	};
+
+	LastFixStore(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Get the most recent fix, from this or an earlier process. {@code null} if there is none.
+	 */
+	synchronized Location get()
+	{
+		if (!loaded)
+		{
+			loaded = true;
+			lastFix = read();
+		}
+		return lastFix;
+	}
+
+	/**
+	 * Store the given fix if it is more recent than the stored fix
+	 */
+	void put(Location location)
+	{
+		long delay;
+		synchronized (this)
+		{
+			Location current = get();
+			if (location == null || (current != null && location.getTime() <= current.getTime()))
+			{
+				return;
+			}
+			lastFix = location;
+
+			if (writePending)
+			{
+				// The pending write picks up this fix
+				return;
+			}
+			writePending = true;
+			delay = Math.max(0, lastWriteTime + MIN_WRITE_INTERVAL - System.currentTimeMillis());
+		}
+
+		ProviderThread.getHandler().postDelayed(write, delay);
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private Location read()
+	{
+		if (!file.exists())
+		{
+			return null;
+		}
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try
+			{
+				if (in.readInt() != VERSION)
+				{
+					return null;
+				}
+
+				Location location = new Location(in.readUTF());
+				location.setLatitude(in.readDouble());
+				location.setLongitude(in.readDouble());
+				location.setAccuracy(in.readFloat());
+				location.setTime(in.readLong());
+				return location;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			// Unreadable, the next fix replaces it
+			return null;
+		}
+	}
+
+	private void writeLastFix()
+	{
+		Location location;
+		synchronized (this)
+		{
+			writePending = false;
+			lastWriteTime = System.currentTimeMillis();
+			location = lastFix;
+		}
+
+		// Per process, the processes of an app share the file
+		File temp = new File(file.getPath() + "." + Process.myPid() + ".tmp");
+		try
+		{
+			FileOutputStream out = new FileOutputStream(temp);
+			try
+			{
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(VERSION);
+				data.writeUTF(location.getProvider() != null ? location.getProvider() : "");
+				data.writeDouble(location.getLatitude());
+				data.writeDouble(location.getLongitude());
+				data.writeFloat(location.getAccuracy());
+				data.writeLong(location.getTime());
+				data.flush();
+				out.getFD().sync();
+			}
+			finally
+			{
+				out.close();
+			}
+
+			if (!temp.renameTo(file))
+			{
+				// Platforms without atomic replace
+				if (file.delete())
+				{
+					temp.renameTo(file);
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			// Best effort, the fix is still served from memory
+			temp.delete();
+		}
+	}
+}
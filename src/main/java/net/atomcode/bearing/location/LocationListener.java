@@ -11,6 +11,22 @@ public abstract class LocationListener implements BearingListener
 {
 	public abstract void onUpdate(Location location);
 
+	/**
+	 * Update from a progressive task. Called for each improved fix,
+	 * {@code isFinal} is {@code true} for the last update the task will deliver.
+	 * Forwards to {@link #onUpdate(Location)} by default.
+	 */
+	public void onUpdate(Location location, boolean isFinal)
+	{
+		onUpdate(location);
+	}
+
+	/**
+	 * Called by a provider with each fix it receives, before tracking filters decide whether
+	 * to report it. Tasks use it to record their first fix. Does nothing by default.
+	 */
+	public void onFix(Location location) {}
+
 	// Do nothing here, allows for simpler listeners
 	@Override public void onTimeout() {}
 	@Override public void onFailure() {}
@@ -18,6 +18,13 @@ public interface LocationProvider
 	 */
 	public void destroy();
 
+	/**
+	 * Connect to remote services ahead of the first request.
+	 * Providers without a connection call back straight away.
+	 * @param onConnected Called on the provider thread once connected, or once connecting has failed
+	 */
+	public void connect(Runnable onConnected);
+
 	/**
 	 * Get the last known cached location
 	 */
@@ -32,7 +39,8 @@ public interface LocationProvider
 	public String requestSingleLocationUpdate(LocationProviderRequest request, LocationListener listener);
 
 	/**
-	 * Get recurring location updates for this provider
+	 * Get recurring location updates for this provider. Pass every fix received to
+	 * {@link LocationListener#onFix(Location)}, then only those reported to onUpdate.
 	 * @param request The request containing the location update type
 	 * @param listener The listener to use to get the callback
 	 * @return A request identifier to cancel a request if required
@@ -1,5 +1,7 @@
 package net.atomcode.bearing.location;
 
+import android.location.Location;
+
 /**
  * Wrapper for a request to a location provider
  */
@@ -9,6 +11,7 @@ public class LocationProviderRequest
 	 * Location accuracy
 	 */
 	public Accuracy accuracy = Accuracy.MEDIUM; // Medium accuracy by default
+	public float accuracyTolerance = 0.0f; // Fraction of the accuracy a fix may miss by and still be accepted
 
 	/*
 	 * Cache
@@ -23,4 +26,50 @@ public class LocationProviderRequest
 	public long trackingRate = 20 * 60 * 1000; // 20 min tracking default
 	public long trackingFallback = 30 * 60 * 1000; // 30 mins default fallback
 
+	/*
+	 * Single updates
+	 */
+	public boolean race = false; // Race all available sources for a single fix, where supported
+
+	/*
+	 * Tracing
+	 */
+	public long traceId = 0; // Id of the requesting task for tracing
+
+	public LocationProviderRequest()
+	{
+	}
+
+	/**
+	 * Copy the given request, allowing tasks to derive provider requests without
+	 * altering the configured one.
+	 */
+	public LocationProviderRequest(LocationProviderRequest other)
+	{
+		accuracy = other.accuracy;
+		accuracyTolerance = other.accuracyTolerance;
+		useCache = other.useCache;
+		cacheExpiry = other.cacheExpiry;
+		trackingDisplacement = other.trackingDisplacement;
+		trackingRate = other.trackingRate;
+		trackingFallback = other.trackingFallback;
+		race = other.race;
+		traceId = other.traceId;
+	}
+
+	/**
+	 * Check if the given location satisfies the accuracy of this request, within the set tolerance
+	 */
+	public boolean meetsAccuracy(Location location)
+	{
+		return location != null && location.getAccuracy() < accuracy.value * (1.0f + accuracyTolerance);
+	}
+
+	/**
+	 * Check if the given location is recent enough to be served from cache
+	 */
+	public boolean isCacheValid(Location location)
+	{
+		return location != null && System.currentTimeMillis() - location.getTime() < cacheExpiry;
+	}
 }
@@ -2,19 +2,19 @@ package net.atomcode.bearing.location;
 
 import android.content.Context;
 import android.location.Location;
-import android.os.Handler;
-import android.os.Looper;
 
-import net.atomcode.bearing.Bearing;
 import net.atomcode.bearing.BearingTask;
-import net.atomcode.bearing.location.provider.GMSLocationProvider;
+import net.atomcode.bearing.Dispatch;
 import net.atomcode.bearing.location.provider.LegacyLocationProvider;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import net.atomcode.bearing.location.provider.ProviderThread;
+import net.atomcode.bearing.metrics.BearingMetrics;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
 
 /**
- * Base location task for acquiring locations
+ * Base location task for acquiring locations.
+ * Fixes are handled on the {@link ProviderThread} and the listener is called through the
+ * dispatch of the task, see {@link #dispatchOn(Dispatch)}.
  */
 public abstract class LocationTask implements BearingTask
 {
@@ -23,57 +23,137 @@ public abstract class LocationTask implements BearingTask
 	 */
 	public static final int FALLBACK_CACHE = 0x1;
 
+	/**
+	 * Use the most accurate location seen by the task when a timeout occurs,
+	 * falling back to a cached location if none was seen
+	 */
+	public static final int FALLBACK_BEST_SO_FAR = 0x2;
+
 	protected boolean isUsingLegacyServices;
 
-	protected LocationProvider locationProvider;
+	protected final Context context;
+	protected LocationProvider locationProvider; // Shared provider, set when the task starts
 	protected LocationProviderRequest request;
 
 	protected LocationListener listener;
+	protected Dispatch dispatch = Dispatch.getDefault();
 
 	protected int fallback = FALLBACK_NONE; // No fallback by default
 	protected long timeout = 0; // > 0 means no timeout
-	protected boolean running = false;
+	protected volatile boolean running = false;
 
 	protected String taskId;
+	protected String tag; // Caller reported in the GPS spend, the task type by default
 
-	public LocationTask(Context context)
+	protected Location bestLocation;
+
+	protected final BearingMetrics metrics = BearingMetrics.getInstance();
+	private final LastFixStore lastFixStore;
+	private long startTime;
+	private long startNanos;
+	private boolean firstFixRecorded;
+	private boolean latencyRecorded;
+	private boolean finishRecorded;
+	private boolean holdingProvider; // Guarded by this
+	private GpsBudget.Session gpsSession; // Guarded by this, open while a high accuracy task runs
+
+	private final Runnable timeoutCheck = new Runnable()
 	{
-		isUsingLegacyServices = !Bearing.isLocationServicesAvailable(context);
-		if (isUsingLegacyServices)
+		@Override public void run()
 		{
-			locationProvider = LegacyLocationProvider.getInstance();
+			onTimeoutReached();
 		}
-		else
+	};
+
+	private final Runnable allowanceChanged = new Runnable()
+	{
+		@Override public void run()
 		{
-			locationProvider = GMSLocationProvider.getInstance();
+			onAllowanceChanged();
 		}
-		locationProvider.create(context);
+	};
+
+	public LocationTask(Context context)
+	{
+		this.context = context;
+		this.lastFixStore = LastFixStore.getInstance(context);
 
 		request = new LocationProviderRequest();
+		request.traceId = Tracing.newTraceId();
+		Tracing.created(request.traceId, getTaskType());
+	}
+
+	/**
+	 * Connect the shared provider and load the cached fixes ahead of the first task, holding
+	 * the provider for the given time so the first task finds it connected
+	 * @param keepAlive Time in milliseconds to hold the provider
+	 * @param onReady Called on the provider thread once the provider is connected and the cached
+	 *                fixes are loaded
+	 */
+	public static void prewarm(Context context, long keepAlive, final Runnable onReady)
+	{
+		final LocationProvider provider = ProviderPool.getInstance().acquire(context);
+		final LastFixStore lastFixStore = LastFixStore.getInstance(context);
+
+		provider.connect(new Runnable()
+		{
+			@Override public void run()
+			{
+				// Keep whichever is more recent for the first task
+				lastFixStore.put(provider.getLastKnownLocation(new LocationProviderRequest()));
+				onReady.run();
+			}
+		});
+
+		ProviderThread.getHandler().postDelayed(new Runnable()
+		{
+			@Override public void run()
+			{
+				ProviderPool.getInstance().release();
+			}
+		}, keepAlive);
+	}
+
+	/**
+	 * Use the given provider for every location task, i.e. a {@link net.atomcode.bearing.location.provider.ReplayLocationProvider}.
+	 * Takes effect once no location tasks are running.
+	 * @param provider The provider, {@code null} to choose by the location services available
+	 */
+	public static void useProvider(LocationProvider provider)
+	{
+		ProviderPool.getInstance().setOverride(provider);
 	}
 
 	@Override
 	public BearingTask start()
 	{
+		synchronized (this)
+		{
+			if (!holdingProvider)
+			{
+				holdingProvider = true;
+				locationProvider = ProviderPool.getInstance().acquire(context);
+				isUsingLegacyServices = locationProvider instanceof LegacyLocationProvider;
+			}
+
+			if (request.accuracy == Accuracy.HIGH && gpsSession == null)
+			{
+				gpsSession = GpsBudget.getInstance().open(tag != null ? tag : getTaskType().name(), allowanceChanged);
+			}
+		}
+
 		running = true;
+
+		startTime = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+		firstFixRecorded = false;
+		latencyRecorded = false;
+		finishRecorded = false;
+		metrics.taskStarted(getTaskType());
+
 		if (timeout > 0)
 		{
-			new Timer().schedule(new TimerTask()
-			{
-				@Override
-				public void run()
-				{
-					if (isRunning())
-					{
-						LocationTask.this.cancel();
-						if (listener != null)
-						{
-							listener.onTimeout();
-							handleTimeoutFallback();
-						}
-					}
-				}
-			}, timeout);
+			ProviderThread.getHandler().postDelayed(timeoutCheck, timeout);
 		}
 
 		return this;
@@ -83,10 +163,13 @@ public abstract class LocationTask implements BearingTask
 	public void cancel()
 	{
 		running = false;
+		ProviderThread.getHandler().removeCallbacks(timeoutCheck);
 		if (taskId != null)
 		{
 			locationProvider.cancelUpdates(taskId);
 		}
+
+		recordCancelled();
 	}
 
 	/**
@@ -98,6 +181,16 @@ public abstract class LocationTask implements BearingTask
 		return this;
 	}
 
+	/**
+	 * Call the listener through the given dispatch, {@link Dispatch#getDefault()} by default
+	 */
+	@SuppressWarnings("unused")
+	public LocationTask dispatchOn(Dispatch dispatch)
+	{
+		this.dispatch = dispatch;
+		return this;
+	}
+
 	@Override
 	public boolean isRunning()
 	{
@@ -120,6 +213,16 @@ public abstract class LocationTask implements BearingTask
 		return this;
 	}
 
+	/**
+	 * Set the caller the GPS time of this task is reported against in {@link GpsBudget#getSpend()}
+	 */
+	@SuppressWarnings("unused")
+	public LocationTask tag(String tag)
+	{
+		this.tag = tag;
+		return this;
+	}
+
 	/**
 	 * Whether to use a cached location if available,
 	 * and how old does the location need to be to be treated as valid
@@ -133,6 +236,17 @@ public abstract class LocationTask implements BearingTask
 		return this;
 	}
 
+	/**
+	 * Accept locations that miss the set accuracy by up to the given percentage.
+	 * i.e. a tolerance of 20 with {@link Accuracy#MEDIUM} accepts locations within 60 metres
+	 * @param percent The percentage of the accuracy a location may miss by
+	 */
+	public LocationTask tolerance(int percent)
+	{
+		request.accuracyTolerance = percent / 100.0f;
+		return this;
+	}
+
 	/**
 	 * Fallback for if the timeout is reached
 	 */
@@ -150,29 +264,351 @@ public abstract class LocationTask implements BearingTask
 	 * ==============================================
 	 */
 
+	/**
+	 * Record a location seen by the task, keeping the most accurate
+	 * @return {@code true} if the location is the most accurate seen so far
+	 */
+	protected synchronized boolean recordLocation(Location location)
+	{
+		if (location == null)
+		{
+			return false;
+		}
+
+		// For providers that do not report fixes before filtering
+		recordFirstFix(location);
+
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		if (sharedCache != null && location.getTime() >= startTime)
+		{
+			sharedCache.publish(location);
+		}
+
+		if (bestLocation == null || location.getAccuracy() < bestLocation.getAccuracy())
+		{
+			bestLocation = location;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record the first fresh fix the task receives, from the provider callback before any
+	 * filtering, so it is traced ahead of the fix being accepted or filtered
+	 */
+	protected synchronized void recordFirstFix(Location location)
+	{
+		if (!firstFixRecorded && location != null && location.getTime() >= startTime)
+		{
+			firstFixRecorded = true;
+			Tracing.stage(request.traceId, BearingTracer.Stage.FIRST_FIX);
+			metrics.timeToFirstFix(isUsingLegacyServices ? BearingMetrics.Provider.LEGACY : BearingMetrics.Provider.GMS, elapsedMillis());
+		}
+	}
+
+	/**
+	 * The type of this task when recording metrics
+	 */
+	protected BearingMetrics.TaskType getTaskType()
+	{
+		return BearingMetrics.TaskType.LOCATE;
+	}
+
+	/**
+	 * Record metrics for a location delivered to the listener.
+	 * Locations fixed before the task started are counted as served from cache.
+	 * @param isFinal Whether this is the last location the task will deliver
+	 */
+	protected synchronized void recordDelivery(Location location, boolean isFinal)
+	{
+		Tracing.stage(request.traceId, BearingTracer.Stage.DELIVERED);
+
+		boolean cached = location.getTime() < startTime;
+		metrics.locationServed(cached ? BearingMetrics.LocationSource.CACHE : BearingMetrics.LocationSource.PROVIDER);
+		lastFixStore.put(location);
+
+		if (!latencyRecorded && (isFinal || getTaskType() == BearingMetrics.TaskType.TRACK))
+		{
+			latencyRecorded = true;
+			metrics.taskLatency(getTaskType(), elapsedMillis());
+		}
+
+		if (isFinal)
+		{
+			recordFinished();
+		}
+	}
+
+	/**
+	 * Record the task as failed and finished
+	 */
+	protected void recordFailure()
+	{
+		Tracing.stage(request.traceId, BearingTracer.Stage.FAILED);
+		metrics.taskFailed(getTaskType());
+		recordFinished();
+	}
+
+	/**
+	 * Record the task as timed out and finished
+	 */
+	protected void recordTimeout()
+	{
+		Tracing.stage(request.traceId, BearingTracer.Stage.TIMED_OUT);
+		metrics.taskTimedOut(getTaskType());
+		recordFinished();
+	}
+
+	/**
+	 * Record the task as cancelled, unless it already finished
+	 */
+	private synchronized void recordCancelled()
+	{
+		if (!finishRecorded)
+		{
+			Tracing.stage(request.traceId, BearingTracer.Stage.CANCELLED);
+			recordFinished();
+		}
+	}
+
+	/**
+	 * Record the task as finished, only counted once per start.
+	 * Releases the shared provider.
+	 */
+	protected synchronized void recordFinished()
+	{
+		if (!finishRecorded)
+		{
+			finishRecorded = true;
+			metrics.taskFinished(getTaskType());
+		}
+
+		if (gpsSession != null)
+		{
+			GpsBudget.getInstance().close(gpsSession);
+			gpsSession = null;
+		}
+
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		if (sharedCache != null)
+		{
+			sharedCache.finished(this);
+		}
+
+		if (holdingProvider)
+		{
+			holdingProvider = false;
+			ProviderPool.getInstance().release();
+		}
+	}
+
+	/**
+	 * Tell other processes to expect fixes for the given request, call before registering it
+	 * @param recurring Whether the request is for recurring updates
+	 */
+	protected void sharedRequesting(LocationProviderRequest providerRequest, boolean recurring)
+	{
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		if (sharedCache != null)
+		{
+			sharedCache.requesting(this, providerRequest.accuracy, recurring ? providerRequest.trackingRate : 0);
+		}
+	}
+
+	/**
+	 * Register with the provider for the configured request, applying the GPS budget with
+	 * {@link #budgeted(LocationProviderRequest)}. Called again to re-register when the GPS
+	 * allowance of the task changes.
+	 */
+	protected void registerUpdates()
+	{
+	}
+
+	/**
+	 * Apply the GPS budget to the given provider request
+	 * @return The request, a copy at {@link Accuracy#MEDIUM} if the allowance is spent,
+	 *         or {@code null} if the request should wait for the allowance
+	 */
+	protected synchronized LocationProviderRequest budgeted(LocationProviderRequest providerRequest)
+	{
+		if (gpsSession == null || gpsSession.isGranted())
+		{
+			return providerRequest;
+		}
+
+		if (GpsBudget.getInstance().getPolicy() == GpsBudget.Policy.DEFER)
+		{
+			return null;
+		}
+
+		LocationProviderRequest downgraded = new LocationProviderRequest(providerRequest);
+		downgraded.accuracy = Accuracy.MEDIUM;
+		return downgraded;
+	}
+
+	/**
+	 * Get the most recent cached fix, either the provider's, the last fix delivered by any
+	 * task, including in an earlier process, or the last fix shared by another process.
+	 * {@code null} if there is none.
+	 */
+	protected Location getCachedLocation()
+	{
+		Location cachedLocation = mostRecent(locationProvider.getLastKnownLocation(request), lastFixStore.get());
+
+		SharedLocationCache sharedCache = SharedLocationCache.getInstance();
+		if (sharedCache != null)
+		{
+			cachedLocation = mostRecent(cachedLocation, sharedCache.read());
+		}
+		return cachedLocation;
+	}
+
+	private static Location mostRecent(Location first, Location second)
+	{
+		if (second == null || (first != null && first.getTime() >= second.getTime()))
+		{
+			return first;
+		}
+		return second;
+	}
+
+	private long elapsedMillis()
+	{
+		return (System.nanoTime() - startNanos) / 1000000;
+	}
+
+	/**
+	 * Call {@link LocationListener#onUpdate(Location)} through the dispatch
+	 */
+	protected void dispatchUpdate(final Location location)
+	{
+		final LocationListener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onUpdate(location);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Call {@link LocationListener#onUpdate(Location, boolean)} through the dispatch
+	 */
+	protected void dispatchUpdate(final Location location, final boolean isFinal)
+	{
+		final LocationListener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onUpdate(location, isFinal);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Call {@link LocationListener#onFailure()} through the dispatch
+	 */
+	protected void dispatchFailure()
+	{
+		final LocationListener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onFailure();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Call {@link LocationListener#onTimeout()} through the dispatch
+	 */
+	protected void dispatchTimeout()
+	{
+		final LocationListener listener = this.listener;
+		if (listener != null)
+		{
+			dispatch.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					listener.onTimeout();
+				}
+			});
+		}
+	}
+
+	/**
+	 * The GPS allowance of the task changed, re-register at the new accuracy
+	 */
+	private synchronized void onAllowanceChanged()
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		if (taskId != null)
+		{
+			locationProvider.cancelUpdates(taskId);
+			taskId = null;
+		}
+		registerUpdates();
+	}
+
+	/**
+	 * The timeout passed, on the provider thread
+	 */
+	private void onTimeoutReached()
+	{
+		if (!isRunning())
+		{
+			return;
+		}
+
+		recordTimeout();
+		cancel();
+		if (listener != null)
+		{
+			dispatchTimeout();
+			handleTimeoutFallback();
+		}
+	}
+
 	/**
 	 * Handle the timeout fallback here.
 	 * listener is non-null at this point.
 	 */
 	private void handleTimeoutFallback()
 	{
-		new Handler(Looper.getMainLooper()).post(new Runnable()
+		if (fallback == FALLBACK_BEST_SO_FAR && bestLocation != null)
 		{
-			@Override public void run()
+			metrics.locationServed(BearingMetrics.LocationSource.PROVIDER);
+			dispatchUpdate(bestLocation);
+		}
+		else if (fallback == FALLBACK_CACHE || fallback == FALLBACK_BEST_SO_FAR)
+		{
+			Location cachedLocation = getCachedLocation();
+			if (cachedLocation != null)
 			{
-				if (fallback == FALLBACK_CACHE)
-				{
-					Location cachedLocation = locationProvider.getLastKnownLocation(request);
-					if (cachedLocation != null)
-					{
-						listener.onUpdate(cachedLocation);
-					}
-					else
-					{
-						listener.onFailure();
-					}
-				}
+				metrics.locationServed(BearingMetrics.LocationSource.FALLBACK_CACHE);
+				dispatchUpdate(cachedLocation);
 			}
-		});
+			else
+			{
+				dispatchFailure();
+			}
+		}
 	}
 }
@@ -1,12 +1,19 @@
 package net.atomcode.bearing.location;
 
 import android.content.Context;
+import android.location.Location;
+
+import net.atomcode.bearing.geocoding.ReverseGeocodingPrefetcher;
+import net.atomcode.bearing.metrics.BearingMetrics;
+import net.atomcode.bearing.stream.LocationStream;
 
 /**
  * Gets the users current location over distance using the best available service
  */
 public class PeriodicLocationTask extends LocationTask
 {
+	protected ReverseGeocodingPrefetcher prefetcher;
+
 	public PeriodicLocationTask(Context context)
 	{
 		super(context);
@@ -20,7 +27,79 @@ public class PeriodicLocationTask extends LocationTask
 	public PeriodicLocationTask start()
 	{
 		super.start();
-		this.taskId = locationProvider.requestRecurringLocationUpdates(request, listener);
+		registerUpdates();
+		return this;
+	}
+
+	@Override
+	protected synchronized void registerUpdates()
+	{
+		LocationProviderRequest providerRequest = budgeted(request);
+		if (providerRequest == null)
+		{
+			// Waiting on the GPS allowance
+			return;
+		}
+
+		sharedRequesting(providerRequest, true);
+		this.taskId = locationProvider.requestRecurringLocationUpdates(providerRequest, new LocationListener()
+		{
+			@Override public void onFix(Location location)
+			{
+				recordFirstFix(location);
+			}
+
+			@Override public void onUpdate(Location location)
+			{
+				recordLocation(location);
+				recordDelivery(location, false);
+				if (prefetcher != null)
+				{
+					prefetcher.onLocation(location);
+				}
+				dispatchUpdate(location);
+			}
+
+			@Override public void onFailure()
+			{
+				metrics.taskFailed(getTaskType());
+				dispatchFailure();
+			}
+
+			@Override public void onTimeout()
+			{
+				dispatchTimeout();
+			}
+		});
+	}
+
+	@Override
+	protected BearingMetrics.TaskType getTaskType()
+	{
+		return BearingMetrics.TaskType.TRACK;
+	}
+
+	/**
+	 * Get the fixes of this task as a stream with flow control, instead of starting the task.
+	 * The task is started with the first subscriber and cancelled when the last cancels.
+	 * Configure the task before calling, the stream replaces any listener. A failure of the task
+	 * ends the stream with an error, as does the timeout set with {@link #fallback(int, long)},
+	 * which ends the task after that time even while updates keep arriving.
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream stream()
+	{
+		return new LocationStream(this);
+	}
+
+	/**
+	 * Reverse geocode the locations ahead of the tracked path in the background,
+	 * see {@link ReverseGeocodingPrefetcher}
+	 */
+	@SuppressWarnings("unused")
+	public PeriodicLocationTask prefetch(ReverseGeocodingPrefetcher prefetcher)
+	{
+		this.prefetcher = prefetcher;
 		return this;
 	}
 
@@ -0,0 +1,109 @@
+package net.atomcode.bearing.location;
+
+import android.content.Context;
+
+import net.atomcode.bearing.Bearing;
+import net.atomcode.bearing.location.provider.GMSLocationProvider;
+import net.atomcode.bearing.location.provider.LegacyLocationProvider;
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+/**
+ * The location provider shared by all location tasks, created when the first task starts and
+ * destroyed once the last running task finishes. Which provider to use is remembered for a
+ * while, so tasks started in quick succession don't query the location services each time.
+ */
+class ProviderPool
+{
+	private static final long SELECTION_EXPIRY = 30 * 1000;
+
+	private static final ProviderPool instance = new ProviderPool();
+
+	static ProviderPool getInstance()
+	{
+		return instance;
+	}
+
+	// Guarded by this
+	private LocationProvider provider; // null when not created
+	private LocationProvider override; // null means choose by the location services available
+	private int references;
+	private boolean legacy;
+	private long selectedAt = -1; // nanoTime, -1 means no selection
+
+	private final Runnable destroyIfUnused = new Runnable()
+	{
+		@Override public void run()
+		{
+			destroyIfUnused();
+		}
+	};
+
+	/**
+	 * Use the given provider for every task started once no tasks are running,
+	 * {@code null} to choose by the location services available again
+	 */
+	synchronized void setOverride(LocationProvider override)
+	{
+		this.override = override;
+	}
+
+	/**
+	 * Get the shared provider, creating it if no task is running.
+	 * Each call must be paired with a {@link #release()}.
+	 */
+	synchronized LocationProvider acquire(Context context)
+	{
+		if (provider == null)
+		{
+			if (override != null)
+			{
+				provider = override;
+			}
+			else
+			{
+				long now = System.nanoTime();
+				if (selectedAt < 0 || now - selectedAt > SELECTION_EXPIRY * 1000000)
+				{
+					legacy = !Bearing.isLocationServicesAvailable(context);
+					selectedAt = now;
+				}
+
+				provider = legacy ? LegacyLocationProvider.getInstance() : GMSLocationProvider.getInstance();
+			}
+
+			// The provider outlives the task, don't hold on to an activity
+			Context applicationContext = context.getApplicationContext();
+			provider.create(applicationContext != null ? applicationContext : context);
+		}
+
+		references++;
+		return provider;
+	}
+
+	/**
+	 * A task finished with the shared provider. The provider is destroyed on the provider thread
+	 * once no tasks are using it, after anything the finishing task still has queued there.
+	 */
+	synchronized void release()
+	{
+		if (references > 0 && --references == 0)
+		{
+			ProviderThread.getHandler().post(destroyIfUnused);
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private synchronized void destroyIfUnused()
+	{
+		if (references == 0 && provider != null)
+		{
+			provider.destroy();
+			provider = null;
+		}
+	}
+}
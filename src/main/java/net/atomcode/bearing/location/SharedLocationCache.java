@@ -0,0 +1,306 @@
+package net.atomcode.bearing.location;
+
+import android.content.Context;
+import android.location.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Shares fixes between the processes of an app, so a fix received in one process answers
+ * location tasks in the others without another hardware request.
+ *
+ * Enable it in every process, i.e. in {@code Application.onCreate()}. The first process to
+ * enable it owns the cache, and every fresh fix its tasks receive is published to a small
+ * memory mapped file. The other processes serve cached fixes from the file, and while the
+ * owner has location requests registered at the accuracy needed, a single fix request waits
+ * briefly for the owner's next fix before making its own request. If the owner process dies
+ * the next process to start a task takes over.
+ */
+public class SharedLocationCache
+{
+	private static final String FILE_NAME = "bearing_shared_fix";
+	private static final String LOCK_FILE_NAME = "bearing_shared_fix.lock";
+
+	/*
+	 * Slot layout. The sequence is odd while the owner is writing. Stores to the mapping are not
+	 * ordered between processes, so the payload also carries a checksum and a reader retries
+	 * until the checksum matches.
+	 */
+	private static final int SEQUENCE = 0;
+	private static final int OWNER_ACCURACY = 4; // Best accuracy the owner is requesting, ordinal + 1, 0 for none
+	private static final int OWNER_INTERVAL = 8; // Shortest time between the owner's fixes, 0 for a single fix
+	private static final int CHECKSUM = 12;
+	private static final int PAYLOAD = 16;
+
+	/*
+	 * Payload layout, from the start of the payload
+	 */
+	private static final int LATITUDE = 0;
+	private static final int LONGITUDE = 8;
+	private static final int ACCURACY = 16;
+	private static final int TIME = 20;
+	private static final int PROVIDER_LENGTH = 28;
+	private static final int PROVIDER = 30;
+	private static final int MAX_PROVIDER_LENGTH = 18;
+	private static final int PAYLOAD_SIZE = PROVIDER + MAX_PROVIDER_LENGTH;
+
+	private static final int SIZE = PAYLOAD + PAYLOAD_SIZE;
+
+	private static final int MAX_READ_ATTEMPTS = 8;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static volatile SharedLocationCache instance;
+
+	/**
+	 * Share fixes with the other processes of the app that enable it
+	 */
+	public static synchronized void enable(Context context) throws IOException
+	{
+		if (instance == null)
+		{
+			instance = new SharedLocationCache(context.getFilesDir());
+		}
+	}
+
+	public static boolean isEnabled()
+	{
+		return instance != null;
+	}
+
+	/**
+	 * Whether this process owns the cache, publishing its fixes to the others
+	 */
+	public static boolean isOwner()
+	{
+		SharedLocationCache cache = instance;
+		return cache != null && cache.tryOwn();
+	}
+
+	/**
+	 * Get the shared instance, {@code null} if not enabled
+	 */
+	static SharedLocationCache getInstance()
+	{
+		return instance;
+	}
+
+	private final MappedByteBuffer slot;
+	private final RandomAccessFile lockFile;
+
+	/**
+	 * A location request registered by a task of this process
+	 */
+	private static class OwnerRequest
+	{
+		final Accuracy accuracy;
+		final long interval;
+
+		OwnerRequest(Accuracy accuracy, long interval)
+		{
+			this.accuracy = accuracy;
+			this.interval = interval;
+		}
+	}
+
+	// Guarded by this
+	private FileLock ownership;
+	private final Map<Object, OwnerRequest> requests = new IdentityHashMap<Object, OwnerRequest>();
+
+	private SharedLocationCache(File directory) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+		try
+		{
+			// The mapping stays valid after the file is closed
+			slot = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		// Held open for the lifetime of the process, the lock is released when it dies
+		lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+		tryOwn();
+	}
+
+	/**
+	 * Publish a fresh fix, if this process owns the cache
+	 */
+	void publish(Location location)
+	{
+		if (!tryOwn())
+		{
+			return;
+		}
+
+		byte[] provider = location.getProvider() != null ? location.getProvider().getBytes(ASCII) : new byte[0];
+		int providerLength = Math.min(provider.length, MAX_PROVIDER_LENGTH);
+
+		byte[] payload = new byte[PAYLOAD_SIZE];
+		ByteBuffer fields = ByteBuffer.wrap(payload);
+		fields.putDouble(LATITUDE, location.getLatitude());
+		fields.putDouble(LONGITUDE, location.getLongitude());
+		fields.putFloat(ACCURACY, location.getAccuracy());
+		fields.putLong(TIME, location.getTime());
+		fields.putShort(PROVIDER_LENGTH, (short)providerLength);
+		System.arraycopy(provider, 0, payload, PROVIDER, providerLength);
+
+		synchronized (this)
+		{
+			int sequence = slot.getInt(SEQUENCE);
+			slot.putInt(SEQUENCE, sequence + 1);
+			slot.putInt(CHECKSUM, checksum(payload));
+			ByteBuffer target = slot.duplicate();
+			target.position(PAYLOAD);
+			target.put(payload);
+			slot.putInt(SEQUENCE, sequence + 2);
+		}
+	}
+
+	/**
+	 * Get the latest published fix, {@code null} if there is none
+	 */
+	Location read()
+	{
+		byte[] payload = new byte[PAYLOAD_SIZE];
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++)
+		{
+			int sequence = slot.getInt(SEQUENCE);
+			if (sequence == 0)
+			{
+				return null;
+			}
+			if ((sequence & 1) != 0)
+			{
+				// Mid write
+				Thread.yield();
+				continue;
+			}
+
+			int checksum = slot.getInt(CHECKSUM);
+			ByteBuffer source = slot.duplicate();
+			source.position(PAYLOAD);
+			source.get(payload);
+
+			if (slot.getInt(SEQUENCE) != sequence || checksum(payload) != checksum)
+			{
+				// Torn by a write in progress
+				Thread.yield();
+				continue;
+			}
+
+			ByteBuffer fields = ByteBuffer.wrap(payload);
+			int providerLength = Math.min(Math.max(fields.getShort(PROVIDER_LENGTH), 0), MAX_PROVIDER_LENGTH);
+			Location location = new Location(new String(payload, PROVIDER, providerLength, ASCII));
+			location.setLatitude(fields.getDouble(LATITUDE));
+			location.setLongitude(fields.getDouble(LONGITUDE));
+			location.setAccuracy(fields.getFloat(ACCURACY));
+			location.setTime(fields.getLong(TIME));
+			return location;
+		}
+		return null;
+	}
+
+	/**
+	 * A task registered a location request with the provider, so fixes will be published soon
+	 * if this process owns the cache. Replaces any earlier request of the task.
+	 * @param interval Time in milliseconds between the fixes requested, 0 for a single fix
+	 */
+	synchronized void requesting(Object task, Accuracy accuracy, long interval)
+	{
+		requests.put(task, new OwnerRequest(accuracy, interval));
+		if (tryOwn())
+		{
+			writeOwnerRequests();
+		}
+	}
+
+	/**
+	 * A task no longer has a location request registered
+	 */
+	synchronized void finished(Object task)
+	{
+		if (requests.remove(task) != null && tryOwn())
+		{
+			writeOwnerRequests();
+		}
+	}
+
+	/**
+	 * Whether another process owns the cache and is expected to publish a fix of the given
+	 * accuracy within the given time
+	 * @param wait Time in milliseconds
+	 */
+	boolean isServingElsewhere(Accuracy accuracy, long wait)
+	{
+		if (tryOwn())
+		{
+			return false;
+		}
+		int ownerAccuracy = slot.getInt(OWNER_ACCURACY);
+		return ownerAccuracy > accuracy.ordinal() && slot.getInt(OWNER_INTERVAL) < wait;
+	}
+
+	/**
+	 * Take ownership if no live process holds it
+	 * @return {@code true} if this process owns the cache
+	 */
+	private synchronized boolean tryOwn()
+	{
+		if (ownership != null)
+		{
+			return true;
+		}
+
+		try
+		{
+			ownership = lockFile.getChannel().tryLock();
+		}
+		catch (IOException ex)
+		{
+			return false;
+		}
+
+		if (ownership != null)
+		{
+			// Replace the state of a previous owner that died
+			writeOwnerRequests();
+		}
+		return ownership != null;
+	}
+
+	/**
+	 * Write the best accuracy and shortest interval requested by this process. Call holding the lock.
+	 */
+	private void writeOwnerRequests()
+	{
+		int accuracy = 0;
+		long interval = Integer.MAX_VALUE;
+		for (OwnerRequest request : requests.values())
+		{
+			accuracy = Math.max(accuracy, request.accuracy.ordinal() + 1);
+			interval = Math.min(interval, request.interval);
+		}
+		slot.putInt(OWNER_INTERVAL, (int)interval);
+		slot.putInt(OWNER_ACCURACY, accuracy);
+	}
+
+	private static int checksum(byte[] payload)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int)crc.getValue();
+	}
+}
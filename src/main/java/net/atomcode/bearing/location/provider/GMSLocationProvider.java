@@ -3,7 +3,6 @@ package net.atomcode.bearing.location.provider;
 import android.content.Context;
 import android.location.Location;
 import android.os.Bundle;
-import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -13,18 +12,18 @@ import com.google.android.gms.location.LocationServices;
 import net.atomcode.bearing.location.LocationListener;
 import net.atomcode.bearing.location.LocationProvider;
 import net.atomcode.bearing.location.LocationProviderRequest;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Provide location using Google Play services
+ * Provide location using Google Play services.
+ * Fixes are received on the {@link ProviderThread}, connection callbacks on the main thread.
  */
 public class GMSLocationProvider implements LocationProvider, GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener
 {
-	private static final boolean LOG = false;
-
 	private static GMSLocationProvider instance;
 
 	public static GMSLocationProvider getInstance()
@@ -38,14 +37,17 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 
 	private GoogleApiClient apiClient;
 
-	private HashMap<String, Runnable> pendingRequests;
-	private Map<String, com.google.android.gms.location.LocationListener> runningRequests;
+	// Guarded by this, listeners are called outside the lock
+	private RequestRegistry<Runnable> pendingRequests;
+	private RequestRegistry<com.google.android.gms.location.LocationListener> runningRequests;
+	private List<Runnable> pendingConnects; // Called once connecting succeeds or fails
 
 	@Override
-	public void create(Context context)
+	public synchronized void create(Context context)
 	{
-		pendingRequests = new HashMap<>();
-		runningRequests = new HashMap<>();
+		pendingRequests = new RequestRegistry<>();
+		runningRequests = new RequestRegistry<>();
+		pendingConnects = new ArrayList<>();
 		apiClient = new GoogleApiClient.Builder(context)
 				.addConnectionCallbacks(this)
 				.addOnConnectionFailedListener(this)
@@ -54,9 +56,10 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	}
 
 	@Override
-	public void destroy()
+	public synchronized void destroy()
 	{
 		pendingRequests.clear();
+		pendingConnects.clear();
 
 		if (apiClient.isConnected() || apiClient.isConnecting())
 		{
@@ -70,6 +73,22 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 		}
 	}
 
+	@Override
+	public synchronized void connect(final Runnable onConnected)
+	{
+		if (apiClient.isConnected())
+		{
+			ProviderThread.getHandler().post(onConnected);
+			return;
+		}
+
+		pendingConnects.add(onConnected);
+		if (!apiClient.isConnecting())
+		{
+			apiClient.connect();
+		}
+	}
+
 	@Override
 	public Location getLastKnownLocation(LocationProviderRequest request)
 	{
@@ -81,9 +100,9 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	}
 
 	@Override
-	public String requestSingleLocationUpdate(final LocationProviderRequest request, final LocationListener listener)
+	public synchronized String requestSingleLocationUpdate(final LocationProviderRequest request, final LocationListener listener)
 	{
-		final String requestId = UUID.randomUUID().toString();
+		final String requestId = RequestRegistry.newRequestId();
 
 		if (!apiClient.isConnected())
 		{
@@ -91,9 +110,11 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 			{
 				@Override public void run()
 				{
+					Tracing.stage(request.traceId, BearingTracer.Stage.CONNECTED);
 					internalRequestSingleUpdate(requestId, request, listener);
 				}
 			});
+			Tracing.stage(request.traceId, BearingTracer.Stage.QUEUED);
 			apiClient.connect();
 		}
 		else
@@ -104,18 +125,20 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	}
 
 	@Override
-	public String requestRecurringLocationUpdates(final LocationProviderRequest request, final LocationListener listener)
+	public synchronized String requestRecurringLocationUpdates(final LocationProviderRequest request, final LocationListener listener)
 	{
-		final String requestId = UUID.randomUUID().toString();
+		final String requestId = RequestRegistry.newRequestId();
 
 		if (!apiClient.isConnected())
 		{
 			pendingRequests.put(requestId, new Runnable() {
 				@Override public void run()
 				{
+					Tracing.stage(request.traceId, BearingTracer.Stage.CONNECTED);
 					internalRequestRecurringUpdates(requestId, request, listener);
 				}
 			});
+			Tracing.stage(request.traceId, BearingTracer.Stage.QUEUED);
 			apiClient.connect();
 		}
 		else
@@ -126,22 +149,17 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	}
 
 	@Override
-	public void cancelUpdates(String requestId)
+	public synchronized void cancelUpdates(String requestId)
 	{
-		if (pendingRequests.containsKey(requestId))
+		if (pendingRequests.contains(requestId))
 		{
 			pendingRequests.remove(requestId);
 		}
 
-		if (runningRequests.containsKey(requestId))
+		if (runningRequests.contains(requestId))
 		{
 			LocationServices.FusedLocationApi.removeLocationUpdates(apiClient, runningRequests.get(requestId));
 			runningRequests.remove(requestId);
-
-			if (runningRequests.size() == 0)
-			{
-				apiClient.disconnect();
-			}
 		}
 	}
 
@@ -152,44 +170,24 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	{
 		final LocationRequest gmsRequest = getRecurringLocationRequestForBearingRequest(request);
 
+		final TrackingFilter filter = new TrackingFilter(request);
+
 		runningRequests.put(requestId, new com.google.android.gms.location.LocationListener()
 		{
-			private long lastReportedTimestamp = -1;
-			private Location lastReportedLocation;
-
 			@Override public void onLocationChanged(Location location)
 			{
-				long currentTimestamp = System.currentTimeMillis() / 1000;
-				long timeSinceLastReport = currentTimestamp - lastReportedTimestamp;
-
-				if (LOG)
-				{
-					Log.d("Bearing Location Tracker", "onLocationChanged last reported: " + timeSinceLastReport + " seconds ago (Fallback at " + request.trackingFallback / 1000 + ")");
-				}
-
-				if (lastReportedTimestamp == -1 || timeSinceLastReport > (request.trackingFallback / 1000))
+				synchronized (GMSLocationProvider.this)
 				{
-					if (LOG)
+					if (!runningRequests.contains(requestId))
 					{
-						Log.d("Bearing Location Tracker", "Tracking fallback, forcing update");
+						// Cancelled
+						return;
 					}
-					lastReportedLocation = location;
-					lastReportedTimestamp = currentTimestamp;
-
-					// Force report
-					if (listener != null)
-					{
-						listener.onUpdate(location);
-					}
-					return;
 				}
-
-				if (request.trackingDisplacement != -1 && location.distanceTo(lastReportedLocation) > request.trackingDisplacement)
+				if (listener != null)
 				{
-					lastReportedLocation = location;
-					lastReportedTimestamp = currentTimestamp;
-
-					if (listener != null)
+					listener.onFix(location);
+					if (filter.accept(location))
 					{
 						listener.onUpdate(location);
 					}
@@ -199,16 +197,18 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 
 		if (apiClient.isConnected())
 		{
-			LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId));
+			LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId), ProviderThread.getLooper());
+			Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
 		}
 		else
 		{
-			final String connectRequestId = UUID.randomUUID().toString();
+			final String connectRequestId = RequestRegistry.newRequestId();
 			pendingRequests.put(connectRequestId, new Runnable()
 			{
 				@Override public void run()
 				{
-					LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId));
+					LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId), ProviderThread.getLooper());
+					Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
 				}
 			});
 		}
@@ -252,21 +252,25 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 		{
 			@Override public void onLocationChanged(Location location)
 			{
-				if (listener != null)
+				synchronized (GMSLocationProvider.this)
 				{
-					listener.onUpdate(location);
+					if (runningRequests.remove(requestId) == null)
+					{
+						// Cancelled
+						return;
+					}
 				}
 
-				runningRequests.remove(requestId);
-
-				if (runningRequests.size() == 0)
+				if (listener != null)
 				{
-					apiClient.disconnect();
+					listener.onFix(location);
+					listener.onUpdate(location);
 				}
 			}
 		});
 
-		LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId));
+		LocationServices.FusedLocationApi.requestLocationUpdates(apiClient, gmsRequest, runningRequests.get(requestId), ProviderThread.getLooper());
+		Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
 	}
 
 	/**
@@ -297,7 +301,7 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	 * LocationListener and GooglePlayServicesClient callbacks
 	 * ========================================================
 	 */
-	@Override public void onConnected(Bundle bundle)
+	@Override public synchronized void onConnected(Bundle bundle)
 	{
 		// Connected. Perform pending requests
 		for (Runnable runnable : pendingRequests.values())
@@ -306,6 +310,8 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 		}
 
 		pendingRequests.clear();
+
+		finishConnects();
 	}
 
 	@Override
@@ -315,8 +321,21 @@ public class GMSLocationProvider implements LocationProvider, GoogleApiClient.Co
 	}
 
 	@Override
-	public void onConnectionFailed(ConnectionResult connectionResult)
+	public synchronized void onConnectionFailed(ConnectionResult connectionResult)
 	{
+		// Connecting is over, requests stay queued for the next attempt
+		finishConnects();
+	}
 
+	/**
+	 * Call back everything waiting on the connection attempt, on the provider thread. Call holding the lock.
+	 */
+	private void finishConnects()
+	{
+		for (Runnable onConnected : pendingConnects)
+		{
+			ProviderThread.getHandler().post(onConnected);
+		}
+		pendingConnects.clear();
 	}
 }
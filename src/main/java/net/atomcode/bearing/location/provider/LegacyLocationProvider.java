@@ -5,18 +5,23 @@ import android.location.Criteria;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.Bundle;
-import android.os.Looper;
+import android.os.SystemClock;
 
 import net.atomcode.bearing.location.LocationListener;
 import net.atomcode.bearing.location.LocationProvider;
 import net.atomcode.bearing.location.LocationProviderRequest;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Simple location provider using the legacy android location services
+ * Simple location provider using the legacy android location services.
+ * Fixes are received on the {@link ProviderThread}.
+ *
+ * Single fixes use the provider that has met the request accuracy soonest on this device,
+ * see {@link ProviderStats}, falling back to the cheapest provider for the accuracy.
  */
 public class LegacyLocationProvider implements LocationProvider
 {
@@ -31,24 +36,59 @@ public class LegacyLocationProvider implements LocationProvider
 		return instance;
 	}
 
+	/**
+	 * A single fix requested from a provider, for its stats
+	 */
+	private static class Attempt
+	{
+		final String provider;
+		final long startTime;
+
+		Attempt(String provider)
+		{
+			this.provider = provider;
+			this.startTime = SystemClock.elapsedRealtime();
+		}
+	}
+
 	private LocationManager locationManager;
+	private ProviderStats stats;
 
-	private Map<String, android.location.LocationListener> runningRequests;
+	// Guarded by this, listeners are called outside the lock
+	private RequestRegistry<android.location.LocationListener> runningRequests;
+	private RequestRegistry<List<android.location.LocationListener>> racingRequests;
+	private RequestRegistry<Attempt> attempts;
 
-	@Override public void create(Context context)
+	@Override public synchronized void create(Context context)
 	{
 		locationManager = (LocationManager)context.getSystemService(Context.LOCATION_SERVICE);
+		stats = new ProviderStats(context);
 
-		runningRequests = new HashMap<String, android.location.LocationListener>();
+		runningRequests = new RequestRegistry<android.location.LocationListener>();
+		racingRequests = new RequestRegistry<List<android.location.LocationListener>>();
+		attempts = new RequestRegistry<Attempt>();
 	}
 
-	@Override public void destroy()
+	@Override public synchronized void destroy()
 	{
 		for (android.location.LocationListener runningRequest : runningRequests.values())
 		{
 			locationManager.removeUpdates(runningRequest);
 		}
 		runningRequests.clear();
+		attempts.clear();
+
+		for (String requestId : racingRequests.ids())
+		{
+			cancelRace(requestId);
+		}
+	}
+
+	@Override
+	public void connect(Runnable onConnected)
+	{
+		// Nothing to connect to
+		ProviderThread.getHandler().post(onConnected);
 	}
 
 	@Override
@@ -68,10 +108,9 @@ public class LegacyLocationProvider implements LocationProvider
 			Location lastKnownUserLocation = locationManager.getLastKnownLocation(provider);
 
 			// Check if last known location is valid
-			if (lastKnownUserLocation != null &&
-					System.currentTimeMillis() - lastKnownUserLocation.getTime() < request.cacheExpiry)
+			if (request.isCacheValid(lastKnownUserLocation))
 			{
-				if (lastKnownUserLocation.getAccuracy() < request.accuracy.value)
+				if (request.meetsAccuracy(lastKnownUserLocation))
 				{
 					if (listener != null)
 					{
@@ -82,17 +121,36 @@ public class LegacyLocationProvider implements LocationProvider
 			}
 		}
 
-		final String requestId = UUID.randomUUID().toString();
+		final String requestId = RequestRegistry.newRequestId();
 
-		runningRequests.put(requestId, new android.location.LocationListener()
+		if (request.race)
+		{
+			List<String> providers = getRaceProviders();
+			if (providers.size() > 1)
+			{
+				startRace(requestId, providers, request, listener);
+				return requestId;
+			}
+		}
+
+		android.location.LocationListener providerListener = new android.location.LocationListener()
 		{
 			@Override public void onLocationChanged(Location location)
 			{
+				synchronized (LegacyLocationProvider.this)
+				{
+					if (runningRequests.remove(requestId) == null)
+					{
+						// Cancelled
+						return;
+					}
+					recordFix(attempts.remove(requestId), location);
+				}
 				if (listener != null)
 				{
+					listener.onFix(location);
 					listener.onUpdate(location);
 				}
-				runningRequests.remove(requestId);
 			}
 
 			@Override public void onStatusChanged(String provider, int status, Bundle extras)
@@ -109,9 +167,15 @@ public class LegacyLocationProvider implements LocationProvider
 			{
 
 			}
-		});
+		};
 
-		locationManager.requestSingleUpdate(provider, runningRequests.get(requestId), Looper.getMainLooper());
+		synchronized (this)
+		{
+			runningRequests.put(requestId, providerListener);
+			attempts.put(requestId, new Attempt(provider));
+			locationManager.requestSingleUpdate(provider, providerListener, ProviderThread.getLooper());
+		}
+		Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
 
 		return requestId;
 	}
@@ -119,7 +183,7 @@ public class LegacyLocationProvider implements LocationProvider
 	@Override
 	public String requestRecurringLocationUpdates(final LocationProviderRequest request, final LocationListener listener)
 	{
-		String requestId = UUID.randomUUID().toString();
+		final String requestId = RequestRegistry.newRequestId();
 
 		int powerCriteria = Criteria.POWER_LOW;
 		int accuracyCriteria = Criteria.ACCURACY_MEDIUM;
@@ -145,12 +209,21 @@ public class LegacyLocationProvider implements LocationProvider
 
 		String bestProvider = locationManager.getBestProvider(criteria, false);
 
-		runningRequests.put(requestId, new android.location.LocationListener()
+		android.location.LocationListener providerListener = new android.location.LocationListener()
 		{
 			@Override public void onLocationChanged(Location location)
 			{
+				synchronized (LegacyLocationProvider.this)
+				{
+					if (!runningRequests.contains(requestId))
+					{
+						// Cancelled
+						return;
+					}
+				}
 				if (listener != null)
 				{
+					listener.onFix(location);
 					listener.onUpdate(location);
 				}
 			}
@@ -169,26 +242,196 @@ public class LegacyLocationProvider implements LocationProvider
 			{
 
 			}
-		});
+		};
 
-		locationManager.requestLocationUpdates(bestProvider, request.trackingRate, 0, runningRequests.get(requestId));
-		return null;
+		synchronized (this)
+		{
+			runningRequests.put(requestId, providerListener);
+			locationManager.requestLocationUpdates(bestProvider, request.trackingRate, 0, providerListener, ProviderThread.getLooper());
+		}
+		Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
+		return requestId;
 	}
 
 	@Override
-	public void cancelUpdates(String requestId)
+	public synchronized void cancelUpdates(String requestId)
 	{
-		if (runningRequests.containsKey(requestId))
+		if (runningRequests.contains(requestId))
 		{
 			locationManager.removeUpdates(runningRequests.get(requestId));
 			runningRequests.remove(requestId);
 		}
+
+		Attempt attempt = attempts.remove(requestId);
+		if (attempt != null)
+		{
+			stats.recordAbandoned(attempt.provider, SystemClock.elapsedRealtime() - attempt.startTime);
+		}
+
+		cancelRace(requestId);
+	}
+
+	/**
+	 * Register a single update with each of the given providers. The first fix meeting the
+	 * request accuracy wins and the remaining registrations are removed. If every active
+	 * provider reports without meeting the accuracy, the most accurate fix is delivered.
+	 * The passive provider takes part opportunistically and is not waited on.
+	 * Every fix received before the race is decided is added to the provider stats.
+	 */
+	private void startRace(final String requestId, List<String> providers, final LocationProviderRequest request, final LocationListener listener)
+	{
+		final List<android.location.LocationListener> raceListeners = new ArrayList<android.location.LocationListener>(providers.size());
+		final List<String> pendingProviders = new ArrayList<String>(providers);
+		pendingProviders.remove(LocationManager.PASSIVE_PROVIDER);
+
+		final Location[] bestLocation = new Location[1];
+
+		for (final String provider : providers)
+		{
+			final Attempt attempt = new Attempt(provider);
+			raceListeners.add(new android.location.LocationListener()
+			{
+				@Override public void onLocationChanged(Location location)
+				{
+					boolean decided;
+					synchronized (LegacyLocationProvider.this)
+					{
+						if (!racingRequests.contains(requestId))
+						{
+							// Race already decided or cancelled
+							return;
+						}
+						recordFix(attempt, location);
+
+						if (bestLocation[0] == null || location.getAccuracy() < bestLocation[0].getAccuracy())
+						{
+							bestLocation[0] = location;
+						}
+						pendingProviders.remove(provider);
+
+						decided = request.meetsAccuracy(location) || pendingProviders.isEmpty();
+						if (decided)
+						{
+							cancelRace(requestId);
+						}
+					}
+
+					if (listener != null)
+					{
+						listener.onFix(location);
+						if (decided)
+						{
+							listener.onUpdate(bestLocation[0]);
+						}
+					}
+				}
+
+				@Override public void onStatusChanged(String provider, int status, Bundle extras)
+				{
+
+				}
+
+				@Override public void onProviderEnabled(String provider)
+				{
+
+				}
+
+				@Override public void onProviderDisabled(String provider)
+				{
+
+				}
+			});
+		}
+
+		synchronized (this)
+		{
+			racingRequests.put(requestId, raceListeners);
+
+			for (int i = 0; i < providers.size(); i++)
+			{
+				locationManager.requestSingleUpdate(providers.get(i), raceListeners.get(i), ProviderThread.getLooper());
+			}
+		}
+		Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
+	}
+
+	/**
+	 * Remove all registrations for the given race, if it is still running. Call holding the lock.
+	 */
+	private void cancelRace(String requestId)
+	{
+		List<android.location.LocationListener> raceListeners = racingRequests.remove(requestId);
+		if (raceListeners != null)
+		{
+			for (android.location.LocationListener raceListener : raceListeners)
+			{
+				locationManager.removeUpdates(raceListener);
+			}
+		}
 	}
 
 	/**
-	 * Get the provider for the given request
+	 * Add a fix to the stats of the provider it was requested from. Call holding the lock.
+	 */
+	private void recordFix(Attempt attempt, Location location)
+	{
+		// Passive fixes arrive when other apps make requests, their timing says nothing
+		if (attempt != null && !LocationManager.PASSIVE_PROVIDER.equals(attempt.provider))
+		{
+			stats.recordFix(attempt.provider, SystemClock.elapsedRealtime() - attempt.startTime, location.getAccuracy());
+		}
+	}
+
+	/**
+	 * Get the enabled providers able to take part in a race
+	 */
+	private List<String> getRaceProviders()
+	{
+		String[] candidates = new String[] {
+				LocationManager.PASSIVE_PROVIDER,
+				LocationManager.NETWORK_PROVIDER,
+				LocationManager.GPS_PROVIDER
+		};
+
+		List<String> providers = new ArrayList<String>(candidates.length);
+		for (String provider : candidates)
+		{
+			if (locationManager.isProviderEnabled(provider))
+			{
+				providers.add(provider);
+			}
+		}
+		return providers;
+	}
+
+	/**
+	 * Get the provider for the given request. The cheapest provider for the accuracy is
+	 * replaced by an active provider expected to meet the accuracy sooner, once both have a record.
 	 */
 	private String getProviderForRequest(LocationProviderRequest request)
+	{
+		String provider = getDefaultProviderForRequest(request);
+		if (LocationManager.PASSIVE_PROVIDER.equals(provider))
+		{
+			// Free, no active provider beats it
+			return provider;
+		}
+
+		List<String> candidates = new ArrayList<String>(2);
+		for (String candidate : new String[] { LocationManager.NETWORK_PROVIDER, LocationManager.GPS_PROVIDER })
+		{
+			if (locationManager.isProviderEnabled(candidate))
+			{
+				candidates.add(candidate);
+			}
+		}
+		return stats.choose(provider, candidates, request.accuracy);
+	}
+
+	/**
+	 * Get the cheapest enabled provider for the accuracy of the given request
+	 */
+	private String getDefaultProviderForRequest(LocationProviderRequest request)
 	{
 		String provider = null;
 		switch (request.accuracy)
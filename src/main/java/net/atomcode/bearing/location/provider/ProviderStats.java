@@ -0,0 +1,197 @@
+package net.atomcode.bearing.location.provider;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import net.atomcode.bearing.location.Accuracy;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record of how each hardware provider performs on this device, kept across runs. For each
+ * provider the time to a fix, how often a fix is not received at all and how often fixes meet
+ * each {@link Accuracy} are tracked as moving averages, so recent behaviour counts most.
+ *
+ * Used to pick the provider expected to meet a request's accuracy soonest, i.e. network
+ * location on devices where it is consistently fast and accurate enough.
+ */
+class ProviderStats
+{
+	private static final String PREFERENCES = "bearing_provider_stats";
+
+	/**
+	 * Weight of each new sample in the averages
+	 */
+	private static final double WEIGHT = 0.2;
+
+	/**
+	 * Samples needed before a provider's record is trusted
+	 */
+	private static final int MIN_SAMPLES = 5;
+
+	/**
+	 * Least chance of meeting the accuracy for a provider to be chosen over the default
+	 */
+	private static final double MIN_SUCCESS = 0.5;
+
+	/**
+	 * A request cancelled sooner than this without a fix was not waited on, and doesn't count as a failure
+	 */
+	private static final long MIN_FAILURE_WAIT = 10 * 1000;
+
+	private static class Record
+	{
+		int samples;
+		double timeToFix;
+		double failureRate;
+		double[] meetRate = new double[Accuracy.values().length];
+	}
+
+	private final SharedPreferences preferences;
+
+	// Guarded by this
+	private final Map<String, Record> records = new HashMap<String, Record>();
+
+	ProviderStats(Context context)
+	{
+		preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Record a fix received the given time after the request was made
+	 */
+	synchronized void recordFix(String provider, long timeToFix, float accuracy)
+	{
+		Record record = getRecord(provider);
+		record.timeToFix = average(record, record.timeToFix, timeToFix);
+		record.failureRate = average(record, record.failureRate, 0);
+		for (Accuracy level : Accuracy.values())
+		{
+			record.meetRate[level.ordinal()] = average(record, record.meetRate[level.ordinal()], accuracy < level.value ? 1 : 0);
+		}
+		record.samples++;
+		save(provider, record);
+	}
+
+	/**
+	 * Record a request cancelled the given time after it was made, without a fix
+	 */
+	synchronized void recordAbandoned(String provider, long waited)
+	{
+		if (waited < MIN_FAILURE_WAIT)
+		{
+			return;
+		}
+
+		Record record = getRecord(provider);
+		record.failureRate = average(record, record.failureRate, 1);
+		if (record.samples == 0)
+		{
+			// Unknown until a fix arrives, at least as long as the wait
+			record.timeToFix = waited;
+			for (int i = 0; i < record.meetRate.length; i++)
+			{
+				record.meetRate[i] = 0;
+			}
+		}
+		record.samples++;
+		save(provider, record);
+	}
+
+	/**
+	 * Choose the provider expected to meet the accuracy soonest
+	 * @param preferred The provider used without a record, kept until it has a record to compare against
+	 * @param candidates The enabled providers to choose between
+	 * @return The chosen provider
+	 */
+	synchronized String choose(String preferred, List<String> candidates, Accuracy accuracy)
+	{
+		if (!candidates.contains(preferred) || !isKnown(preferred))
+		{
+			return preferred;
+		}
+
+		String best = preferred;
+		double bestCost = expectedTime(preferred, accuracy);
+		for (String provider : candidates)
+		{
+			if (!isKnown(provider))
+			{
+				continue;
+			}
+
+			double cost = expectedTime(provider, accuracy);
+			if (cost < bestCost)
+			{
+				best = provider;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private boolean isKnown(String provider)
+	{
+		return getRecord(provider).samples >= MIN_SAMPLES;
+	}
+
+	/**
+	 * Expected time to a fix meeting the accuracy, counting failed requests as retries.
+	 * Infinite below {@link #MIN_SUCCESS}.
+	 */
+	private double expectedTime(String provider, Accuracy accuracy)
+	{
+		Record record = getRecord(provider);
+		double success = (1 - record.failureRate) * record.meetRate[accuracy.ordinal()];
+		if (success < MIN_SUCCESS)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		return record.timeToFix / success;
+	}
+
+	private static double average(Record record, double average, double sample)
+	{
+		return record.samples == 0 ? sample : average + WEIGHT * (sample - average);
+	}
+
+	private Record getRecord(String provider)
+	{
+		Record record = records.get(provider);
+		if (record == null)
+		{
+			record = new Record();
+			record.samples = preferences.getInt(provider + ".samples", 0);
+			record.timeToFix = preferences.getFloat(provider + ".timeToFix", 0);
+			record.failureRate = preferences.getFloat(provider + ".failureRate", 0);
+			for (Accuracy level : Accuracy.values())
+			{
+				record.meetRate[level.ordinal()] = preferences.getFloat(provider + ".meets." + level.name(), 0);
+			}
+			records.put(provider, record);
+		}
+		return record;
+	}
+
+	private void save(String provider, Record record)
+	{
+		SharedPreferences.Editor editor = preferences.edit()
+				.putInt(provider + ".samples", record.samples)
+				.putFloat(provider + ".timeToFix", (float)record.timeToFix)
+				.putFloat(provider + ".failureRate", (float)record.failureRate);
+		for (Accuracy level : Accuracy.values())
+		{
+			editor.putFloat(provider + ".meets." + level.name(), (float)record.meetRate[level.ordinal()]);
+		}
+		// Written in the background
+		editor.apply();
+	}
+}
@@ -0,0 +1,35 @@
+package net.atomcode.bearing.location.provider;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The thread providers receive fixes on, shared by all providers, keeping fix handling off
+ * the main thread. Location task timeouts also run here.
+ */
+public final class ProviderThread
+{
+	private static Handler handler;
+
+	private ProviderThread()
+	{
+	}
+
+	public static synchronized Handler getHandler()
+	{
+		if (handler == null)
+		{
+			HandlerThread thread = new HandlerThread("Bearing location", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			handler = new Handler(thread.getLooper());
+		}
+		return handler;
+	}
+
+	public static Looper getLooper()
+	{
+		return getHandler().getLooper();
+	}
+}
@@ -0,0 +1,373 @@
+package net.atomcode.bearing.location.provider;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+
+import net.atomcode.bearing.core.replay.ReplayTrack;
+import net.atomcode.bearing.location.LocationListener;
+import net.atomcode.bearing.location.LocationProvider;
+import net.atomcode.bearing.location.LocationProviderRequest;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Location provider playing back a recorded {@link ReplayTrack}, for driving location tasks
+ * with realistic fixes without a device, i.e. in load tests or on an emulator.
+ *
+ * Points are played at their recorded spacing, or faster with {@link #speed(double)}. Playback
+ * starts from the first point with the first request after the provider is created, so the
+ * first location task to start after none were running receives the first point. Dropouts and
+ * noise are drawn from a seeded random source, so a replay with the same settings produces the
+ * same fixes every time.
+ *
+ * Fixes are stamped with the time they are delivered. Tracking rates and fallbacks are measured
+ * in track time, so tracking filters see the same fixes whatever the playback speed.
+ *
+ * Use it for every location task with {@link net.atomcode.bearing.Bearing#useProvider(LocationProvider)}.
+ * Playback runs on the provider thread and is timed by {@link SystemClock}, so it needs a
+ * device, an emulator or Robolectric rather than a plain JVM. Tracks themselves are plain Java.
+ */
+public class ReplayLocationProvider implements LocationProvider
+{
+	/**
+	 * Provider name of the fixes played back
+	 */
+	public static final String PROVIDER = "replay";
+
+	private static final double METRES_PER_DEGREE = 111320;
+
+	/**
+	 * Time between the end of the track and the start of the next loop
+	 */
+	private static final long LOOP_GAP = 1000;
+
+	private static class Registration
+	{
+		final LocationProviderRequest request;
+		final LocationListener listener;
+		final TrackingFilter filter; // null for a single fix
+
+		long lastDelivered = -1; // Track time, -1 means none yet. Provider thread only
+
+		Registration(LocationProviderRequest request, LocationListener listener, boolean recurring)
+		{
+			this.request = request;
+			this.listener = listener;
+			this.filter = recurring ? new TrackingFilter(request) : null;
+		}
+	}
+
+	private final ReplayTrack track;
+
+	// Guarded by this
+	private double speed = 1;
+	private boolean loop;
+	private double dropoutProbability;
+	private long dropoutLength;
+	private float positionNoise;
+	private float accuracyNoise;
+	private long seed;
+
+	private boolean created;
+	private boolean playing;
+	private RequestRegistry<Registration> registrations;
+	private Random random;
+	private long startUptime;
+	private int index;
+	private long loopOffset; // Track time added by previous loops
+	private long dropoutEnd; // Track time, fixes before it are dropped
+	private Location lastLocation;
+
+	private final Runnable tick = new Runnable()
+	{
+		@Override public void run()
+		{
+			onTick();
+		}
+	};
+
+	public ReplayLocationProvider(ReplayTrack track)
+	{
+		this.track = track;
+	}
+
+	/**
+	 * Play back faster than recorded, i.e. 100 for a hundred times faster. Default 1, and
+	 * {@link Double#POSITIVE_INFINITY} to play every point without waiting.
+	 */
+	@SuppressWarnings("unused")
+	public synchronized ReplayLocationProvider speed(double speed)
+	{
+		if (speed <= 0)
+		{
+			throw new IllegalArgumentException("Speed must be positive");
+		}
+		this.speed = speed;
+		return this;
+	}
+
+	/**
+	 * Start again from the first point once the track ends, default {@code false}
+	 */
+	@SuppressWarnings("unused")
+	public synchronized ReplayLocationProvider loop(boolean loop)
+	{
+		this.loop = loop;
+		return this;
+	}
+
+	/**
+	 * Drop fixes, as when the signal is lost
+	 * @param probability Chance of a dropout starting at each point
+	 * @param length Track time in milliseconds the dropout lasts, 0 to drop only the one fix
+	 */
+	@SuppressWarnings("unused")
+	public synchronized ReplayLocationProvider dropouts(double probability, long length)
+	{
+		this.dropoutProbability = probability;
+		this.dropoutLength = length;
+		return this;
+	}
+
+	/**
+	 * Add noise to the fixes
+	 * @param position Standard deviation in metres of the error added to each position, north and east
+	 * @param accuracy Standard deviation in metres of the error added to each reported accuracy, which only grows
+	 */
+	@SuppressWarnings("unused")
+	public synchronized ReplayLocationProvider noise(float position, float accuracy)
+	{
+		this.positionNoise = position;
+		this.accuracyNoise = accuracy;
+		return this;
+	}
+
+	/**
+	 * Seed for dropouts and noise, default 0
+	 */
+	@SuppressWarnings("unused")
+	public synchronized ReplayLocationProvider seed(long seed)
+	{
+		this.seed = seed;
+		return this;
+	}
+
+	@Override
+	public synchronized void create(Context context)
+	{
+		registrations = new RequestRegistry<Registration>();
+		random = new Random(seed);
+		index = 0;
+		loopOffset = 0;
+		dropoutEnd = 0;
+		lastLocation = null;
+		playing = false;
+		created = true;
+	}
+
+	@Override
+	public synchronized void destroy()
+	{
+		created = false;
+		playing = false;
+		registrations.clear();
+		ProviderThread.getHandler().removeCallbacks(tick);
+	}
+
+	@Override
+	public void connect(Runnable onConnected)
+	{
+		// Nothing to connect to
+		ProviderThread.getHandler().post(onConnected);
+	}
+
+	@Override
+	public synchronized Location getLastKnownLocation(LocationProviderRequest request)
+	{
+		return lastLocation;
+	}
+
+	@Override
+	public String requestSingleLocationUpdate(LocationProviderRequest request, LocationListener listener)
+	{
+		if (request.useCache)
+		{
+			Location lastKnownLocation = getLastKnownLocation(request);
+			if (request.isCacheValid(lastKnownLocation) && request.meetsAccuracy(lastKnownLocation))
+			{
+				if (listener != null)
+				{
+					listener.onUpdate(lastKnownLocation);
+					return null;
+				}
+			}
+		}
+
+		return register(request, listener, false);
+	}
+
+	@Override
+	public String requestRecurringLocationUpdates(LocationProviderRequest request, LocationListener listener)
+	{
+		return register(request, listener, true);
+	}
+
+	@Override
+	public synchronized void cancelUpdates(String requestId)
+	{
+		if (registrations != null)
+		{
+			registrations.remove(requestId);
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private String register(LocationProviderRequest request, LocationListener listener, boolean recurring)
+	{
+		String requestId = RequestRegistry.newRequestId();
+		synchronized (this)
+		{
+			registrations.put(requestId, new Registration(request, listener, recurring));
+			if (!playing && track.size() > 0)
+			{
+				// Start with the first request, so it receives the first point
+				playing = true;
+				startUptime = SystemClock.uptimeMillis();
+				ProviderThread.getHandler().post(tick);
+			}
+		}
+		Tracing.stage(request.traceId, BearingTracer.Stage.PROVIDER_REGISTERED);
+		return requestId;
+	}
+
+	/**
+	 * Play the current point and schedule the next, on the provider thread
+	 */
+	private void onTick()
+	{
+		Location location = null;
+		long trackTime;
+		List<Registration> receiving = new ArrayList<Registration>();
+
+		synchronized (this)
+		{
+			if (!created)
+			{
+				return;
+			}
+
+			trackTime = track.getTime(index) + loopOffset;
+			boolean dropped = trackTime < dropoutEnd;
+			if (!dropped && dropoutProbability > 0 && random.nextDouble() < dropoutProbability)
+			{
+				dropoutEnd = trackTime + dropoutLength;
+				dropped = true;
+			}
+
+			if (!dropped)
+			{
+				location = createLocation(index);
+				lastLocation = location;
+
+				for (String requestId : registrations.ids())
+				{
+					Registration registration = registrations.get(requestId);
+					if (registration.filter == null)
+					{
+						registrations.remove(requestId);
+						receiving.add(registration);
+					}
+					else if (registration.lastDelivered == -1 || trackTime - registration.lastDelivered >= registration.request.trackingRate)
+					{
+						receiving.add(registration);
+					}
+				}
+			}
+
+			scheduleNext();
+		}
+
+		// Filtered outside the lock, so the fix reaches each listener before its filter decides
+		for (Registration registration : receiving)
+		{
+			if (registration.listener != null)
+			{
+				registration.listener.onFix(location);
+			}
+			if (registration.filter != null)
+			{
+				if (!registration.filter.accept(location, trackTime))
+				{
+					continue;
+				}
+				registration.lastDelivered = trackTime;
+			}
+			if (registration.listener != null)
+			{
+				registration.listener.onUpdate(location);
+			}
+		}
+	}
+
+	/**
+	 * Move on to the next point and schedule it at its time in the playback. Call holding the lock.
+	 */
+	private void scheduleNext()
+	{
+		if (++index == track.size())
+		{
+			if (!loop)
+			{
+				return;
+			}
+			index = 0;
+			loopOffset += track.getDuration() + LOOP_GAP;
+		}
+
+		long trackTime = track.getTime(index) + loopOffset;
+		ProviderThread.getHandler().postAtTime(tick, startUptime + (long)(trackTime / speed));
+	}
+
+	/**
+	 * Create the fix for the given point, adding noise. Call holding the lock.
+	 */
+	private Location createLocation(int index)
+	{
+		double latitude = track.getLatitude(index);
+		double longitude = track.getLongitude(index);
+		float accuracy = track.getAccuracy(index);
+
+		if (positionNoise > 0)
+		{
+			double north = random.nextGaussian() * positionNoise;
+			double east = random.nextGaussian() * positionNoise;
+			longitude += east / (METRES_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+			latitude += north / METRES_PER_DEGREE;
+		}
+		if (accuracyNoise > 0)
+		{
+			accuracy += (float)Math.abs(random.nextGaussian() * accuracyNoise);
+		}
+
+		Location location = new Location(PROVIDER);
+		location.setLatitude(latitude);
+		location.setLongitude(longitude);
+		location.setAccuracy(accuracy);
+		location.setTime(System.currentTimeMillis());
+		if (!Double.isNaN(track.getAltitude(index)))
+		{
+			location.setAltitude(track.getAltitude(index));
+		}
+		return location;
+	}
+}
@@ -0,0 +1,75 @@
+package net.atomcode.bearing.location.provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Registry of the requests a provider is currently handling, keyed by request id
+ */
+class RequestRegistry<T>
+{
+	private final Map<String, T> requests = new HashMap<String, T>();
+
+	/**
+	 * Generate a new unique request id
+	 */
+	static String newRequestId()
+	{
+		return UUID.randomUUID().toString();
+	}
+
+	void put(String requestId, T request)
+	{
+		requests.put(requestId, request);
+	}
+
+	T get(String requestId)
+	{
+		return requests.get(requestId);
+	}
+
+	T remove(String requestId)
+	{
+		return requests.remove(requestId);
+	}
+
+	boolean contains(String requestId)
+	{
+		return requests.containsKey(requestId);
+	}
+
+	boolean isEmpty()
+	{
+		return requests.isEmpty();
+	}
+
+	int size()
+	{
+		return requests.size();
+	}
+
+	/**
+	 * Get a copy of the registered ids, safe to iterate while modifying the registry
+	 */
+	List<String> ids()
+	{
+		return new ArrayList<String>(requests.keySet());
+	}
+
+	/**
+	 * Get a copy of the registered requests, safe to iterate while modifying the registry
+	 */
+	Collection<T> values()
+	{
+		return new ArrayList<T>(requests.values());
+	}
+
+	void clear()
+	{
+		requests.clear();
+	}
+}
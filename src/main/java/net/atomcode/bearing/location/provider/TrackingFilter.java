@@ -0,0 +1,75 @@
+package net.atomcode.bearing.location.provider;
+
+import android.location.Location;
+import android.util.Log;
+
+import net.atomcode.bearing.location.LocationProviderRequest;
+import net.atomcode.bearing.trace.BearingTracer;
+import net.atomcode.bearing.trace.Tracing;
+
+/**
+ * Filters the fixes of a recurring request down to those that should be reported,
+ * using the tracking displacement and fallback of the request
+ */
+class TrackingFilter
+{
+	private static final boolean LOG = false;
+
+	private final LocationProviderRequest request;
+
+	private long lastReportedTimestamp = -1;
+	private Location lastReportedLocation;
+
+	TrackingFilter(LocationProviderRequest request)
+	{
+		this.request = request;
+	}
+
+	/**
+	 * Check if the given fix should be reported, recording it as the last report if so
+	 */
+	boolean accept(Location location)
+	{
+		return accept(location, System.currentTimeMillis());
+	}
+
+	/**
+	 * Check if the given fix should be reported at the given time
+	 * @param currentTimeMillis The current wall clock time in milliseconds
+	 */
+	boolean accept(Location location, long currentTimeMillis)
+	{
+		long currentTimestamp = currentTimeMillis / 1000;
+		long timeSinceLastReport = currentTimestamp - lastReportedTimestamp;
+
+		if (LOG)
+		{
+			Log.d("Bearing Location Tracker", "onLocationChanged last reported: " + timeSinceLastReport + " seconds ago (Fallback at " + request.trackingFallback / 1000 + ")");
+		}
+
+		if (lastReportedTimestamp == -1 || timeSinceLastReport > (request.trackingFallback / 1000))
+		{
+			if (LOG)
+			{
+				Log.d("Bearing Location Tracker", "Tracking fallback, forcing update");
+			}
+			lastReportedLocation = location;
+			lastReportedTimestamp = currentTimestamp;
+
+			// Force report
+			Tracing.stage(request.traceId, BearingTracer.Stage.FIX_ACCEPTED);
+			return true;
+		}
+
+		if (request.trackingDisplacement != -1 && location.distanceTo(lastReportedLocation) > request.trackingDisplacement)
+		{
+			lastReportedLocation = location;
+			lastReportedTimestamp = currentTimestamp;
+			Tracing.stage(request.traceId, BearingTracer.Stage.FIX_ACCEPTED);
+			return true;
+		}
+
+		Tracing.stage(request.traceId, BearingTracer.Stage.FIX_FILTERED);
+		return false;
+	}
+}
@@ -0,0 +1,252 @@
+package net.atomcode.bearing.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of runtime metrics for all Bearing tasks.
+ *
+ * Recording uses lock free counters and histograms, and is always on.
+ * Collect with {@link #snapshot()}, times are in milliseconds.
+ */
+public class BearingMetrics
+{
+	/**
+	 * The kinds of task measured
+	 */
+	public enum TaskType
+	{
+		LOCATE,
+		TRACK,
+		GEOCODE,
+		REVERSE_GEOCODE
+	}
+
+	/**
+	 * The location providers measured
+	 */
+	public enum Provider
+	{
+		GMS,
+		LEGACY
+	}
+
+	/**
+	 * Where a location was served from
+	 */
+	public enum LocationSource
+	{
+		/**
+		 * A fresh fix from the provider
+		 */
+		PROVIDER,
+		/**
+		 * A cached location valid for the request
+		 */
+		CACHE,
+		/**
+		 * A cached location used by {@code FALLBACK_CACHE} after a timeout
+		 */
+		FALLBACK_CACHE
+	}
+
+	/**
+	 * Where a geocoding lookup was served from
+	 */
+	public enum GeocodingSource
+	{
+		NATIVE,
+		REMOTE,
+		/**
+		 * A previously resolved result near enough to a reverse lookup using the cache
+		 */
+		CACHE,
+		/**
+		 * A previously resolved result used by {@code FALLBACK_CACHE} after a timeout
+		 */
+		FALLBACK_CACHE
+	}
+
+	private static BearingMetrics instance;
+
+	public static synchronized BearingMetrics getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new BearingMetrics();
+		}
+		return instance;
+	}
+
+	private final Histogram[] taskLatency = histograms(TaskType.values().length);
+	private final Histogram[] timeToFirstFix = histograms(Provider.values().length);
+
+	private final AtomicLongArray locationSources = new AtomicLongArray(LocationSource.values().length);
+	private final AtomicLongArray geocodingSources = new AtomicLongArray(GeocodingSource.values().length);
+
+	private final AtomicLongArray timeouts = new AtomicLongArray(TaskType.values().length);
+	private final AtomicLongArray failures = new AtomicLongArray(TaskType.values().length);
+
+	private final AtomicInteger[] active = new AtomicInteger[TaskType.values().length];
+
+	BearingMetrics()
+	{
+		for (int i = 0; i < active.length; i++)
+		{
+			active[i] = new AtomicInteger();
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * RECORDING
+	 * ==============================================
+	 */
+
+	/**
+	 * A task of the given type started
+	 */
+	public void taskStarted(TaskType type)
+	{
+		active[type.ordinal()].incrementAndGet();
+	}
+
+	/**
+	 * A task of the given type finished, for any reason
+	 */
+	public void taskFinished(TaskType type)
+	{
+		active[type.ordinal()].decrementAndGet();
+	}
+
+	/**
+	 * Record the time a task took to deliver its result
+	 */
+	public void taskLatency(TaskType type, long millis)
+	{
+		taskLatency[type.ordinal()].record(millis);
+	}
+
+	public void taskTimedOut(TaskType type)
+	{
+		timeouts.incrementAndGet(type.ordinal());
+	}
+
+	public void taskFailed(TaskType type)
+	{
+		failures.incrementAndGet(type.ordinal());
+	}
+
+	/**
+	 * Record the time from requesting a location to the first fix arriving
+	 */
+	public void timeToFirstFix(Provider provider, long millis)
+	{
+		timeToFirstFix[provider.ordinal()].record(millis);
+	}
+
+	public void locationServed(LocationSource source)
+	{
+		locationSources.incrementAndGet(source.ordinal());
+	}
+
+	public void geocodingServed(GeocodingSource source)
+	{
+		geocodingSources.incrementAndGet(source.ordinal());
+	}
+
+	/*
+	 * ==============================================
+	 * COLLECTION
+	 * ==============================================
+	 */
+
+	/**
+	 * Take a copy of all metrics
+	 */
+	public MetricsSnapshot snapshot()
+	{
+		return new MetricsSnapshot(
+				snapshots(taskLatency),
+				snapshots(timeToFirstFix),
+				copy(locationSources),
+				copy(geocodingSources),
+				copy(timeouts),
+				copy(failures),
+				copy(active));
+	}
+
+	/**
+	 * Reset all counters and histograms. Active task counts reflect running tasks and
+	 * are left untouched.
+	 */
+	public void reset()
+	{
+		for (Histogram histogram : taskLatency)
+		{
+			histogram.reset();
+		}
+		for (Histogram histogram : timeToFirstFix)
+		{
+			histogram.reset();
+		}
+		clear(locationSources);
+		clear(geocodingSources);
+		clear(timeouts);
+		clear(failures);
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private static Histogram[] histograms(int count)
+	{
+		Histogram[] histograms = new Histogram[count];
+		for (int i = 0; i < count; i++)
+		{
+			histograms[i] = new Histogram();
+		}
+		return histograms;
+	}
+
+	private static HistogramSnapshot[] snapshots(Histogram[] histograms)
+	{
+		HistogramSnapshot[] snapshots = new HistogramSnapshot[histograms.length];
+		for (int i = 0; i < histograms.length; i++)
+		{
+			snapshots[i] = histograms[i].snapshot();
+		}
+		return snapshots;
+	}
+
+	private static long[] copy(AtomicLongArray array)
+	{
+		long[] copy = new long[array.length()];
+		for (int i = 0; i < copy.length; i++)
+		{
+			copy[i] = array.get(i);
+		}
+		return copy;
+	}
+
+	private static long[] copy(AtomicInteger[] array)
+	{
+		long[] copy = new long[array.length];
+		for (int i = 0; i < copy.length; i++)
+		{
+			copy[i] = array[i].get();
+		}
+		return copy;
+	}
+
+	private static void clear(AtomicLongArray array)
+	{
+		for (int i = 0; i < array.length(); i++)
+		{
+			array.set(i, 0);
+		}
+	}
+}
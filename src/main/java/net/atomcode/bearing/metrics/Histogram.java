@@ -0,0 +1,117 @@
+package net.atomcode.bearing.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free log-linear histogram of non-negative values.
+ *
+ * Values are counted in buckets of 16 linear steps per power of two, so the reported
+ * value of any recorded value is within 1/16th of the true value. Recording is a few
+ * atomic increments, with no allocation.
+ */
+public class Histogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value, negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+		{
+			value = 0;
+		}
+
+		counts.incrementAndGet(bucketFor(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get()))
+		{
+			if (max.compareAndSet(currentMax, value))
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Take a consistent enough copy of the histogram. Values recorded during the copy
+	 * may or may not be included.
+	 */
+	public HistogramSnapshot snapshot()
+	{
+		long[] bucketCounts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			bucketCounts[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(bucketCounts, count.get(), sum.get(), max.get());
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/*
+	 * ==============================================
+	 * BUCKET MATHS
+	 * ==============================================
+	 */
+
+	static int bucketFor(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int)value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * The smallest value counted in the given bucket
+	 */
+	static long lowerBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS | subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * The largest value counted in the given bucket
+	 */
+	static long upperBound(int bucket)
+	{
+		if (bucket == BUCKETS - 1)
+		{
+			return Long.MAX_VALUE;
+		}
+		return lowerBound(bucket + 1) - 1;
+	}
+}
@@ -0,0 +1,76 @@
+package net.atomcode.bearing.metrics;
+
+/**
+ * Immutable copy of a {@link Histogram}
+ */
+public class HistogramSnapshot
+{
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long count, long sum, long max)
+	{
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public long getMax()
+	{
+		return max;
+	}
+
+	public double getMean()
+	{
+		return count == 0 ? 0 : (double)sum / count;
+	}
+
+	/**
+	 * Get the value at the given percentile
+	 * @param percentile The percentile, 0 to 100
+	 * @return The upper bound of the bucket containing the percentile, capped at the max
+	 */
+	public long getPercentile(double percentile)
+	{
+		long total = 0;
+		for (long bucketCount : counts)
+		{
+			total += bucketCount;
+		}
+
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(percentile / 100.0 * total);
+		if (rank < 1)
+		{
+			rank = 1;
+		}
+
+		long seen = 0;
+		for (int bucket = 0; bucket < counts.length; bucket++)
+		{
+			seen += counts[bucket];
+			if (seen >= rank)
+			{
+				return Math.min(Histogram.upperBound(bucket), max);
+			}
+		}
+		return max;
+	}
+
+	@Override public String toString()
+	{
+		return "count=" + count + " mean=" + getMean() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90) + " p99=" + getPercentile(99) + " max=" + max;
+	}
+}
@@ -0,0 +1,126 @@
+package net.atomcode.bearing.metrics;
+
+import net.atomcode.bearing.metrics.BearingMetrics.GeocodingSource;
+import net.atomcode.bearing.metrics.BearingMetrics.LocationSource;
+import net.atomcode.bearing.metrics.BearingMetrics.Provider;
+import net.atomcode.bearing.metrics.BearingMetrics.TaskType;
+
+/**
+ * Immutable copy of {@link BearingMetrics} at a point in time
+ */
+public class MetricsSnapshot
+{
+	private final HistogramSnapshot[] taskLatency;
+	private final HistogramSnapshot[] timeToFirstFix;
+	private final long[] locationSources;
+	private final long[] geocodingSources;
+	private final long[] timeouts;
+	private final long[] failures;
+	private final long[] active;
+
+	MetricsSnapshot(HistogramSnapshot[] taskLatency, HistogramSnapshot[] timeToFirstFix, long[] locationSources,
+			long[] geocodingSources, long[] timeouts, long[] failures, long[] active)
+	{
+		this.taskLatency = taskLatency;
+		this.timeToFirstFix = timeToFirstFix;
+		this.locationSources = locationSources;
+		this.geocodingSources = geocodingSources;
+		this.timeouts = timeouts;
+		this.failures = failures;
+		this.active = active;
+	}
+
+	/**
+	 * Time from start to result for tasks of the given type. For tracking tasks this is
+	 * the time to the first update.
+	 */
+	public HistogramSnapshot getTaskLatency(TaskType type)
+	{
+		return taskLatency[type.ordinal()];
+	}
+
+	public HistogramSnapshot getTimeToFirstFix(Provider provider)
+	{
+		return timeToFirstFix[provider.ordinal()];
+	}
+
+	public long getLocationCount(LocationSource source)
+	{
+		return locationSources[source.ordinal()];
+	}
+
+	/**
+	 * Fraction of served locations that came from the given source
+	 */
+	public double getLocationRatio(LocationSource source)
+	{
+		return ratio(locationSources, source.ordinal());
+	}
+
+	public long getGeocodingCount(GeocodingSource source)
+	{
+		return geocodingSources[source.ordinal()];
+	}
+
+	/**
+	 * Fraction of geocoding lookups that were served by the given source
+	 */
+	public double getGeocodingRatio(GeocodingSource source)
+	{
+		return ratio(geocodingSources, source.ordinal());
+	}
+
+	public long getTimeouts(TaskType type)
+	{
+		return timeouts[type.ordinal()];
+	}
+
+	public long getFailures(TaskType type)
+	{
+		return failures[type.ordinal()];
+	}
+
+	/**
+	 * The number of tasks of the given type running when the snapshot was taken
+	 */
+	public long getActive(TaskType type)
+	{
+		return active[type.ordinal()];
+	}
+
+	private static double ratio(long[] counts, int index)
+	{
+		long total = 0;
+		for (long count : counts)
+		{
+			total += count;
+		}
+		return total == 0 ? 0 : (double)counts[index] / total;
+	}
+
+	@Override public String toString()
+	{
+		StringBuilder builder = new StringBuilder("MetricsSnapshot");
+		for (TaskType type : TaskType.values())
+		{
+			builder.append("\n").append(type)
+					.append(": active=").append(getActive(type))
+					.append(" timeouts=").append(getTimeouts(type))
+					.append(" failures=").append(getFailures(type))
+					.append(" latency[").append(getTaskLatency(type)).append("]");
+		}
+		for (Provider provider : Provider.values())
+		{
+			builder.append("\n").append(provider).append(" ttff[").append(getTimeToFirstFix(provider)).append("]");
+		}
+		for (LocationSource source : LocationSource.values())
+		{
+			builder.append("\nlocation ").append(source).append("=").append(getLocationCount(source));
+		}
+		for (GeocodingSource source : GeocodingSource.values())
+		{
+			builder.append("\ngeocoding ").append(source).append("=").append(getGeocodingCount(source));
+		}
+		return builder.toString();
+	}
+}
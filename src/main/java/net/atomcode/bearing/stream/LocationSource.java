@@ -0,0 +1,123 @@
+package net.atomcode.bearing.stream;
+
+import android.location.Location;
+import android.os.Handler;
+
+import net.atomcode.bearing.Dispatch;
+import net.atomcode.bearing.location.LocationListener;
+import net.atomcode.bearing.location.PeriodicLocationTask;
+import net.atomcode.bearing.location.provider.ProviderThread;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The tracking task shared by the subscribers of a stream and the streams derived from it.
+ * Started with the first subscriber and cancelled when the last one leaves, on the provider thread.
+ * Fixes are queued straight from the provider thread, subscriptions dispatch them themselves.
+ * A failure of the task, or the end of its fallback timeout, ends every stream with an error.
+ */
+class LocationSource
+{
+	private final PeriodicLocationTask task;
+	private final Handler handler = ProviderThread.getHandler();
+
+	private final CopyOnWriteArrayList<StreamSubscription> subscriptions = new CopyOnWriteArrayList<StreamSubscription>();
+	private boolean running; // Guarded by this
+
+	private final Runnable startTask = new Runnable()
+	{
+		@Override public void run()
+		{
+			task.start();
+		}
+	};
+
+	private final Runnable cancelTask = new Runnable()
+	{
+		@Override public void run()
+		{
+			task.cancel();
+		}
+	};
+
+	LocationSource(PeriodicLocationTask task)
+	{
+		this.task = task;
+		task.dispatchOn(Dispatch.immediate());
+		task.listen(new LocationListener()
+		{
+			@Override public void onUpdate(Location location)
+			{
+				for (StreamSubscription subscription : subscriptions)
+				{
+					subscription.onLocation(location);
+				}
+			}
+
+			@Override public void onFailure()
+			{
+				fail(new IllegalStateException("Location updates failed"));
+			}
+
+			@Override public void onTimeout()
+			{
+				fail(new TimeoutException("Tracking task ended at its fallback timeout"));
+			}
+		});
+	}
+
+	void add(StreamSubscription subscription)
+	{
+		boolean start;
+		synchronized (this)
+		{
+			if (subscription.isCancelled())
+			{
+				// Cancelled from onSubscribe
+				return;
+			}
+			subscriptions.add(subscription);
+			start = !running;
+			running = true;
+		}
+
+		if (start)
+		{
+			handler.post(startTask);
+		}
+	}
+
+	void remove(StreamSubscription subscription)
+	{
+		boolean cancel;
+		synchronized (this)
+		{
+			subscriptions.remove(subscription);
+			cancel = running && subscriptions.isEmpty();
+			if (cancel)
+			{
+				running = false;
+			}
+		}
+
+		if (cancel)
+		{
+			handler.post(cancelTask);
+		}
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private void fail(Throwable failure)
+	{
+		for (StreamSubscription subscription : subscriptions)
+		{
+			subscription.onError(failure);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package net.atomcode.bearing.stream;
+
+import android.location.Location;
+
+import net.atomcode.bearing.location.PeriodicLocationTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stream of fixes from a tracking task, delivered to each subscriber as it requests them.
+ *
+ * All subscribers share the one tracking task, started with the first subscriber and
+ * cancelled when the last cancels. Fixes are queued for each subscriber and delivered on an
+ * executor, never on the thread the provider calls back on, so a slow subscriber doesn't hold
+ * up the provider or the other subscribers. Fixes arriving faster than a subscriber requests
+ * them are handled by the overflow strategy.
+ *
+ * Streams are immutable, operators return a new stream sharing the same tracking task.
+ * Fixes are shared between subscribers and must not be modified.
+ */
+public class LocationStream implements Publisher<Location>
+{
+	/**
+	 * What to do with fixes that arrive before the subscriber has requested them
+	 */
+	public enum Overflow
+	{
+		/**
+		 * Keep only the latest fix, replacing any undelivered fix
+		 */
+		LATEST,
+		/**
+		 * Queue fixes up to the buffer size, dropping the oldest when full
+		 */
+		BUFFER,
+		/**
+		 * Drop fixes there is no outstanding demand for
+		 */
+		DROP
+	}
+
+	private static final int DEFAULT_BUFFER_SIZE = 16;
+
+	private static final Executor defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Bearing stream #" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final LocationSource source;
+	private final List<StreamFilter> filters;
+	private final Overflow overflow;
+	private final int bufferSize;
+	private final Executor executor;
+
+	/**
+	 * Create a stream of the fixes of the given task. The stream takes over the task, setting its
+	 * listener and starting and cancelling it with its subscribers. Configure the task first.
+	 */
+	public LocationStream(PeriodicLocationTask task)
+	{
+		this(new LocationSource(task), new ArrayList<StreamFilter>(), Overflow.LATEST, DEFAULT_BUFFER_SIZE, defaultExecutor);
+	}
+
+	private LocationStream(LocationSource source, List<StreamFilter> filters, Overflow overflow, int bufferSize, Executor executor)
+	{
+		this.source = source;
+		this.filters = filters;
+		this.overflow = overflow;
+		this.bufferSize = bufferSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * Deliver at most one fix per interval, the first fix of each
+	 * @param interval Time in milliseconds, by fix time
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream sample(long interval)
+	{
+		return withFilter(new StreamFilter.Sample(interval));
+	}
+
+	/**
+	 * Deliver only fixes at least the given distance from the last delivered fix
+	 * @param displacement Distance in metres
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream distinct(float displacement)
+	{
+		return withFilter(new StreamFilter.Distinct(displacement));
+	}
+
+	/**
+	 * Set what happens to fixes arriving faster than they are requested, default {@link Overflow#LATEST}
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream overflow(Overflow overflow)
+	{
+		return new LocationStream(source, filters, overflow, bufferSize, executor);
+	}
+
+	/**
+	 * Buffer up to the given number of fixes arriving faster than they are requested,
+	 * dropping the oldest when full
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream buffer(int bufferSize)
+	{
+		if (bufferSize < 1)
+		{
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		return new LocationStream(source, filters, Overflow.BUFFER, bufferSize, executor);
+	}
+
+	/**
+	 * Deliver fixes on the given executor, by default a shared background pool.
+	 * Deliveries to a subscriber are never concurrent whatever the executor.
+	 */
+	@SuppressWarnings("unused")
+	public LocationStream deliverOn(Executor executor)
+	{
+		return new LocationStream(source, filters, overflow, bufferSize, executor);
+	}
+
+	@Override public void subscribe(Subscriber<? super Location> subscriber)
+	{
+		if (subscriber == null)
+		{
+			throw new NullPointerException("Subscriber cannot be null");
+		}
+
+		// Each subscription filters independently
+		StreamFilter[] subscriptionFilters = new StreamFilter[filters.size()];
+		for (int i = 0; i < subscriptionFilters.length; i++)
+		{
+			subscriptionFilters[i] = filters.get(i).copy();
+		}
+
+		new StreamSubscription(source, subscriber, subscriptionFilters, overflow, bufferSize, executor).start();
+	}
+
+	private LocationStream withFilter(StreamFilter filter)
+	{
+		List<StreamFilter> chained = new ArrayList<StreamFilter>(filters);
+		chained.add(filter);
+		return new LocationStream(source, chained, overflow, bufferSize, executor);
+	}
+}
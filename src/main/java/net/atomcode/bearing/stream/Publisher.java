@@ -0,0 +1,13 @@
+package net.atomcode.bearing.stream;
+
+/**
+ * A source of items delivered on demand. Follows the Reactive Streams contract, with the same
+ * signatures as {@code org.reactivestreams.Publisher} so adapting to a stream library is trivial.
+ */
+public interface Publisher<T>
+{
+	/**
+	 * Start delivering items to the given subscriber, once it requests them
+	 */
+	public void subscribe(Subscriber<? super T> subscriber);
+}
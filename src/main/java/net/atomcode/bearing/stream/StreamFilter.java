@@ -0,0 +1,79 @@
+package net.atomcode.bearing.stream;
+
+import android.location.Location;
+
+/**
+ * Stateful filter of the fixes of a single subscription
+ */
+abstract class StreamFilter
+{
+	/**
+	 * Whether to pass the given fix on, updating the filter state if so
+	 */
+	abstract boolean accept(Location location);
+
+	/**
+	 * A new filter with the same configuration and fresh state
+	 */
+	abstract StreamFilter copy();
+
+	/**
+	 * Passes the first fix of each interval
+	 */
+	static class Sample extends StreamFilter
+	{
+		private final long interval;
+		private long lastTime;
+		private boolean started;
+
+		Sample(long interval)
+		{
+			this.interval = interval;
+		}
+
+		@Override boolean accept(Location location)
+		{
+			if (started && location.getTime() - lastTime < interval)
+			{
+				return false;
+			}
+			started = true;
+			lastTime = location.getTime();
+			return true;
+		}
+
+		@Override StreamFilter copy()
+		{
+			return new Sample(interval);
+		}
+	}
+
+	/**
+	 * Passes fixes at least a distance from the last passed fix
+	 */
+	static class Distinct extends StreamFilter
+	{
+		private final float displacement;
+		private Location last;
+
+		Distinct(float displacement)
+		{
+			this.displacement = displacement;
+		}
+
+		@Override boolean accept(Location location)
+		{
+			if (last != null && last.distanceTo(location) < displacement)
+			{
+				return false;
+			}
+			last = location;
+			return true;
+		}
+
+		@Override StreamFilter copy()
+		{
+			return new Distinct(displacement);
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package net.atomcode.bearing.stream;
+
+import android.location.Location;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A subscriber's queue of fixes, drained on the executor as the subscriber requests them.
+ * Fixes are queued from the provider thread and all calls to the subscriber are made by a
+ * single drain loop, so they are never concurrent.
+ */
+class StreamSubscription implements Subscription
+{
+	private final LocationSource source;
+	private final Subscriber<? super Location> subscriber;
+	private final StreamFilter[] filters;
+	private final LocationStream.Overflow overflow;
+	private final int bufferSize;
+	private final Executor executor;
+
+	private final AtomicInteger pendingDrains = new AtomicInteger();
+	private final Runnable drainer = new Runnable()
+	{
+		@Override public void run()
+		{
+			int missed = 1;
+			do
+			{
+				drainQueue();
+				missed = pendingDrains.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+	};
+
+	// Drain loop only
+	private boolean subscribed;
+
+	// Guarded by this
+	private final ArrayDeque<Location> queue = new ArrayDeque<Location>();
+	private long requested;
+	private boolean cancelled;
+	private Throwable error;
+
+	StreamSubscription(LocationSource source, Subscriber<? super Location> subscriber, StreamFilter[] filters,
+			LocationStream.Overflow overflow, int bufferSize, Executor executor)
+	{
+		this.source = source;
+		this.subscriber = subscriber;
+		this.filters = filters;
+		this.overflow = overflow;
+		this.bufferSize = bufferSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * Deliver onSubscribe and start receiving fixes
+	 */
+	void start()
+	{
+		drain();
+		source.add(this);
+	}
+
+	/**
+	 * A fix from the provider
+	 */
+	void onLocation(Location location)
+	{
+		synchronized (this)
+		{
+			if (cancelled || error != null)
+			{
+				return;
+			}
+			if (overflow == LocationStream.Overflow.DROP && queue.size() >= requested)
+			{
+				// No demand, drop before the filters see it
+				return;
+			}
+			for (StreamFilter filter : filters)
+			{
+				if (!filter.accept(location))
+				{
+					return;
+				}
+			}
+
+			if (overflow == LocationStream.Overflow.LATEST)
+			{
+				queue.clear();
+			}
+			else if (overflow == LocationStream.Overflow.BUFFER && queue.size() >= bufferSize)
+			{
+				queue.pollFirst();
+			}
+			queue.addLast(location);
+		}
+		drain();
+	}
+
+	/**
+	 * The provider failed, end the stream
+	 */
+	void onError(Throwable failure)
+	{
+		synchronized (this)
+		{
+			if (cancelled || error != null)
+			{
+				return;
+			}
+			error = failure;
+		}
+		drain();
+	}
+
+	@Override public void request(long count)
+	{
+		if (count <= 0)
+		{
+			onError(new IllegalArgumentException("Requested count must be positive, was " + count));
+			source.remove(this);
+			return;
+		}
+
+		synchronized (this)
+		{
+			requested += count;
+			if (requested < 0)
+			{
+				// Overflowed, treat as unbounded
+				requested = Long.MAX_VALUE;
+			}
+		}
+		drain();
+	}
+
+	@Override public void cancel()
+	{
+		synchronized (this)
+		{
+			if (cancelled)
+			{
+				return;
+			}
+			cancelled = true;
+			queue.clear();
+		}
+		source.remove(this);
+	}
+
+	synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/*
+	 * ==============================================
+	 * INTERNAL METHODS
+	 * ==============================================
+	 */
+
+	private void drain()
+	{
+		if (pendingDrains.getAndIncrement() == 0)
+		{
+			executor.execute(drainer);
+		}
+	}
+
+	/**
+	 * Deliver everything the subscriber has demand for. Drain loop only.
+	 */
+	private void drainQueue()
+	{
+		if (!subscribed)
+		{
+			subscribed = true;
+			subscriber.onSubscribe(this);
+		}
+
+		while (true)
+		{
+			Location next = null;
+			Throwable failure = null;
+			synchronized (this)
+			{
+				if (cancelled)
+				{
+					return;
+				}
+
+				if (error != null)
+				{
+					// Fail straight away, undelivered fixes are dropped
+					cancelled = true;
+					queue.clear();
+					failure = error;
+				}
+				else if (requested > 0 && !queue.isEmpty())
+				{
+					next = queue.pollFirst();
+					if (requested != Long.MAX_VALUE)
+					{
+						requested--;
+					}
+				}
+				else
+				{
+					return;
+				}
+			}
+
+			if (failure != null)
+			{
+				source.remove(this);
+				subscriber.onError(failure);
+				return;
+			}
+			subscriber.onNext(next);
+		}
+	}
+}
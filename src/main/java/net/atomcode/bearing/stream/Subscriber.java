@@ -0,0 +1,25 @@
+package net.atomcode.bearing.stream;
+
+/**
+ * Receives items from a {@link Publisher}, no more than it has requested through its
+ * {@link Subscription}. Calls are never concurrent.
+ */
+public interface Subscriber<T>
+{
+	/**
+	 * Called once before any other call, request items through the subscription
+	 */
+	public void onSubscribe(Subscription subscription);
+
+	public void onNext(T item);
+
+	/**
+	 * The stream failed, no further calls are made
+	 */
+	public void onError(Throwable error);
+
+	/**
+	 * The stream ended, no further calls are made
+	 */
+	public void onComplete();
+}
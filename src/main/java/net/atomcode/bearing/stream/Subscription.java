@@ -0,0 +1,17 @@
+package net.atomcode.bearing.stream;
+
+/**
+ * The link between a {@link Publisher} and one of its subscribers
+ */
+public interface Subscription
+{
+	/**
+	 * Allow the given number of further items to be delivered, {@link Long#MAX_VALUE} for no limit
+	 */
+	public void request(long count);
+
+	/**
+	 * Stop delivering items, may still deliver items already in flight
+	 */
+	public void cancel();
+}
@@ -0,0 +1,85 @@
+package net.atomcode.bearing.trace;
+
+import net.atomcode.bearing.metrics.BearingMetrics;
+
+/**
+ * Receives the lifecycle stages of individual tasks. Install with {@link Tracing#setTracer}.
+ *
+ * Callbacks are made synchronously on whichever thread the stage happens on,
+ * implementations should be quick and thread safe. Timestamps are from
+ * {@link System#nanoTime()}, only differences between them are meaningful.
+ */
+public interface BearingTracer
+{
+	public enum Stage
+	{
+		/*
+		 * Location tasks
+		 */
+
+		/**
+		 * Request waiting for the Google API client to connect
+		 */
+		QUEUED,
+		/**
+		 * Google API client connected, queued request is being made
+		 */
+		CONNECTED,
+		/**
+		 * Request registered with the underlying location service
+		 */
+		PROVIDER_REGISTERED,
+		/**
+		 * First fix received by the task
+		 */
+		FIRST_FIX,
+		/**
+		 * A fix was dropped, i.e. by the tracking displacement or for not improving accuracy
+		 */
+		FIX_FILTERED,
+		/**
+		 * A fix passed filtering
+		 */
+		FIX_ACCEPTED,
+
+		/*
+		 * Geocoding tasks
+		 */
+
+		/**
+		 * Lookup with the native geocoder started
+		 */
+		NATIVE_ATTEMPT,
+		/**
+		 * Lookup with the web geocoding API started
+		 */
+		REMOTE_FALLBACK,
+		/**
+		 * Web geocoding response parsed
+		 */
+		PARSED,
+
+		/*
+		 * All tasks
+		 */
+
+		/**
+		 * Result delivered to the listener
+		 */
+		DELIVERED,
+		TIMED_OUT,
+		FAILED,
+		CANCELLED
+	}
+
+	/**
+	 * A task was created
+	 * @param traceId Identifies the task in later stages
+	 */
+	public void onCreated(long traceId, BearingMetrics.TaskType type, long timestampNanos);
+
+	/**
+	 * A task reached the given stage
+	 */
+	public void onStage(long traceId, Stage stage, long timestampNanos);
+}
@@ -0,0 +1,54 @@
+package net.atomcode.bearing.trace;
+
+import net.atomcode.bearing.metrics.BearingMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the installed {@link BearingTracer}. With no tracer installed each stage costs
+ * a single field read.
+ */
+public class Tracing
+{
+	private static final AtomicLong nextTraceId = new AtomicLong();
+
+	private static volatile BearingTracer tracer;
+
+	private Tracing()
+	{
+	}
+
+	/**
+	 * Install the tracer to receive task stages, {@code null} to remove
+	 */
+	public static void setTracer(BearingTracer tracer)
+	{
+		Tracing.tracer = tracer;
+	}
+
+	/**
+	 * Allocate an id for a new task
+	 */
+	public static long newTraceId()
+	{
+		return nextTraceId.incrementAndGet();
+	}
+
+	public static void created(long traceId, BearingMetrics.TaskType type)
+	{
+		BearingTracer current = tracer;
+		if (current != null)
+		{
+			current.onCreated(traceId, type, System.nanoTime());
+		}
+	}
+
+	public static void stage(long traceId, BearingTracer.Stage stage)
+	{
+		BearingTracer current = tracer;
+		if (current != null)
+		{
+			current.onStage(traceId, stage, System.nanoTime());
+		}
+	}
+}